@@ -0,0 +1,176 @@
+package replicate.common;
+
+import replicate.net.InetAddressAndPort;
+import replicate.net.NIOOutboundConnection;
+import replicate.net.NIOSocketClient;
+import replicate.net.ResponseConsumer;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Client for sending requests to the cluster at high rates.
+ * Unlike {@link NetworkClient}, which opens a new connection for every request and blocks for the response,
+ * it keeps a small pool of persistent connections per node, and sends requests without waiting
+ * for the earlier ones to complete. Responses are matched to the requests by correlationId.
+ * All the connections are served by a single {@link NIOSocketClient} selector thread.
+ */
+public class AsyncNetworkClient implements Logging {
+    private final NIOSocketClient socketClient;
+    private final int connectionsPerNode;
+    private final long requestTimeoutMs;
+    private final Map<InetAddressAndPort, ConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCorrelationId = new AtomicInteger();
+    //completes the responses, so that the callbacks do not run on the selector thread.
+    private final ExecutorService responseThreads;
+
+    public AsyncNetworkClient(Config config) throws IOException {
+        this.connectionsPerNode = config.getClientConnectionsPerNode();
+        this.requestTimeoutMs = config.getClientRequestTimeoutMs();
+        this.responseThreads = VirtualThreads.newThreadPerTaskExecutor("async-client-response", config.isUseVirtualThreads());
+        this.socketClient = new NIOSocketClient("async-client", new CborWireCodec());
+        this.socketClient.start();
+    }
+
+    public <Req extends MessagePayload, Res> CompletableFuture<NetworkClient.Response<Res>> sendAsync(Req request, InetAddressAndPort address, Class<Res> responseClass) {
+        return sendAsync(request, address, responseClass, requestTimeoutMs);
+    }
+
+    //The future fails with a TimeoutException if there is no response in timeoutMs.
+    public <Req extends MessagePayload, Res> CompletableFuture<NetworkClient.Response<Res>> sendAsync(Req request, InetAddressAndPort address, Class<Res> responseClass, long timeoutMs) {
+        int correlationId = nextCorrelationId.incrementAndGet();
+        var message = new RequestOrResponse(request.getMessageId().getId(), JsonSerDes.serialize(request), correlationId);
+        PooledConnection connection;
+        try {
+            connection = connectionPool(address).nextConnection();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return connection.send(correlationId, message, timeoutMs)
+                .thenApply(response -> toResponse(response, responseClass));
+    }
+
+    private static <Res> NetworkClient.Response<Res> toResponse(RequestOrResponse response, Class<Res> responseClass) {
+        if (response.isError()) {
+            return NetworkClient.Response.error(JsonSerDes.deserialize(response.getMessageBodyJson(), String.class));
+        }
+        return NetworkClient.Response.result(JsonSerDes.deserialize(response.getMessageBodyJson(), responseClass));
+    }
+
+    private ConnectionPool connectionPool(InetAddressAndPort address) {
+        return connectionPools.computeIfAbsent(address, ConnectionPool::new);
+    }
+
+    public int getInflightRequests() {
+        return connectionPools.values().stream().mapToInt(ConnectionPool::inflightRequests).sum();
+    }
+
+    //Fails all the requests still waiting for a response.
+    public void close() {
+        connectionPools.values().forEach(ConnectionPool::close);
+        socketClient.shutdown();
+        responseThreads.shutdown();
+    }
+
+    class ConnectionPool {
+        private final InetAddressAndPort address;
+        private final AtomicReferenceArray<PooledConnection> connections = new AtomicReferenceArray<>(connectionsPerNode);
+        private final AtomicInteger next = new AtomicInteger();
+
+        ConnectionPool(InetAddressAndPort address) {
+            this.address = address;
+        }
+
+        //Requests are spread over the connections round-robin.
+        //A closed connection is replaced with a new one when its turn comes.
+        //Connecting does not block, so requests to other nodes are not held up by an unreachable node.
+        PooledConnection nextConnection() throws IOException {
+            int slot = Math.floorMod(next.getAndIncrement(), connectionsPerNode);
+            var connection = connections.get(slot);
+            if (connection != null && !connection.isClosed()) {
+                return connection;
+            }
+            synchronized (this) {
+                connection = connections.get(slot);
+                if (connection == null || connection.isClosed()) {
+                    connection = new PooledConnection(address);
+                    connections.set(slot, connection);
+                }
+                return connection;
+            }
+        }
+
+        int inflightRequests() {
+            int count = 0;
+            for (int i = 0; i < connections.length(); i++) {
+                var connection = connections.get(i);
+                count += (connection == null) ? 0 : connection.inflightRequests.size();
+            }
+            return count;
+        }
+
+        void close() {
+            for (int i = 0; i < connections.length(); i++) {
+                var connection = connections.get(i);
+                if (connection != null) {
+                    connection.connection.close();
+                }
+            }
+        }
+    }
+
+    class PooledConnection implements ResponseConsumer {
+        private final InetAddressAndPort address;
+        private final Map<Integer, CompletableFuture<RequestOrResponse>> inflightRequests = new ConcurrentHashMap<>();
+        private final NIOOutboundConnection connection;
+
+        PooledConnection(InetAddressAndPort address) throws IOException {
+            this.address = address;
+            this.connection = socketClient.connectAsync(address, this);
+        }
+
+        CompletableFuture<RequestOrResponse> send(int correlationId, RequestOrResponse request, long timeoutMs) {
+            var future = new CompletableFuture<RequestOrResponse>();
+            inflightRequests.put(correlationId, future);
+            future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .whenComplete((response, e) -> inflightRequests.remove(correlationId));
+            try {
+                connection.send(request);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        @Override
+        public void accept(RequestOrResponse response) {
+            var future = inflightRequests.remove(response.getCorrelationId());
+            if (future == null) {
+                getLogger().debug("Ignoring response " + response.getCorrelationId() + " from " + address + " for a timed out request");
+                return;
+            }
+            responseThreads.execute(() -> future.complete(response));
+        }
+
+        @Override
+        public void close(NIOOutboundConnection closedConnection) {
+            var failure = new IOException("Connection to " + address + " closed");
+            for (Integer correlationId : inflightRequests.keySet()) {
+                var future = inflightRequests.remove(correlationId);
+                if (future != null) {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+
+        boolean isClosed() {
+            return connection.isClosed();
+        }
+    }
+}
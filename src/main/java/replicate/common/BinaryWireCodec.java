@@ -0,0 +1,164 @@
+package replicate.common;
+
+import replicate.net.InetAddressAndPort;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes messages with a fixed binary header, without reflection.
+ *
+ * Layout: version, flags, requestId, correlationId, generation,
+ * [fromAddress length, fromAddress bytes, port], payload length, payload.
+ *
+ * The payload is copied as is, and decoded as a view into the received buffer,
+ * so it is not copied again before the handler deserializes it.
+ * When a {@link PayloadCodec} is registered for
+ * the payload class, the payload itself is binary encoded as well, which is
+ * marked with the BINARY_PAYLOAD flag. Such payloads are written by their
+ * {@link PayloadWriter} directly into the frame, after the header.
+ */
+public class BinaryWireCodec implements WireCodec {
+    static final byte VERSION = 1;
+    static final byte ERROR = 1;
+    static final byte HAS_FROM_ADDRESS = 1 << 1;
+    static final byte BINARY_PAYLOAD = 1 << 2;
+
+    private static final int HEADER_SIZE = 1 + 1 + Integer.BYTES * 3;
+    //initial frame capacity for payloads which are written by a PayloadWriter, and so have no known size.
+    private static final int ESTIMATED_PAYLOAD_SIZE = 256;
+
+    @Override
+    public byte[] encode(RequestOrResponse message) {
+        ByteBuffer frame = encodeFrame(message);
+        return Arrays.copyOfRange(frame.array(), Integer.BYTES, frame.limit());
+    }
+
+    //<codeFragment name="binaryEncode">
+    //The header and the payload are written into a single growable buffer.
+    //The frame length and the payload length are not known till the payload is written,
+    //so space is reserved for them and they are filled in at the end.
+    @Override
+    public ByteBuffer encodeFrame(RequestOrResponse message) {
+        byte[] address = message.getFromAddress() == null ? null : message.getFromAddress().getAddress().getAddress();
+        PayloadWriter payloadWriter = message.getPayloadWriter();
+        ByteBuffer payload = payloadWriter == null ? message.getPayload() : null;
+        int estimatedSize = Integer.BYTES + HEADER_SIZE
+                + (address == null ? 0 : 1 + address.length + Integer.BYTES)
+                + Integer.BYTES + (payload == null ? ESTIMATED_PAYLOAD_SIZE : payload.remaining());
+
+        var frame = new FrameOutput(estimatedSize);
+        try {
+            var os = new DataOutputStream(frame);
+            os.writeInt(0); //frame length
+            os.writeByte(VERSION);
+            os.writeByte(flagsOf(message, address != null));
+            os.writeInt(message.getRequestId());
+            os.writeInt(message.getCorrelationId());
+            os.writeInt(message.getGeneration());
+            if (address != null) {
+                os.writeByte(address.length);
+                os.write(address);
+                os.writeInt(message.getFromAddress().getPort());
+            }
+            int payloadLengthPosition = frame.size();
+            os.writeInt(0); //payload length
+            if (payloadWriter != null) {
+                payloadWriter.writeTo(os);
+            } else {
+                frame.write(payload);
+            }
+            frame.putIntAt(payloadLengthPosition, frame.size() - payloadLengthPosition - Integer.BYTES);
+            frame.putIntAt(0, frame.size() - Integer.BYTES);
+            return frame.toFrame();
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Exposes the written bytes without copying them.
+    static class FrameOutput extends ByteArrayOutputStream {
+        FrameOutput(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void write(ByteBuffer payload) {
+            if (payload.hasArray()) {
+                write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+                return;
+            }
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            write(bytes, 0, bytes.length);
+        }
+
+        void putIntAt(int position, int value) {
+            ByteBuffer.wrap(buf, position, Integer.BYTES).putInt(value);
+        }
+
+        ByteBuffer toFrame() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+    //</codeFragment>
+
+    private static byte flagsOf(RequestOrResponse message, boolean hasFromAddress) {
+        byte flags = 0;
+        if (message.isError()) {
+            flags |= ERROR;
+        }
+        if (hasFromAddress) {
+            flags |= HAS_FROM_ADDRESS;
+        }
+        if (message.hasBinaryPayload()) {
+            flags |= BINARY_PAYLOAD;
+        }
+        return flags;
+    }
+
+    //<codeFragment name="binaryDecode">
+    @Override
+    public RequestOrResponse decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported message version " + version);
+        }
+        byte flags = buffer.get();
+        int requestId = buffer.getInt();
+        int correlationId = buffer.getInt();
+        int generation = buffer.getInt();
+        InetAddressAndPort fromAddress = null;
+        if ((flags & HAS_FROM_ADDRESS) != 0) {
+            byte[] address = new byte[buffer.get()];
+            buffer.get(address);
+            fromAddress = new InetAddressAndPort(toInetAddress(address), buffer.getInt());
+        }
+        int payloadLength = buffer.getInt();
+        ByteBuffer payload = buffer.slice(buffer.position(), payloadLength);
+        buffer.position(buffer.position() + payloadLength);
+
+        var message = new RequestOrResponse(generation, requestId, payload, correlationId, fromAddress);
+        if ((flags & ERROR) != 0) {
+            message.setError();
+        }
+        if ((flags & BINARY_PAYLOAD) != 0) {
+            message.withBinaryPayload();
+        }
+        return message;
+    }
+    //</codeFragment>
+
+    private static InetAddress toInetAddress(byte[] address) {
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package replicate.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the complete message, including the already serialized payload, with Jackson CBOR.
+ */
+public class CborWireCodec implements WireCodec {
+
+    @Override
+    public byte[] encode(RequestOrResponse message) {
+        return JsonSerDes.serialize(message);
+    }
+
+    @Override
+    public RequestOrResponse decode(ByteBuffer buffer) {
+        return JsonSerDes.deserialize(buffer, RequestOrResponse.class);
+    }
+}
@@ -23,6 +23,30 @@ public class Config {
     private long followerTimeoutMs = 5000l;
     private boolean supportLogGroup = false;
     private boolean doAsyncRepair = false;
+    private boolean groupCommit = false;
+    private int maxBatchEntries = 1000;
+    private int maxBatchSizeBytes = 64 * 1024;
+    private long maxBatchWaitTimeNs = Duration.ofMillis(1).toNanos();
+    private boolean snapshotEnabled = false; //snapshots are disabled by default.
+    private long snapshotIntervalMs = 0; //0 takes snapshots only when asked for.
+    private boolean rocksDBStorage = false;
+    private boolean binaryWireCodec = false;
+    private int noOfReactors = 1; //selector threads doing the network IO, per listener.
+    private int dispatchThreads = Runtime.getRuntime().availableProcessors();
+    private int maxQueuedRequests = 10000; //requests beyond this are rejected with a busy error.
+    private boolean useVirtualThreads = false;
+    private int clientConnectionsPerNode = 2;
+    private long clientRequestTimeoutMs = 15000;
+    private int maxCommandsPerBatch = 1; //leaders propose each client command separately by default.
+    private long commandBatchDelayNs = Duration.ofNanos(200_000).toNanos();
+    private int maxInflightIndexes = 0; //0 runs Propose and Commit rounds for each index.
+    private long leaseDurationNs = 0; //leader leases are disabled by default.
+    private long maxClockDriftNs = Duration.ofMillis(50).toNanos();
+    private int maxEntriesPerAppend = 100;
+    private int maxInflightAppends = 4; //1 waits for each AppendEntries response before sending the next.
+    private int maxOpsPerStateTransfer = 100;
+    private int maxStateTransfersPerSecond = 50;
+    private int opsBetweenLogCheckpoints = 0; //log checkpoints are disabled by default.
 
     public Config() {
         // Default constructor
@@ -149,8 +173,239 @@ public class Config {
     }
 
     public long getMaxBatchWaitTime() {
-        return Duration.ofMillis(1).toNanos();
+        return maxBatchWaitTimeNs;
+    }
+
+    public Config withMaxBatchWaitTime(Duration maxBatchWaitTime) {
+        this.maxBatchWaitTimeNs = maxBatchWaitTime.toNanos();
+        return this;
+    }
+
+    //Concurrent WAL writes are queued and written together with a single fsync.
+    public Config withGroupCommit() {
+        this.groupCommit = true;
+        return this;
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    public int getMaxBatchEntries() {
+        return maxBatchEntries;
+    }
+
+    public Config withMaxBatchEntries(int maxBatchEntries) {
+        this.maxBatchEntries = maxBatchEntries;
+        return this;
+    }
+
+    public int getMaxBatchSizeBytes() {
+        return maxBatchSizeBytes;
+    }
+
+    public Config withMaxBatchSizeBytes(int maxBatchSizeBytes) {
+        this.maxBatchSizeBytes = maxBatchSizeBytes;
+        return this;
+    }
+
+    public long getSnapshotIntervalMs() {
+        return snapshotIntervalMs;
+    }
+
+    //Snapshots are taken only when asked for, and the log before them is cleaned.
+    public Config withSnapshots() {
+        this.snapshotEnabled = true;
+        return this;
+    }
+
+    //Snapshots are also taken every snapshotIntervalMs.
+    public Config withSnapshotIntervalMs(long snapshotIntervalMs) {
+        this.snapshotEnabled = true;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        return this;
+    }
+
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    public boolean isPeriodicSnapshotEnabled() {
+        return snapshotEnabled && snapshotIntervalMs > 0;
+    }
+
+    public Config withRocksDBStorage() {
+        this.rocksDBStorage = true;
+        return this;
+    }
+
+    public boolean isRocksDBStorage() {
+        return rocksDBStorage;
+    }
+
+    //All the replicas in a cluster need to use the same codec for peer messages.
+    public Config withBinaryWireCodec() {
+        this.binaryWireCodec = true;
+        return this;
+    }
+
+    public boolean isBinaryWireCodec() {
+        return binaryWireCodec;
+    }
+
+    public Config withNoOfReactors(int noOfReactors) {
+        this.noOfReactors = noOfReactors;
+        return this;
+    }
+
+    public int getNoOfReactors() {
+        return noOfReactors;
+    }
+
+    public Config withDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+        return this;
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    public Config withMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    //Needs JDK 21. Platform threads are used when running on an older JDK.
+    public Config withVirtualThreads() {
+        this.useVirtualThreads = true;
+        return this;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    public Config withClientConnectionsPerNode(int clientConnectionsPerNode) {
+        this.clientConnectionsPerNode = clientConnectionsPerNode;
+        return this;
+    }
+
+    public int getClientConnectionsPerNode() {
+        return clientConnectionsPerNode;
+    }
+
+    public Config withClientRequestTimeoutMs(long clientRequestTimeoutMs) {
+        this.clientRequestTimeoutMs = clientRequestTimeoutMs;
+        return this;
+    }
+
+    public long getClientRequestTimeoutMs() {
+        return clientRequestTimeoutMs;
+    }
+
+    //Leader collects up to maxCommandsPerBatch client commands, waiting at most maxDelay
+    //after the first one, and replicates them as a single log entry.
+    public Config withCommandBatching(int maxCommandsPerBatch, Duration maxDelay) {
+        this.maxCommandsPerBatch = maxCommandsPerBatch;
+        this.commandBatchDelayNs = maxDelay.toNanos();
+        return this;
+    }
+
+    public boolean isCommandBatching() {
+        return maxCommandsPerBatch > 1;
+    }
+
+    public int getMaxCommandsPerBatch() {
+        return maxCommandsPerBatch;
+    }
+
+    public long getCommandBatchDelayNs() {
+        return commandBatchDelayNs;
+    }
+
+    //Leader keeps upto maxInflightIndexes log entries in flight, and piggybacks commits on the next Propose.
+    public Config withPipelinedReplication(int maxInflightIndexes) {
+        this.maxInflightIndexes = maxInflightIndexes;
+        return this;
+    }
+
+    public boolean isPipelinedReplication() {
+        return maxInflightIndexes > 0;
+    }
+
+    public int getMaxInflightIndexes() {
+        return maxInflightIndexes;
+    }
+
+    //Leader serves reads locally while a quorum has granted it the lease.
+    //maxClockDrift bounds how much faster the leader's clock can run than the followers' clocks.
+    public Config withLeaderLease(Duration leaseDuration, Duration maxClockDrift) {
+        this.leaseDurationNs = leaseDuration.toNanos();
+        this.maxClockDriftNs = maxClockDrift.toNanos();
+        return this;
+    }
+
+    public boolean isLeaderLease() {
+        return leaseDurationNs > 0;
+    }
+
+    public long getLeaseDurationNs() {
+        return leaseDurationNs;
+    }
+
+    public long getMaxClockDriftNs() {
+        return maxClockDriftNs;
+    }
+
+    //Raft leader sends upto maxEntriesPerAppend entries in an AppendEntries request,
+    //and keeps upto maxInflightAppends requests in flight to each follower.
+    public Config withAppendEntriesPipelining(int maxEntriesPerAppend, int maxInflightAppends) {
+        this.maxEntriesPerAppend = maxEntriesPerAppend;
+        this.maxInflightAppends = maxInflightAppends;
+        return this;
+    }
+
+    public int getMaxEntriesPerAppend() {
+        return maxEntriesPerAppend;
+    }
+
+    public int getMaxInflightAppends() {
+        return maxInflightAppends;
+    }
+
+    //VSR primary sends a lagging backup upto maxOpsPerStateTransfer ops in a NewState message,
+    //and sends at most maxStateTransfersPerSecond NewState messages, so catch-up does not starve Prepares.
+    public Config withStateTransfer(int maxOpsPerStateTransfer, int maxStateTransfersPerSecond) {
+        if (maxOpsPerStateTransfer <= 0 || maxStateTransfersPerSecond <= 0) {
+            throw new IllegalArgumentException("State transfer needs at least one op per transfer and one transfer per second, got "
+                    + maxOpsPerStateTransfer + " ops and " + maxStateTransfersPerSecond + " transfers per second");
+        }
+        this.maxOpsPerStateTransfer = maxOpsPerStateTransfer;
+        this.maxStateTransfersPerSecond = maxStateTransfersPerSecond;
+        return this;
+    }
+
+    public int getMaxOpsPerStateTransfer() {
+        return maxOpsPerStateTransfer;
+    }
+
+    public int getMaxStateTransfersPerSecond() {
+        return maxStateTransfersPerSecond;
+    }
+
+    //VSR replicas checkpoint the applied state and truncate the log every opsBetweenLogCheckpoints committed ops.
+    public Config withLogCheckpoints(int opsBetweenLogCheckpoints) {
+        this.opsBetweenLogCheckpoints = opsBetweenLogCheckpoints;
+        return this;
+    }
 
+    public int getOpsBetweenLogCheckpoints() {
+        return opsBetweenLogCheckpoints;
     }
 
     public void setAsyncReadRepair() {
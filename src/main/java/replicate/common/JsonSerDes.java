@@ -14,18 +14,30 @@ import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import replicate.net.InetAddressAndPort;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class JsonSerDes {
-
-
+    //<codeFragment name="cachedMappers">
+    //ObjectMappers are expensive to create but thread safe once configured.
+    //They are created once, and the ObjectReader and ObjectWriter for each class
+    //are cached, so serializing a message does not look up its serializers again.
+    private static final ObjectMapper jsonWriterMapper = newJsonWriterMapper();
+    private static final ObjectMapper jsonReaderMapper = newJsonReaderMapper();
+    private static final ObjectMapper cborWriterMapper = newCborWriterMapper();
+    private static final ObjectMapper cborReaderMapper = newCborReaderMapper();
+
+    private static final Map<Class<?>, ObjectWriter> jsonWriters = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectReader> jsonReaders = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectWriter> cborWriters = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectReader> cborReaders = new ConcurrentHashMap<>();
+    //</codeFragment>
 
     public static String toJson(Object obj) {
-        var objectMapper = new ObjectMapper(new JsonFactory());
         try {
-            objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-            objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-            return new String(objectMapper.writeValueAsBytes(obj));
+            return new String(writerFor(jsonWriters, jsonWriterMapper, obj).writeValueAsBytes(obj));
 
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
@@ -34,15 +46,7 @@ public class JsonSerDes {
 
     public static <T> T fromJson(byte[] json, Class<T> clazz) {
         try {
-            var objectMapper = new ObjectMapper(new JsonFactory());
-            objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-            objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            objectMapper
-                    .registerModule(new ParameterNamesModule(JsonCreator.Mode.DEFAULT));
-            var module = new SimpleModule();
-            module.addKeyDeserializer(InetAddressAndPort.class, new InetAddressAndPortKeyDeserializer());
-            objectMapper.registerModule(module);
-            return objectMapper.readValue(json, clazz);
+            return readerFor(jsonReaders, jsonReaderMapper, clazz).readValue(json);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -50,12 +54,8 @@ public class JsonSerDes {
     }
 
     public static byte[] serialize(Object obj) {
-        var objectMapper = new ObjectMapper(new CBORFactory());
         try {
-            objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-            objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-            objectMapper.registerModule(new Jdk8Module());
-            return objectMapper.writeValueAsBytes(obj);
+            return writerFor(cborWriters, cborWriterMapper, obj).writeValueAsBytes(obj);
 
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
@@ -64,23 +64,81 @@ public class JsonSerDes {
 
     public static <T> T deserialize(byte[] json, Class<T> clazz) {
         try {
-            var objectMapper = new ObjectMapper(new CBORFactory());
-            objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-            objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            objectMapper
-                    .registerModule(new ParameterNamesModule(JsonCreator.Mode.PROPERTIES));
-            var module = new SimpleModule();
-            module.addKeyDeserializer(InetAddressAndPort.class, new InetAddressAndPortKeyDeserializer());
-            objectMapper.registerModule(module);
-            objectMapper.registerModule(new Jdk8Module());
-            objectMapper.setConstructorDetector(ConstructorDetector.USE_PROPERTIES_BASED);
-            return objectMapper.readValue(json, clazz);
+            return readerFor(cborReaders, cborReaderMapper, clazz).readValue(json);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    //Reads directly from the backing array of a buffer, without copying the bytes first.
+    public static <T> T deserialize(ByteBuffer buffer, Class<T> clazz) {
+        try {
+            ObjectReader reader = readerFor(cborReaders, cborReaderMapper, clazz);
+            if (buffer.hasArray()) {
+                return reader.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return reader.readValue(bytes);
+
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ObjectWriter writerFor(Map<Class<?>, ObjectWriter> writers, ObjectMapper mapper, Object obj) {
+        if (obj == null) {
+            return mapper.writer();
+        }
+        return writers.computeIfAbsent(obj.getClass(), mapper::writerFor);
+    }
+
+    private static ObjectReader readerFor(Map<Class<?>, ObjectReader> readers, ObjectMapper mapper, Class<?> clazz) {
+        return readers.computeIfAbsent(clazz, mapper::readerFor);
+    }
+
+    private static ObjectMapper newJsonWriterMapper() {
+        var objectMapper = new ObjectMapper(new JsonFactory());
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        return objectMapper;
+    }
+
+    private static ObjectMapper newJsonReaderMapper() {
+        var objectMapper = new ObjectMapper(new JsonFactory());
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper
+                .registerModule(new ParameterNamesModule(JsonCreator.Mode.DEFAULT));
+        var module = new SimpleModule();
+        module.addKeyDeserializer(InetAddressAndPort.class, new InetAddressAndPortKeyDeserializer());
+        objectMapper.registerModule(module);
+        return objectMapper;
+    }
+
+    private static ObjectMapper newCborWriterMapper() {
+        var objectMapper = new ObjectMapper(new CBORFactory());
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        objectMapper.registerModule(new Jdk8Module());
+        return objectMapper;
+    }
+
+    private static ObjectMapper newCborReaderMapper() {
+        var objectMapper = new ObjectMapper(new CBORFactory());
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper
+                .registerModule(new ParameterNamesModule(JsonCreator.Mode.PROPERTIES));
+        var module = new SimpleModule();
+        module.addKeyDeserializer(InetAddressAndPort.class, new InetAddressAndPortKeyDeserializer());
+        objectMapper.registerModule(module);
+        objectMapper.registerModule(new Jdk8Module());
+        objectMapper.setConstructorDetector(ConstructorDetector.USE_PROPERTIES_BASED);
+        return objectMapper;
+    }
+
     static class InetAddressAndPortKeyDeserializer extends KeyDeserializer {
         @Override
         public Object deserializeKey(String key, DeserializationContext deserializationContext) throws IOException {
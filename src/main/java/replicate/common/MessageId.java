@@ -60,6 +60,10 @@ public enum MessageId {
     StartViewChange(53), 
     DoViewChange(54), 
     StartView(55),
+    GetState(56),
+    NewState(57),
+    ConfirmView(66),
+    ConfirmViewResponse(67),
     
     // Chain Replication Messages
     ChainOperation(60),
@@ -69,7 +73,7 @@ public enum MessageId {
     ChainReadResponse(59),
     Recovery(63),
     RecoveryResponse(64),
-    CleanVersion(54);
+    CleanVersion(65);
 
     public static MessageId valueOf(Integer id) {
         return map.get(id);
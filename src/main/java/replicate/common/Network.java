@@ -3,11 +3,12 @@ package replicate.common;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import replicate.net.InetAddressAndPort;
-import replicate.net.SocketClient;
-import replicate.quorum.QuorumKVStore;
+import replicate.net.NIOOutboundConnection;
+import replicate.net.NIOSocketClient;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -25,6 +26,13 @@ class Network {
             new HashMap<>();
 
     ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+    private final NIOSocketClient socketClient;
+
+    public Network(String name, WireCodec wireCodec) throws IOException {
+        this.socketClient = new NIOSocketClient(name + "-network", wireCodec);
+        this.socketClient.start();
+    }
+
     public void sendOneWay(InetAddressAndPort address, RequestOrResponse message) throws IOException {
         if (dropRequestsTo.contains(address) || noOfMessagesReachedLimit(address)) {
             removeExistingConnections(address);
@@ -52,9 +60,9 @@ class Network {
     }
 
     private void removeExistingConnections(InetAddressAndPort address) {
-        SocketClient socketClient = connectionPool.remove(address);
-        if (socketClient != null) {
-            socketClient.close();
+        NIOOutboundConnection connection = connectionPool.remove(address);
+        if (connection != null) {
+            connection.close();
         }
     }
 
@@ -83,11 +91,11 @@ class Network {
         return noOfRequestsSent >= delayAfterNRequests;
     }
 
-    Map<InetAddressAndPort, SocketClient> connectionPool = new HashMap<>();
+    Map<InetAddressAndPort, NIOOutboundConnection> connectionPool = new ConcurrentHashMap<>();
 
     private void sendMessage(InetAddressAndPort address, RequestOrResponse message) throws IOException {
-        SocketClient socketClient = getOrCreateConnection(address);
-        socketClient.sendOneway(message);
+        NIOOutboundConnection connection = getOrCreateConnection(address);
+        connection.send(message);
         Integer integer = noOfMessages.get(address);
         if (integer == null) {
             integer = 0;
@@ -95,24 +103,27 @@ class Network {
         noOfMessages.put(address, integer + 1);
     }
 
-    private RequestOrResponse sendAndReceive(InetAddressAndPort address, RequestOrResponse message) throws IOException {
-        SocketClient socketClient = getOrCreateConnection(address);
-        RequestOrResponse response = socketClient.blockingSend(message);
-        Integer integer = noOfMessages.get(address);
-        if (integer == null) {
-            integer = 0;
+    //One persistent connection per peer. A new connection is created only when the
+    //existing one is closed, e.g. because the peer went down.
+    //Connecting does not block the sender, which is often the singular update thread. Messages are queued
+    //on the connection till the selector thread completes the connect. If it fails, the connection is closed
+    //and the requests waiting for responses from the peer expire. If two senders connect to the same peer
+    //at the same time, the connection installed first is used.
+    private NIOOutboundConnection getOrCreateConnection(InetAddressAndPort address) throws IOException {
+        NIOOutboundConnection connection = connectionPool.get(address);
+        if (connection != null && !connection.isClosed()) {
+            return connection;
         }
-        noOfMessages.put(address, integer + 1);
-        return response;
-    }
-
-    private synchronized SocketClient getOrCreateConnection(InetAddressAndPort address) throws IOException {
-        SocketClient socketClient = connectionPool.get(address);
-        if (socketClient == null || !socketClient.isClosed()) {
-            socketClient = new SocketClient(address);
-            connectionPool.put(address, socketClient);
+        if (connection != null) {
+            connectionPool.remove(address, connection);
         }
-        return socketClient;
+        NIOOutboundConnection newConnection = socketClient.connectAsync(address, null);
+        NIOOutboundConnection existing = connectionPool.putIfAbsent(address, newConnection);
+        if (existing != null) {
+            newConnection.close();
+            return existing;
+        }
+        return newConnection;
     }
 
     private boolean noOfMessagesReachedLimit(InetAddressAndPort address) {
@@ -152,10 +163,15 @@ class Network {
     }
 
     public void closeAllConnections() {
-        Set<InetAddressAndPort> inetAddressAndPorts = connectionPool.keySet();
-        for (InetAddressAndPort inetAddressAndPort : inetAddressAndPorts) {
-            connectionPool.get(inetAddressAndPort).close();
+        for (NIOOutboundConnection connection : connectionPool.values()) {
+            connection.close();
         }
         connectionPool.clear();
     }
+
+    public void shutdown() {
+        closeAllConnections();
+        socketClient.shutdown();
+        executor.shutdownNow();
+    }
 }
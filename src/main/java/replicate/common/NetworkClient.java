@@ -4,7 +4,10 @@ import replicate.net.InetAddressAndPort;
 import replicate.net.SocketClient;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 public class NetworkClient {
     public static class Response<T> {
@@ -43,6 +46,36 @@ public class NetworkClient {
             this.result = result;
         }
     }
+
+    //runs the blocking sendAndReceive calls made through sendAndReceiveAsync.
+    private final ExecutorService requestThreads;
+
+    public NetworkClient() {
+        this(new Config());
+    }
+
+    /**
+     * With {@link Config#withVirtualThreads()}, every async request blocks on its own virtual thread,
+     * so a client can have thousands of requests in flight with the same simple blocking code.
+     */
+    public NetworkClient(Config config) {
+        this.requestThreads = VirtualThreads.newThreadPerTaskExecutor("network-client", config.isUseVirtualThreads());
+    }
+
+    public <Req extends MessagePayload, Res> CompletableFuture<Response<Res>> sendAndReceiveAsync(Req request, InetAddressAndPort address, Class<Res> responseClass) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return sendAndReceive(request, address, responseClass);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, requestThreads);
+    }
+
+    public void close() {
+        requestThreads.shutdown();
+    }
+
     public <Req extends MessagePayload, Res> Response<Res> sendAndReceive(Req request, InetAddressAndPort address, Class<Res> responseClass) throws IOException {
         try(SocketClient<Object> client = new SocketClient<>(address)){
             RequestOrResponse getResponse = client.blockingSend(new RequestOrResponse(request.getMessageId().getId(),
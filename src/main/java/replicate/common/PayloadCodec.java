@@ -0,0 +1,17 @@
+package replicate.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Hand written binary encoding for a message payload.
+ * Used by the {@link BinaryWireCodec} for the frequently sent messages,
+ * instead of reflection based CBOR serialization.
+ */
+public interface PayloadCodec<T> {
+
+    void encode(T payload, DataOutputStream os) throws IOException;
+
+    T decode(DataInputStream is) throws IOException;
+}
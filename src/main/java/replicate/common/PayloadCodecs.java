@@ -0,0 +1,91 @@
+package replicate.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The payload codecs registered by a replica, by the class of the payload.
+ * Sender and receiver both register the same codecs, as they run the same replica
+ * implementation. The class is known on the receiving side from the message handler
+ * registered for the MessageId.
+ */
+public class PayloadCodecs {
+    private final Map<Class<?>, PayloadCodec<?>> codecs = new HashMap<>();
+
+    public <T> void register(Class<T> payloadClass, PayloadCodec<T> codec) {
+        codecs.put(payloadClass, codec);
+    }
+
+    public boolean hasCodecFor(Class<?> payloadClass) {
+        return codecs.containsKey(payloadClass);
+    }
+
+    public <T> byte[] encode(T payload) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var os = new DataOutputStream(bytes);
+            encode(payload, os);
+            os.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Writes the payload into the given output, which can be the frame being encoded by the wire codec.
+    public <T> void encode(T payload, DataOutputStream os) throws IOException {
+        PayloadCodec<T> codec = (PayloadCodec<T>) codecs.get(payload.getClass());
+        codec.encode(payload, os);
+    }
+
+    public <T> T decode(byte[] payload, Class<T> payloadClass) {
+        return decode(ByteBuffer.wrap(payload), payloadClass);
+    }
+
+    public <T> T decode(ByteBuffer payload, Class<T> payloadClass) {
+        PayloadCodec<T> codec = (PayloadCodec<T>) codecs.get(payloadClass);
+        if (codec == null) {
+            throw new IllegalArgumentException("No payload codec registered for " + payloadClass);
+        }
+        try {
+            return codec.decode(new DataInputStream(inputStream(payload)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ByteArrayInputStream inputStream(ByteBuffer payload) {
+        if (payload.hasArray()) {
+            return new ByteArrayInputStream(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    //common encodings used by the payload codecs.
+    public static void writeBytes(DataOutputStream os, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            os.writeInt(-1);
+            return;
+        }
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    public static byte[] readBytes(DataInputStream is) throws IOException {
+        int length = is.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return bytes;
+    }
+}
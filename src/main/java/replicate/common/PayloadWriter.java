@@ -0,0 +1,15 @@
+package replicate.common;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a binary payload when the message is encoded, so that the payload is
+ * written directly into the output of the wire codec, instead of being encoded
+ * into a separate array first.
+ */
+@FunctionalInterface
+public interface PayloadWriter {
+
+    void writeTo(DataOutputStream os) throws IOException;
+}
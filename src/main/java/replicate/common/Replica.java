@@ -4,6 +4,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import replicate.heartbeat.HeartBeatScheduler;
 import replicate.net.ClientConnection;
+import replicate.net.DispatchStage;
 import replicate.net.InetAddressAndPort;
 import replicate.net.NIOSocketListener;
 import replicate.net.requestwaitinglist.RequestCallback;
@@ -36,6 +37,7 @@ public abstract class Replica {
     private final InetAddressAndPort clientConnectionAddress;
     private final InetAddressAndPort peerConnectionAddress;
     private final Network network;
+    private final PayloadCodecs payloadCodecs = new PayloadCodecs();
     protected final RequestWaitingList requestWaitingList;
     protected SystemClock clock;
     private List<InetAddressAndPort> peerAddresses;
@@ -51,15 +53,17 @@ public abstract class Replica {
                    InetAddressAndPort peerConnectionAddress,
                    List<InetAddressAndPort> peerAddresses) throws IOException {
         this.name = name;
-        this.network = new Network();
         this.config = config;
+        this.network = new Network(name, WireCodec.forConfig(config));
         this.requestWaitingList = new RequestWaitingList(clock);
         this.clock = clock;
         this.peerAddresses = peerAddresses;
         this.clientConnectionAddress = clientConnectionAddress;
         this.peerConnectionAddress = peerConnectionAddress;
-        this.peerListener = new NIOSocketListener(this::handlePeerMessage, peerConnectionAddress);
-        this.clientListener = new NIOSocketListener(this::handleClientRequest, clientConnectionAddress);
+        this.peerListener = new NIOSocketListener(this::handlePeerMessage, peerConnectionAddress, WireCodec.forConfig(config),
+                config.getNoOfReactors(), DispatchStage.forConfig(name + "-peer-dispatch", config));
+        this.clientListener = new NIOSocketListener(this::handleClientRequest, clientConnectionAddress, new CborWireCodec(),
+                config.getNoOfReactors(), DispatchStage.forConfig(name + "-client-dispatch", config));
         this.registerHandlers();
     }
 
@@ -107,7 +111,7 @@ public abstract class Replica {
     //@see sendRequestToReplicas which expects a message from the peer.
     protected <T extends MessagePayload> void sendOneway(InetAddressAndPort address, T request, int correlationId) {
         try {
-            network.sendOneWay(address, new RequestOrResponse(request.getMessageId().getId(), serialize(request), correlationId, getPeerConnectionAddress()));
+            network.sendOneWay(address, peerMessage(request.getMessageId(), request, correlationId));
         } catch (IOException e) {
             logger.error("Communication failure sending request to " + address + " from " + getName());
         }
@@ -120,11 +124,19 @@ public abstract class Replica {
     public <T> void sendMessageToReplicas(RequestCallback callback, MessageId messageId, T requestToReplicas) {
         for (InetAddressAndPort replica : peerAddresses) {
             int correlationId = newCorrelationId();
-            RequestOrResponse request = new RequestOrResponse(messageId.getId(), serialize(requestToReplicas), correlationId, getPeerConnectionAddress());
+            RequestOrResponse request = peerMessage(messageId, requestToReplicas, correlationId);
             sendMessageToReplica(callback, replica, request);
         }
     }
 
+    //Payloads with a registered PayloadCodec are binary encoded when the cluster uses the binary wire codec.
+    private RequestOrResponse peerMessage(MessageId messageId, Object payload, int correlationId) {
+        if (config.isBinaryWireCodec() && payloadCodecs.hasCodecFor(payload.getClass())) {
+            return new RequestOrResponse(messageId.getId(), os -> payloadCodecs.encode(payload, os), correlationId, getPeerConnectionAddress());
+        }
+        return new RequestOrResponse(messageId.getId(), serialize(payload), correlationId, getPeerConnectionAddress());
+    }
+
     //Sends message to replica and expects that the replica will send back a message with the same correlationId.
     //The message is kept waiting in the RequestWaitingList and expired if the replica fails to send message back.
     public void sendMessageToReplica(RequestCallback callback, InetAddressAndPort replicaAddress, RequestOrResponse request) {
@@ -274,6 +286,13 @@ public abstract class Replica {
         handlers.put(messageId, new MessageHandler(requestClass, functionWrapper));
     }
 
+    //Same as above, but the payload is encoded with the given codec
+    //instead of CBOR, when the cluster is configured with the binary wire codec.
+    public <Req extends MessagePayload> void handlesMessage(MessageId messageId, Consumer<Message<Req>> handler, Class<Req> requestClass, PayloadCodec<Req> codec) {
+        payloadCodecs.register(requestClass, codec);
+        handlesMessage(messageId, handler, requestClass);
+    }
+
     //Configures a handler to process a given request.
     //Sends response from the handler to the sender.
     //This is request-response  communication or rpc.
@@ -290,7 +309,7 @@ public abstract class Replica {
     public int getServerId() {
         return config.getServerId();
     }
-    private int newCorrelationId() {
+    protected int newCorrelationId() {
         return new Random().nextInt();
     }
 
@@ -307,7 +326,10 @@ public abstract class Replica {
     }
 
     protected <T> T deserialize(RequestOrResponse request, Class<T> clazz) {
-        return JsonSerDes.deserialize(request.getMessageBodyJson(), clazz);
+        if (request.hasBinaryPayload()) {
+            return payloadCodecs.decode(request.getPayload(), clazz);
+        }
+        return JsonSerDes.deserialize(request.getPayload(), clazz);
     }
 
     public void dropMessagesTo(Replica n) {
@@ -349,7 +371,7 @@ public abstract class Replica {
         clientListener.shudown();
         heartbeatChecker.stop();
         heartBeatScheduler.stop();
-        network.closeAllConnections();
+        network.shutdown();
     }
 
     public Duration elapsedTimeSinceLastHeartbeat() {
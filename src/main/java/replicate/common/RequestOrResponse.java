@@ -1,7 +1,13 @@
 package replicate.common;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import replicate.net.InetAddressAndPort;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -12,12 +18,27 @@ public class RequestOrResponse {
     private Integer generation = -1;
     InetAddressAndPort fromAddress;
     boolean isError;
+    //set when the payload is encoded with a PayloadCodec. Not part of the CBOR encoding.
+    private transient boolean binaryPayload;
+    //view of the payload in the received message buffer. Copied to messageBodyJson only if needed.
+    private transient ByteBuffer payload;
+    //binary payload which is written only when the message is encoded. Copied to messageBodyJson only if needed.
+    private transient PayloadWriter payloadWriter;
 
     public RequestOrResponse setError() {
         isError = true;
         return this;
     }
 
+    public RequestOrResponse withBinaryPayload() {
+        binaryPayload = true;
+        return this;
+    }
+
+    public boolean hasBinaryPayload() {
+        return binaryPayload;
+    }
+
     //for jackson
     private RequestOrResponse(){}
 
@@ -53,14 +74,64 @@ public class RequestOrResponse {
         this.fromAddress = fromAddress;
     }
 
+    //used by the wire codecs, to refer to the payload in the received buffer without copying it.
+    public RequestOrResponse(int generation, Integer requestId, ByteBuffer payload, Integer correlationId, InetAddressAndPort fromAddress) {
+        this(generation, requestId, (byte[]) null, correlationId, fromAddress);
+        this.payload = payload;
+    }
+
+    //used by replicas for payloads with a PayloadCodec, so that the wire codec encodes the payload in place.
+    public RequestOrResponse(Integer requestId, PayloadWriter payloadWriter, Integer correlationId, InetAddressAndPort fromAddress) {
+        this(-1, requestId, (byte[]) null, correlationId, fromAddress);
+        this.payloadWriter = payloadWriter;
+        this.binaryPayload = true;
+    }
+
+    @JsonIgnore
+    public PayloadWriter getPayloadWriter() {
+        return payloadWriter;
+    }
+
     public Integer getRequestId() {
         return requestId;
     }
 
+    //serialized through the getter, as the payload might only be a view of a received buffer
+    //or written by a PayloadWriter.
+    @JsonProperty("messageBodyJson")
     public byte[] getMessageBodyJson() {
+        if (messageBodyJson == null && payload != null) {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            messageBodyJson = bytes;
+        }
+        if (messageBodyJson == null && payloadWriter != null) {
+            messageBodyJson = writePayload(payloadWriter);
+        }
         return messageBodyJson;
     }
 
+    @JsonIgnore
+    public ByteBuffer getPayload() {
+        if (payload != null) {
+            return payload.duplicate();
+        }
+        byte[] body = getMessageBodyJson();
+        return body == null ? null : ByteBuffer.wrap(body);
+    }
+
+    private static byte[] writePayload(PayloadWriter payloadWriter) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var os = new DataOutputStream(bytes);
+            payloadWriter.writeTo(os);
+            os.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public Integer getCorrelationId() {
         return correlationId;
     }
@@ -74,13 +145,13 @@ public class RequestOrResponse {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         RequestOrResponse that = (RequestOrResponse) o;
-        return Objects.equals(requestId, that.requestId) && Arrays.equals(messageBodyJson, that.messageBodyJson) && Objects.equals(correlationId, that.correlationId) && Objects.equals(generation, that.generation) && Objects.equals(fromAddress, that.fromAddress);
+        return Objects.equals(requestId, that.requestId) && Arrays.equals(getMessageBodyJson(), that.getMessageBodyJson()) && Objects.equals(correlationId, that.correlationId) && Objects.equals(generation, that.generation) && Objects.equals(fromAddress, that.fromAddress);
     }
 
     @Override
     public int hashCode() {
         int result = Objects.hash(requestId, correlationId, generation, fromAddress);
-        result = 31 * result + Arrays.hashCode(messageBodyJson);
+        result = 31 * result + Arrays.hashCode(getMessageBodyJson());
         return result;
     }
 
@@ -88,7 +159,7 @@ public class RequestOrResponse {
     public String toString() {
         return "RequestOrResponse{" +
                 "requestId=" + requestId +
-                ", messageBodyJson=" + Arrays.toString(messageBodyJson) +
+                ", messageBodyJson=" + Arrays.toString(getMessageBodyJson()) +
                 ", correlationId=" + correlationId +
                 ", generation=" + generation +
                 ", fromAddress=" + fromAddress +
@@ -0,0 +1,54 @@
+package replicate.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual threads are available only from JDK 21, while the project still builds with JDK 17.
+ * So the virtual thread executor is looked up reflectively, and is used only when running on JDK 21+.
+ */
+public class VirtualThreads {
+    private static final Method newVirtualThreadPerTaskExecutor = lookupExecutorFactory();
+
+    private static Method lookupExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return newVirtualThreadPerTaskExecutor != null;
+    }
+
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later. Running on " + Runtime.version());
+        }
+        try {
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs each task on its own thread. The threads are virtual if asked for and supported,
+     * otherwise named daemon platform threads.
+     * Useful for blocking code, which needs a thread for each connection or request in progress.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name, boolean useVirtualThreads) {
+        if (useVirtualThreads && isSupported()) {
+            return newVirtualThreadPerTaskExecutor();
+        }
+        AtomicInteger threadNo = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNo.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,27 @@
+package replicate.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the messages exchanged between replicas.
+ * Frames have an int length prefix followed by the encoded message.
+ */
+public interface WireCodec {
+
+    byte[] encode(RequestOrResponse message);
+
+    //The length prefixed frame, ready to be written to the channel.
+    default ByteBuffer encodeFrame(RequestOrResponse message) {
+        byte[] serializedMessage = encode(message);
+        return ByteBuffer.allocate(Integer.BYTES + serializedMessage.length)
+                .putInt(serializedMessage.length)
+                .put(serializedMessage)
+                .flip();
+    }
+
+    RequestOrResponse decode(ByteBuffer buffer);
+
+    static WireCodec forConfig(Config config) {
+        return config.isBinaryWireCodec() ? new BinaryWireCodec() : new CborWireCodec();
+    }
+}
@@ -72,11 +72,11 @@ public class MultiPaxosWithHeartbeats extends Replica {
         handlesMessage(MessageId.Prepare, this::handleFullLogPrepare, PrepareRequest.class);
         handlesMessage(MessageId.Promise, this::handleFullLogPromise, FullLogPrepareResponse.class);
 
-        handlesMessage(MessageId.ProposeRequest, this::handlePaxosProposal, ProposalRequest.class);
-        handlesMessage(MessageId.ProposeResponse, this::handlePaxosProposalResponse, ProposalResponse.class);
+        handlesMessage(MessageId.ProposeRequest, this::handlePaxosProposal, ProposalRequest.class, ProposalRequest.CODEC);
+        handlesMessage(MessageId.ProposeResponse, this::handlePaxosProposalResponse, ProposalResponse.class, ProposalResponse.CODEC);
 
-        handlesMessage(MessageId.Commit, this::handlePaxosCommit, CommitRequest.class);
-        handlesMessage(MessageId.CommitResponse, this::handlePaxosCommitResponse, CommitResponse.class);
+        handlesMessage(MessageId.Commit, this::handlePaxosCommit, CommitRequest.class, CommitRequest.CODEC);
+        handlesMessage(MessageId.CommitResponse, this::handlePaxosCommitResponse, CommitResponse.class, CommitResponse.CODEC);
 
         handlesMessage(MessageId.HeartBeatRequest, this::handleHeartbeatRequest, HeartbeatRequest.class);
         handlesMessage(MessageId.HeartBeatResponse, this::handleHeartbeatResponse, HeartbeatResponse.class);
@@ -199,7 +199,7 @@ public class MultiPaxosWithHeartbeats extends Replica {
     private CompletableFuture<byte[]> sendProposeRequest(int index, byte[] proposedValue, MonotonicId monotonicId) {
         var proposalCallback = new AsyncQuorumCallback<ProposalResponse>(getNoOfReplicas(), p -> p.success);
         logger.debug(getName() + " proposing " + proposedValue + " for index " + index);
-        sendMessageToReplicas(proposalCallback, MessageId.ProposeRequest, new ProposalRequest(monotonicId, index, proposedValue));
+        sendMessageToReplicas(proposalCallback, MessageId.ProposeRequest, new ProposalRequest(monotonicId, index, proposedValue, -1));
         return proposalCallback.getQuorumFuture().thenApply(r -> proposedValue);
     }
     //convert to message.All state changes should happen via message to SingularUpdateQueue.
@@ -3,8 +3,11 @@ package replicate.multipaxos;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import replicate.common.*;
+import replicate.mpaxoswithheartbeats.HeartbeatRequest;
+import replicate.mpaxoswithheartbeats.HeartbeatResponse;
 import replicate.multipaxos.messages.FullLogPrepareResponse;
 import replicate.net.InetAddressAndPort;
+import replicate.net.requestwaitinglist.RequestCallback;
 import replicate.net.requestwaitinglist.RequestWaitingList;
 import replicate.paxos.messages.CommitResponse;
 import replicate.paxos.messages.GetValueResponse;
@@ -18,13 +21,15 @@ import replicate.twophaseexecution.messages.ExecuteCommandRequest;
 import replicate.twophaseexecution.messages.ExecuteCommandResponse;
 import replicate.vsr.CompletionCallback;
 import replicate.wal.Command;
+import replicate.wal.CompositeCommand;
 import replicate.wal.SetValueCommand;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 enum ServerRole {
     Leader, Follower, LookingForLeader
@@ -61,9 +66,63 @@ public class MultiPaxos extends Replica {
     //State exposed to clients. Committed after successful paxos rounds.
     Map<String, String> kv = new HashMap<>();
 
+    //Client commands waiting to be proposed together as a single CompositeCommand log entry.
+    //Accessed only from the singularUpdateQueue thread.
+    private final boolean commandBatching;
+    private final int maxCommandsPerBatch;
+    private final long commandBatchDelayNs;
+    private List<PendingCommand> pendingBatch = new ArrayList<>();
+    private ScheduledFuture<?> batchTimeout;
+
+    record PendingCommand(byte[] command, CompletableFuture<ExecuteCommandResponse> future) {
+    }
+
+    //All the entries upto highWatermark are committed and applied to kv.
+    int highWatermark = -1;
+
+    //Pipelined replication. Upto maxInflightIndexes entries are proposed without waiting
+    //for the previous ones. Instead of separate Commit rounds, the high-watermark is sent with the next Propose.
+    //Accessed only from the singularUpdateQueue thread.
+    private final boolean pipelinedReplication;
+    private final int maxInflightIndexes;
+    private int inflightIndexes = 0;
+    private final Queue<Runnable> waitingProposals = new ArrayDeque<>();
+    //highest commitIndex sent to the followers.
+    private int sentCommitIndex = -1;
+    //A follower which missed a Propose can not commit that index from the commitIndex.
+    //Highest index for which the commit is resent to each such follower.
+    private final Map<InetAddressAndPort, Integer> commitsResentUpto = new HashMap<>();
+
+    //Leader lease. The leader renews it with every heartbeat acknowledged by a quorum,
+    //and the followers do not accept another leader till the lease they granted expires.
+    //So while the lease is valid, no other leader can commit entries, and reads can be served locally.
+    private final boolean leaderLease;
+    private final long leaseDurationNs;
+    private final long maxClockDriftNs;
+    private long leaseExpiryNs = Long.MIN_VALUE;
+    private long leaseGrantedUntilNs = Long.MIN_VALUE;
+    private MonotonicId leaseGrantedTo = MonotonicId.empty();
+    //Last log index known when this node became the leader. Entries upto it might be committed
+    //by the earlier leaders, so the reads are served only after applying them.
+    private int electionIndex = -1;
+    //Reads waiting for the highWatermark to reach their read index.
+    //Accessed only from the singularUpdateQueue thread.
+    private final List<PendingRead> pendingReads = new ArrayList<>();
+
+    record PendingRead(int readIndex, String key, CompletableFuture<GetValueResponse> future) {
+    }
+
     public MultiPaxos(String name, SystemClock clock, Config config, InetAddressAndPort clientAddress, InetAddressAndPort peerConnectionAddress, List<InetAddressAndPort> peers) throws IOException {
         super(name, config, clock, clientAddress, peerConnectionAddress, peers);
         this.serverId = config.getServerId();
+        this.commandBatching = config.isCommandBatching();
+        this.maxCommandsPerBatch = config.getMaxCommandsPerBatch();
+        this.commandBatchDelayNs = config.getCommandBatchDelayNs();
+        this.pipelinedReplication = config.isPipelinedReplication();
+        this.maxInflightIndexes = config.getMaxInflightIndexes();
+        this.leaderLease = config.isLeaderLease();
+        this.leaseDurationNs = config.getLeaseDurationNs();
+        this.maxClockDriftNs = config.getMaxClockDriftNs();
         requestWaitingList = new RequestWaitingList(clock);
     }
 
@@ -77,11 +136,29 @@ public class MultiPaxos extends Replica {
         handlesMessage(MessageId.Prepare, this::handleFullLogPrepare, PrepareRequest.class);
         handlesMessage(MessageId.Promise, this::handleFullLogPrepareResponse, FullLogPrepareResponse.class);
 
-        handlesMessage(MessageId.ProposeRequest, this::handlePaxosProposal, ProposalRequest.class);
-        handlesMessage(MessageId.ProposeResponse, this::handleProposalResponse, ProposalResponse.class);
+        handlesMessage(MessageId.ProposeRequest, this::handlePaxosProposal, ProposalRequest.class, ProposalRequest.CODEC);
+        handlesMessage(MessageId.ProposeResponse, this::handleProposalResponse, ProposalResponse.class, ProposalResponse.CODEC);
+
+        handlesMessage(MessageId.Commit, this::handlePaxosCommit, CommitRequest.class, CommitRequest.CODEC);
+        handlesMessage(MessageId.CommitResponse, this::handleCommitResponse, CommitResponse.class, CommitResponse.CODEC);
+
+        handlesMessage(MessageId.HeartBeatRequest, this::handleHeartbeatRequest, HeartbeatRequest.class);
+        handlesMessage(MessageId.HeartBeatResponse, this::handleHeartbeatResponse, HeartbeatResponse.class);
+    }
+
+    private void handleHeartbeatResponse(Message<HeartbeatResponse> heartbeatResponseMessage) {
+        handleResponse(heartbeatResponseMessage);
+    }
 
-        handlesMessage(MessageId.Commit, this::handlePaxosCommit, CommitRequest.class);
-        handlesMessage(MessageId.CommitResponse, this::handleCommitResponse, CommitResponse.class);
+    //Acknowledging the heartbeat grants the lease to the leader.
+    private void handleHeartbeatRequest(Message<HeartbeatRequest> message) {
+        var ballot = message.messagePayload().ballot;
+        boolean success = !promisedGeneration.isAfter(ballot);
+        if (success) {
+            leaseGrantedTo = ballot;
+            leaseGrantedUntilNs = clock.nanoTime() + leaseDurationNs;
+        }
+        sendOneway(message.getFromAddress(), new HeartbeatResponse(success, promisedGeneration), message.getCorrelationId());
     }
 
     private void handleCommitResponse(Message<CommitResponse> commitResponseMessage) {
@@ -104,7 +181,33 @@ public class MultiPaxos extends Replica {
     @Override
     public void sendHeartbeats() {
 //       super.sendOnewayMessageToOtherReplicas(new HeartbeatRequest());
+        if (leaderLease) {
+            singularUpdateQueueExecutor.execute(this::confirmLeadership);
+        }
+    }
+
+    //<codeFragment name="multiPaxosLeaderLease">
+    //A quorum acknowledging the heartbeat confirms that no other node has been elected.
+    //The lease is counted from the time the heartbeat was sent, as the followers start it only
+    //after receiving it, reduced by the clock drift the followers' clocks might have.
+    private CompletableFuture<Boolean> confirmLeadership() {
+        long sentAtNs = clock.nanoTime();
+        var heartbeatCallback = new AsyncQuorumCallback<HeartbeatResponse>(getNoOfReplicas(), r -> r.success);
+        sendMessageToReplicas(heartbeatCallback, MessageId.HeartBeatRequest, new HeartbeatRequest(promisedGeneration));
+        return heartbeatCallback.getQuorumFuture().thenApplyAsync(r -> {
+            leaseExpiryNs = Math.max(leaseExpiryNs, sentAtNs + leaseDurationNs - maxClockDriftNs);
+            return true;
+        }, singularUpdateQueueExecutor);
+    }
+
+    boolean hasValidLease() {
+        return role == ServerRole.Leader && clock.nanoTime() < leaseExpiryNs;
+    }
+
+    private boolean leaseGrantedToAnotherLeader(MonotonicId ballot) {
+        return clock.nanoTime() < leaseGrantedUntilNs && ballot.serverId != leaseGrantedTo.serverId;
     }
+    //</codeFragment>
 
     @Override
     public void checkLeader() {
@@ -124,12 +227,61 @@ public class MultiPaxos extends Replica {
         if (role != ServerRole.Leader) {
             return CompletableFuture.failedFuture(new RuntimeException("Can not process requests as the node is not the leader"));
         }
+        if (commandBatching) {
+            return addToBatch(t.command);
+        }
         var commitCallback = new CompletionCallback<ExecuteCommandResponse>();
         CompletableFuture<PaxosResult> appendFuture = append(t.command, commitCallback);
         return appendFuture.thenCompose(r -> commitCallback.getFuture());
     }
 
+    //<codeFragment name="multiPaxosCommandBatching">
+    private CompletableFuture<ExecuteCommandResponse> addToBatch(byte[] command) {
+        var pendingCommand = new PendingCommand(command, new CompletableFuture<>());
+        pendingBatch.add(pendingCommand);
+        if (pendingBatch.size() >= maxCommandsPerBatch) {
+            proposeBatch();
+        } else if (pendingBatch.size() == 1) {
+            //the first command of the batch does not wait more than commandBatchDelay.
+            batchTimeout = singularUpdateQueueExecutor.schedule(this::proposeBatch, commandBatchDelayNs, TimeUnit.NANOSECONDS);
+        }
+        return pendingCommand.future();
+    }
+
+    //One Propose and Commit round for all the commands in the batch.
+    private void proposeBatch() {
+        if (batchTimeout != null) {
+            batchTimeout.cancel(false);
+            batchTimeout = null;
+        }
+        if (pendingBatch.isEmpty()) {
+            return;
+        }
+        var batch = pendingBatch;
+        pendingBatch = new ArrayList<>();
+        var compositeCommand = new CompositeCommand();
+        for (PendingCommand pendingCommand : batch) {
+            compositeCommand.add(Command.deserialize(pendingCommand.command()));
+        }
+        var batchCallback = new CompletionCallback<List<ExecuteCommandResponse>>();
+        append(compositeCommand.serialize(), batchCallback)
+                .thenCompose(r -> batchCallback.getFuture())
+                .whenComplete((responses, throwable) -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (throwable != null) {
+                            batch.get(i).future().completeExceptionally(throwable);
+                        } else {
+                            batch.get(i).future().complete(responses.get(i));
+                        }
+                    }
+                });
+    }
+    //</codeFragment>
+
     private CompletableFuture<GetValueResponse> handleClientGetValueRequest(GetValueRequest request) {
+        if (leaderLease) {
+            return leaseRead(request);
+        }
         var commitCallback = new CompletionCallback<ExecuteCommandResponse>();
         CompletableFuture<PaxosResult> appendFuture = append(NO_OP_COMMAND.serialize(), commitCallback);
         return appendFuture.thenCompose(r -> commitCallback.getFuture())
@@ -139,7 +291,48 @@ public class MultiPaxos extends Replica {
     }
 
 
-    public CompletableFuture<PaxosResult> append(byte[] initialValue, CompletionCallback<ExecuteCommandResponse> callback) {
+    //All the acknowledged writes are applied on the leader before responding to the client.
+    //The entries from the earlier leaders might not be, so the read waits till the
+    //highWatermark reaches the read index taken when the request arrived.
+    private CompletableFuture<GetValueResponse> leaseRead(GetValueRequest request) {
+        if (role != ServerRole.Leader) {
+            return CompletableFuture.failedFuture(new RuntimeException("Can not process requests as the node is not the leader"));
+        }
+        int readIndex = Math.max(electionIndex, highWatermark);
+        if (hasValidLease()) {
+            return readAfterApplying(readIndex, request.getKey());
+        }
+        //ReadIndex. Confirm the leadership with a heartbeat round instead of appending a no-op entry.
+        return confirmLeadership().thenComposeAsync(r -> readAfterApplying(readIndex, request.getKey()), singularUpdateQueueExecutor);
+    }
+
+    private CompletableFuture<GetValueResponse> readAfterApplying(int readIndex, String key) {
+        if (highWatermark >= readIndex) {
+            return CompletableFuture.completedFuture(new GetValueResponse(Optional.ofNullable(kv.get(key))));
+        }
+        var pendingRead = new PendingRead(readIndex, key, new CompletableFuture<>());
+        pendingReads.add(pendingRead);
+        return pendingRead.future();
+    }
+
+    private void servePendingReads() {
+        pendingReads.removeIf(pendingRead -> {
+            if (highWatermark < pendingRead.readIndex()) {
+                return false;
+            }
+            pendingRead.future().complete(new GetValueResponse(Optional.ofNullable(kv.get(pendingRead.key()))));
+            return true;
+        });
+    }
+
+    private void failPendingReads() {
+        for (PendingRead pendingRead : pendingReads) {
+            pendingRead.future().completeExceptionally(new RuntimeException("Can not process requests as the node is not the leader"));
+        }
+        pendingReads.clear();
+    }
+
+    public <T> CompletableFuture<PaxosResult> append(byte[] initialValue, CompletionCallback<T> callback) {
         CompletableFuture<PaxosResult> appendFuture = doPaxos(initialValue, callback);
         return appendFuture.thenCompose((result) -> {
             if (result.value.stream().allMatch(v -> v != initialValue)) {
@@ -151,11 +344,65 @@ public class MultiPaxos extends Replica {
     }
 
 
-    private CompletableFuture<PaxosResult> doPaxos(byte[] value, CompletionCallback<ExecuteCommandResponse> callback) {
+    private <T> CompletableFuture<PaxosResult> doPaxos(byte[] value, CompletionCallback<T> callback) {
+        if (pipelinedReplication) {
+            return proposeInWindow(value, callback);
+        }
         return doPaxos(promisedGeneration, logIndex.getAndIncrement(), value, callback);
     }
 
-    private CompletableFuture<PaxosResult> doPaxos(MonotonicId monotonicId, int index, byte[] initialValue, CompletionCallback<ExecuteCommandResponse> callback) {
+    //<codeFragment name="multiPaxosPipelinedReplication">
+    private <T> CompletableFuture<PaxosResult> proposeInWindow(byte[] value, CompletionCallback<T> callback) {
+        var result = new CompletableFuture<PaxosResult>();
+        Runnable propose = () -> {
+            inflightIndexes++;
+            doPipelinedPaxos(promisedGeneration, logIndex.getAndIncrement(), value, callback)
+                    .whenCompleteAsync((paxosResult, throwable) -> {
+                        inflightIndexes--;
+                        var next = waitingProposals.poll();
+                        if (next != null) {
+                            next.run();
+                        } else if (inflightIndexes == 0) {
+                            sendPendingCommits();
+                        }
+                        if (throwable != null) {
+                            result.completeExceptionally(throwable);
+                        } else {
+                            result.complete(paxosResult);
+                        }
+                    }, singularUpdateQueueExecutor);
+        };
+        if (inflightIndexes < maxInflightIndexes) {
+            propose.run();
+        } else {
+            waitingProposals.add(propose);
+        }
+        return result;
+    }
+
+    //The entry is committed once a quorum accepts it. Followers learn that from the commitIndex
+    //of the next Propose.
+    private <T> CompletableFuture<PaxosResult> doPipelinedPaxos(MonotonicId monotonicId, int index, byte[] initialValue, CompletionCallback<T> callback) {
+        return sendProposeRequest(index, initialValue, monotonicId)
+                .thenApplyAsync(proposedValue -> {
+                    requestWaitingList.add(index, callback);
+                    var paxosState = getOrCreatePaxosState(index);
+                    paxosLog.put(index, paxosState.commit(monotonicId, Optional.of(proposedValue)));
+                    applyCommittedEntries();
+                    return new PaxosResult(Optional.of(proposedValue), true);
+                }, singularUpdateQueueExecutor);
+    }
+
+    //There is no next Propose to carry the commitIndex, so send the commits explicitly.
+    private void sendPendingCommits() {
+        for (int index = sentCommitIndex + 1; index <= highWatermark; index++) {
+            sendCommitRequest(index, paxosLog.get(index).committedValue().get(), promisedGeneration);
+        }
+        sentCommitIndex = Math.max(sentCommitIndex, highWatermark);
+    }
+    //</codeFragment>
+
+    private <T> CompletableFuture<PaxosResult> doPaxos(MonotonicId monotonicId, int index, byte[] initialValue, CompletionCallback<T> callback) {
         //no prepare happening here.
         return sendProposeRequest(index, initialValue, monotonicId)
                 .thenCompose(proposedValue -> {
@@ -179,10 +426,36 @@ public class MultiPaxos extends Replica {
     private CompletableFuture<byte[]> sendProposeRequest(int index, byte[] proposedValue, MonotonicId monotonicId) {
         var proposalCallback = new AsyncQuorumCallback<ProposalResponse>(getNoOfReplicas(), p -> p.success);
         logger.debug(getName() + " proposing " + proposedValue + " for index " + index);
-        sendMessageToReplicas(proposalCallback, MessageId.ProposeRequest, new ProposalRequest(monotonicId, index, proposedValue));
+        int commitIndex = highWatermark;
+        sentCommitIndex = Math.max(sentCommitIndex, commitIndex);
+        sendMessageToReplicas(new RequestCallback<ProposalResponse>() {
+            @Override
+            public void onResponse(ProposalResponse response, InetAddressAndPort fromNode) {
+                proposalCallback.onResponse(response, fromNode);
+                if (pipelinedReplication && response.success && response.highWatermark < commitIndex) {
+                    resendCommits(fromNode, response.highWatermark, commitIndex);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                proposalCallback.onError(e);
+            }
+        }, MessageId.ProposeRequest, new ProposalRequest(monotonicId, index, proposedValue, highWatermark));
         return proposalCallback.getQuorumFuture().thenApply(r -> proposedValue);
     }
 
+    //The follower did not accept some of the entries upto commitIndex in this generation,
+    //so it can not commit them from the commitIndex. Send their values with the Commit.
+    private void resendCommits(InetAddressAndPort follower, int followerHighWatermark, int commitIndex) {
+        int fromIndex = Math.max(followerHighWatermark, commitsResentUpto.getOrDefault(follower, -1)) + 1;
+        for (int index = fromIndex; index <= commitIndex; index++) {
+            var committedValue = paxosLog.get(index).committedValue().get();
+            sendOneway(follower, new CommitRequest(index, committedValue, promisedGeneration), newCorrelationId());
+        }
+        commitsResentUpto.merge(follower, commitIndex, Math::max);
+    }
+
     public void leaderElection() {
         logger.info(getName() + " triggering election");
         heartbeatChecker.stop();
@@ -209,6 +482,10 @@ public class MultiPaxos extends Replica {
             for (FullLogPrepareResponse promise : promises) {
                 mergeLog(promise);
             }
+            //new entries are appended after the entries known from the previous leaders.
+            paxosLog.keySet().stream().max(Integer::compare)
+                    .ifPresent(maxIndex -> logIndex.accumulateAndGet(maxIndex + 1, Math::max));
+            electionIndex = logIndex.get() - 1;
             return sendProposalRequestsForUnCommittedEntries();
         });
     }
@@ -276,45 +553,60 @@ public class MultiPaxos extends Replica {
         //Accept commit, because commit is invoked only after successful prepare and propose.
         PaxosState committedPaxosState = paxosState.commit(request.generation, Optional.ofNullable(request.committedValue));
         paxosLog.put(request.index, committedPaxosState);
-        addAndApplyIfAllThePreviousEntriesAreCommitted(request);
+        applyCommittedEntries();
         sendOneway(message.getFromAddress(), new CommitResponse(true), message.getCorrelationId());
     }
 
-    private void addAndApplyIfAllThePreviousEntriesAreCommitted(CommitRequest commitRequest) {
-        //if all entries upto logIndex - 1 are committed, apply this entry.
-        List<Integer> previousIndexes = this.paxosLog.keySet().stream().filter(index -> index < commitRequest.index).collect(Collectors.toList());
-        boolean allPreviousCommitted = true;
-        for (Integer previousIndex : previousIndexes) {
-            if (paxosLog.get(previousIndex).committedValue().isEmpty()) {
-                allPreviousCommitted = false;
+    //Entries are applied in the log order. The high-watermark moves past an entry only
+    //when it is committed, so each entry is checked and applied once.
+    private void applyCommittedEntries() {
+        while (true) {
+            PaxosState paxosState = paxosLog.get(highWatermark + 1);
+            if (paxosState == null || paxosState.committedValue().isEmpty()) {
                 break;
             }
+            highWatermark++;
+            addAndApply(highWatermark, paxosState.committedValue().get());
         }
-        if (allPreviousCommitted) {
-            addAndApply(commitRequest.index, commitRequest.committedValue);
-        }
+        servePendingReads();
+    }
 
-        //see if there are entries above this logIndex which are committed, apply those entries.
-        for (int startIndex = commitRequest.index + 1; ; startIndex++) {
-            PaxosState paxosState = paxosLog.get(startIndex);
-            if (paxosState == null || paxosState.committedValue().isEmpty()) {
-                break;
+    //Entries accepted in the same generation as the proposal, upto the leader's commitIndex, are committed.
+    //The leader proposes only one value for an index in a generation, so these are the values it committed.
+    private void commitUpto(int commitIndex, MonotonicId generation) {
+        for (int index = highWatermark + 1; index <= commitIndex; index++) {
+            PaxosState paxosState = paxosLog.get(index);
+            if (paxosState != null && paxosState.committedValue().isEmpty()
+                    && paxosState.acceptedGeneration().equals(Optional.of(generation))) {
+                paxosLog.put(index, paxosState.commit(generation, paxosState.acceptedValue()));
             }
-            byte[] committed = paxosState.committedValue().get();
-            addAndApply(startIndex, committed);
-        } //convert to streaming..
+        }
+        applyCommittedEntries();
     }
 
     private void addAndApply(int index, byte[] walEnty) {
         Command command = Command.deserialize(walEnty);
         if (command instanceof SetValueCommand) {
             SetValueCommand setValueCommand = (SetValueCommand) command;
-            kv.put(setValueCommand.getKey(), setValueCommand.getValue());
-            requestWaitingList.handleResponse(index, new ExecuteCommandResponse(Optional.of(setValueCommand.getValue()), true));
-
+            requestWaitingList.handleResponse(index, apply(setValueCommand));
+
+        } else if (command instanceof CompositeCommand) {
+            //a batch of client commands, with a response for each, in the same order.
+            List<ExecuteCommandResponse> responses = new ArrayList<>();
+            for (Command batchedCommand : ((CompositeCommand) command).getCommands()) {
+                responses.add(batchedCommand instanceof SetValueCommand
+                        ? apply((SetValueCommand) batchedCommand)
+                        : ExecuteCommandResponse.notCommitted());
+            }
+            requestWaitingList.handleResponse(index, responses);
         }
     }
 
+    private ExecuteCommandResponse apply(SetValueCommand setValueCommand) {
+        kv.put(setValueCommand.getKey(), setValueCommand.getValue());
+        return new ExecuteCommandResponse(Optional.of(setValueCommand.getValue()), true);
+    }
+
     private void handlePaxosProposal(Message<ProposalRequest> message) {
         var request = message.messagePayload();
         var generation = request.generation;
@@ -325,8 +617,9 @@ public class MultiPaxos extends Replica {
             PaxosState acceptedPaxosState = paxosState.accept(request.generation, Optional.ofNullable(request.proposedValue));
             paxosLog.put(request.index, acceptedPaxosState);
             accepted = true;
+            commitUpto(request.commitIndex, generation);
         }
-        sendOneway(message.getFromAddress(), new ProposalResponse(accepted), message.getCorrelationId());
+        sendOneway(message.getFromAddress(), new ProposalResponse(accepted, highWatermark), message.getCorrelationId());
     }
 
 
@@ -334,7 +627,7 @@ public class MultiPaxos extends Replica {
     private void handleFullLogPrepare(Message<PrepareRequest> message) {
         var request = message.messagePayload();
         MonotonicId ballot = request.generation;
-        if (promisedGeneration.isAfter(ballot)) {
+        if (promisedGeneration.isAfter(ballot) || leaseGrantedToAnotherLeader(ballot)) {
             sendOneway(message.getFromAddress(),
                     FullLogPrepareResponse.rejected(), message.getCorrelationId());
             return;
@@ -342,6 +635,7 @@ public class MultiPaxos extends Replica {
         logger.info(getName() + " accepting ballot " + ballot + ". Becoming follower.");
         promisedGeneration = ballot;
         this.role = ServerRole.Follower;
+        failPendingReads();
         heartBeatScheduler.stop();
         heartbeatChecker.start();
         sendOneway(message.getFromAddress(),
@@ -7,10 +7,13 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BlockingIOConnection implements ClientConnection {
     private RequestConsumer server;
     Socket clientSocket;
+    //Not synchronized, as a virtual thread blocking on IO inside synchronized pins its carrier thread.
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     public BlockingIOConnection(RequestConsumer server, Socket clientSocket) {
         this.server = server;
@@ -19,7 +22,8 @@ public class BlockingIOConnection implements ClientConnection {
 
     //<codeFragment name="blockingClientConnectionWrite">
     @Override
-    public synchronized void write(RequestOrResponse response) {
+    public void write(RequestOrResponse response) {
+        writeLock.lock();
         try {
             var serializedMessage = JsonSerDes.serialize(response);
             var outputStream = clientSocket.getOutputStream();
@@ -31,6 +35,8 @@ public class BlockingIOConnection implements ClientConnection {
         } catch (Exception e) {
             e.printStackTrace();
             new NetworkException(e);
+        } finally {
+            writeLock.unlock();
         }
     }
     //</codeFragment>
@@ -51,7 +57,7 @@ public class BlockingIOConnection implements ClientConnection {
             var dataInputStream = new DataInputStream(inputStream);
             var size = dataInputStream.readInt();
             var responseBytes = new byte[size];
-            dataInputStream.read(responseBytes);
+            dataInputStream.readFully(responseBytes);
             return responseBytes;
 
         } catch (IOException e) {
@@ -0,0 +1,96 @@
+package replicate.net;
+
+import replicate.common.Config;
+import replicate.common.Logging;
+import replicate.common.VirtualThreads;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the requests read by all the connections of a listener.
+ * The number of threads and the number of queued requests are bounded,
+ * so that the number of connections does not decide the number of threads.
+ * When the stage is full, the request is rejected and the caller is expected
+ * to respond with a busy error.
+ *
+ * With virtual threads, each request gets its own virtual thread,
+ * and only the number of requests in progress is bounded.
+ */
+public class DispatchStage implements Logging {
+    private final ExecutorService executor;
+    private final int maxQueuedRequests;
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final AtomicLong dispatchedRequests = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
+    public DispatchStage(String name, int noOfThreads, int maxQueuedRequests, boolean useVirtualThreads) {
+        this.maxQueuedRequests = maxQueuedRequests;
+        if (useVirtualThreads && VirtualThreads.isSupported()) {
+            this.executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        } else {
+            if (useVirtualThreads) {
+                getLogger().warn("Virtual threads are not supported on " + Runtime.version() + ". Using " + noOfThreads + " platform threads for " + name);
+            }
+            this.executor = new ThreadPoolExecutor(noOfThreads, noOfThreads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    namedDaemonThreads(name));
+        }
+    }
+
+    public static DispatchStage forConfig(String name, Config config) {
+        return new DispatchStage(name, config.getDispatchThreads(), config.getMaxQueuedRequests(), config.isUseVirtualThreads());
+    }
+
+    //returns false if the request is rejected because too many requests are waiting.
+    public boolean submit(Runnable request) {
+        if (queuedRequests.incrementAndGet() > maxQueuedRequests) {
+            queuedRequests.decrementAndGet();
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    request.run();
+                } finally {
+                    queuedRequests.decrementAndGet();
+                }
+            });
+            dispatchedRequests.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) { //stage is shutdown.
+            queuedRequests.decrementAndGet();
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+    }
+
+    //requests waiting for a thread, or being executed.
+    public int getQueueDepth() {
+        return queuedRequests.get();
+    }
+
+    public long getDispatchedRequests() {
+        return dispatchedRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static ThreadFactory namedDaemonThreads(String name) {
+        AtomicInteger threadNo = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNo.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
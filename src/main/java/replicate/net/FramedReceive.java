@@ -0,0 +1,79 @@
+package replicate.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.Consumer;
+
+/**
+ * Reads length prefixed frames, with the same framing as {@link BoundedByteBufferReceive},
+ * but through a pooled read buffer kept for the life of the connection.
+ * A single read can complete multiple frames. Each frame is copied out of the read buffer
+ * exactly once, as the messages are handled on other threads while the read buffer is reused.
+ * Frames larger than the read buffer are read directly into their own buffer.
+ */
+class FramedReceive {
+    //frame sizes are read from the peer, so anything beyond this is treated as a corrupt stream.
+    static final int maxFrameBytes = 64 * 1024 * 1024;
+    private final ByteBufferPool pool;
+    private ByteBuffer readBuffer;
+    //frame which did not fit in the read buffer.
+    private ByteBuffer largeFrame;
+
+    FramedReceive(ByteBufferPool pool) {
+        this.pool = pool;
+        this.readBuffer = pool.acquire();
+    }
+
+    //<codeFragment name="framedReceive">
+    public int readFrom(ReadableByteChannel channel, Consumer<ByteBuffer> frameConsumer) throws IOException {
+        if (largeFrame != null) {
+            int read = channel.read(largeFrame);
+            if (read > 0 && !largeFrame.hasRemaining()) {
+                frameConsumer.accept(largeFrame.flip());
+                largeFrame = null;
+            }
+            return read;
+        }
+        int read = channel.read(readBuffer);
+        if (read <= 0) {
+            return read;
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= Integer.BYTES) {
+            int size = readBuffer.getInt(readBuffer.position());
+            if (size < 0 || size > maxFrameBytes) {
+                //the caller closes the connection, as the remaining stream can not be framed.
+                throw new IOException("Invalid frame size " + size);
+            }
+            if (readBuffer.remaining() >= Integer.BYTES + size) {
+                readBuffer.position(readBuffer.position() + Integer.BYTES);
+                frameConsumer.accept(copyFrame(size));
+
+            } else if (Integer.BYTES + size > readBuffer.capacity()) {
+                readBuffer.position(readBuffer.position() + Integer.BYTES);
+                largeFrame = ByteBuffer.allocate(size).put(readBuffer);
+                break;
+
+            } else {
+                break; //wait for the rest of the frame.
+            }
+        }
+        readBuffer.compact();
+        return read;
+    }
+    //</codeFragment>
+
+    private ByteBuffer copyFrame(int size) {
+        byte[] frame = new byte[size];
+        readBuffer.get(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    public void release() {
+        if (readBuffer != null) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+}
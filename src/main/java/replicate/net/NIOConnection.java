@@ -9,24 +9,48 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
 public class NIOConnection implements ClientConnection, Logging {
     private static final Logger LOG = LogManager.getLogger(NIOConnection.class);
+    public static final String SERVER_BUSY = "Server busy";
 
     private SocketChannel sock;
     private SelectionKey sk;
     private NIOSocketListener server;
+    private NIOReactor reactor;
     private boolean closed;
-    private BoundedByteBufferReceive receive = null;
-    LinkedBlockingQueue<ByteBuffer> outgoingBuffers = new LinkedBlockingQueue<ByteBuffer>();
+    private FramedReceive receive = null;
     private RequestConsumer requestConsumer;
-    public NIOConnection(SocketChannel sock, SelectionKey sk, NIOSocketListener server, RequestConsumer consumer) {
+
+    //Reading from a client is paused once these many bytes of responses are waiting to be written,
+    //and resumed only after the pending bytes drop below the low watermark.
+    static final int highWatermarkBytes = 4 * 1024 * 1024;
+    static final int lowWatermarkBytes = 1024 * 1024;
+    private static final int maxBuffersPerWrite = 16;
+
+    //Responses are written by the request handling threads and flushed by the selector thread.
+    //All the following outbound state is guarded by outboundLock.
+    private final Object outboundLock = new Object();
+    //buffers ready to be written to the socket.
+    private final ArrayDeque<ByteBuffer> outgoingBuffers = new ArrayDeque<>();
+    //pooled buffer in which the responses are accumulated till the next flush.
+    private ByteBuffer currentBuffer;
+    private long pendingBytes;
+    private boolean writeScheduled;
+    private boolean readPaused;
+    //how many times reading was paused, and the pending bytes when it was last paused and resumed.
+    private int readPauses;
+    private long pendingBytesAtLastPause;
+    private long pendingBytesAtLastResume;
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[maxBuffersPerWrite];
+
+    public NIOConnection(SocketChannel sock, SelectionKey sk, NIOSocketListener server, NIOReactor reactor, RequestConsumer consumer) {
         this.sock = sock;
         this.sk = sk;
         this.server = server;
+        this.reactor = reactor;
         this.requestConsumer = consumer;
     }
 
@@ -38,21 +62,9 @@ public class NIOConnection implements ClientConnection, Logging {
             if (selectionKey.isReadable()) {
                 read(selectionKey);
             }
-            //<codeFragment name="nioWrite">
-            if (selectionKey.isWritable()) {
-                if (outgoingBuffers.size() > 0) {
-                    long bytesSent = sock.write(outgoingBuffers.toArray(ByteBuffer[]::new));
-                    for (ByteBuffer outgoingBuffer : outgoingBuffers) {
-                        if (!outgoingBuffer.hasRemaining()) {
-                            outgoingBuffers.remove(outgoingBuffer);
-                        }
-                    }
-                    if (outgoingBuffers.isEmpty()) {
-                        selectionKey.interestOps(selectionKey.interestOps() & (~SelectionKey.OP_WRITE));
-                    }
-                }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                flush(selectionKey);
             }
-            //</codeFragment>
         } catch (CancelledKeyException e) {
             close();
         } catch (Exception e) {
@@ -61,43 +73,44 @@ public class NIOConnection implements ClientConnection, Logging {
         }
     }
 
-    Executor executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
     private void read(SelectionKey key) throws Exception {
         var socketChannel = (SocketChannel)key.channel();
         if (receive == null) {
-            receive = new BoundedByteBufferReceive();
+            receive = new FramedReceive(server.bufferPool);
         }
-        int bytesRead = receive.readFrom(socketChannel);
+        //all the messages completed by this read are submitted.
+        //the key stays registered for read, unless reading is paused by a slow client.
+        int bytesRead = receive.readFrom(socketChannel, this::submit);
         if (bytesRead < 0) {
             close();
-        } else if (receive.complete) {
-            RequestOrResponse deserialize = JsonSerDes.deserialize(receive.contentBuffer.flip().array(), RequestOrResponse.class);
-            RequestOrResponse request = deserialize;
+        }
+    }
 
-            //TODO:submit request
-            //requestChannel.sendRequest(new RequestWrapper(id, request, key));
-            MessageId messageId = MessageId.valueOf(request.getRequestId());
-            //submit for execution.
-            var header = new Message.Header(request.getFromAddress(), request.getCorrelationId(), messageId);
-            executor.execute(()-> requestConsumer.accept(new Message<RequestOrResponse>(request, header, this)));
-            receive = null; //ready to read next request.
-        } else {
-            // more reading to be done
-            getLogger().trace("Did not finish reading, registering for read again on connection " + socketChannel.getRemoteAddress());
-            key.interestOps(SelectionKey.OP_READ);
+    private void submit(ByteBuffer frame) {
+        //only the header is parsed here. The payload stays a view of the frame, till the handler deserializes it.
+        RequestOrResponse request = server.wireCodec.decode(frame);
+        MessageId messageId = MessageId.valueOf(request.getRequestId());
+        //submit for execution.
+        var header = new Message.Header(request.getFromAddress(), request.getCorrelationId(), messageId);
+        if (!server.dispatchStage.submit(()-> requestConsumer.accept(new Message<RequestOrResponse>(request, header, this)))) {
+            respondBusy(request);
         }
     }
 
+    //same error response as a failed request, so clients can retry later.
+    private void respondBusy(RequestOrResponse request) {
+        getLogger().warn("Rejecting " + MessageId.valueOf(request.getRequestId()) + ". "
+                + server.dispatchStage.getQueueDepth() + " requests are already queued.");
+        write(new RequestOrResponse(request.getRequestId(), JsonSerDes.serialize(SERVER_BUSY), request.getCorrelationId()).setError());
+    }
+
     @Override
     public void close() {
         if (closed) {
             return;
         }
         closed = true;
-        synchronized (server.cnxns) {
-            server.cnxns.remove(this);
-        }
+        reactor.remove(this);
         if (requestConsumer != null) {
             requestConsumer.close(this);
         }
@@ -142,26 +155,144 @@ public class NIOConnection implements ClientConnection, Logging {
                 LOG.warn("ignoring exception during selectionkey cancel", e);
             }
         }
+        releaseOutgoingBuffers();
+        if (receive != null) {
+            receive.release();
+        }
+    }
+
+    private void releaseOutgoingBuffers() {
+        synchronized (outboundLock) {
+            sealCurrentBuffer();
+            ByteBuffer buffer;
+            while ((buffer = outgoingBuffers.poll()) != null) {
+                server.bufferPool.release(buffer);
+            }
+            pendingBytes = 0;
+        }
     }
 
     //<codeFragment name="nioClientConnectionWrite">
     @Override
     public void write(RequestOrResponse response) {
-        ByteBuffer responseBuffer = serializeResponse(response);
-        outgoingBuffers.add(responseBuffer);
-        sk.selector().wakeup();
-        if (sk.isValid()) {
-            sk.interestOps(sk.interestOps() | SelectionKey.OP_WRITE);
+        byte[] serializedResponse = server.wireCodec.encode(response);
+        boolean wasIdle;
+        synchronized (outboundLock) {
+            if (closed || !sk.isValid()) {
+                return;
+            }
+            append(serializedResponse);
+            pendingBytes += Integer.BYTES + serializedResponse.length;
+            if (!readPaused && pendingBytes > highWatermarkBytes) {
+                pauseReading();
+            }
+            wasIdle = !writeScheduled;
+            if (wasIdle) {
+                writeScheduled = true;
+                sk.interestOps(sk.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+        //If a write is already scheduled, the selector thread flushes this response along with it.
+        if (wasIdle) {
+            sk.selector().wakeup();
         }
     }
 
-    private ByteBuffer serializeResponse(RequestOrResponse response) {
-        byte[] serializedResponse = JsonSerDes.serialize(response);
-        ByteBuffer responseBuffer = ByteBuffer.allocate(4 + serializedResponse.length);
-        responseBuffer.putInt(serializedResponse.length);
-        responseBuffer.put(serializedResponse);
-        responseBuffer.flip();
-        return responseBuffer;
+    private void append(byte[] serializedResponse) {
+        int frameSize = Integer.BYTES + serializedResponse.length;
+        if (frameSize > server.bufferPool.getBufferSize()) {
+            sealCurrentBuffer();
+            outgoingBuffers.add(ByteBuffer.allocate(frameSize)
+                    .putInt(serializedResponse.length)
+                    .put(serializedResponse)
+                    .flip());
+            return;
+        }
+        if (currentBuffer == null || currentBuffer.remaining() < frameSize) {
+            sealCurrentBuffer();
+            currentBuffer = server.bufferPool.acquire();
+        }
+        currentBuffer.putInt(serializedResponse.length);
+        currentBuffer.put(serializedResponse);
+    }
+
+    private void sealCurrentBuffer() {
+        if (currentBuffer != null) {
+            outgoingBuffers.add(currentBuffer.flip());
+            currentBuffer = null;
+        }
     }
     //</codeFragment>
+
+    //<codeFragment name="nioWrite">
+    private void flush(SelectionKey key) throws IOException {
+        int count = 0;
+        synchronized (outboundLock) {
+            //responses accumulated since the last flush are written together.
+            sealCurrentBuffer();
+            for (ByteBuffer buffer : outgoingBuffers) {
+                if (count == maxBuffersPerWrite) {
+                    break;
+                }
+                writeBuffers[count++] = buffer;
+            }
+        }
+        long bytesWritten = count == 0 ? 0 : sock.write(writeBuffers, 0, count);
+        synchronized (outboundLock) {
+            for (int i = 0; i < count; i++) {
+                if (writeBuffers[i].hasRemaining()) {
+                    break;
+                }
+                server.bufferPool.release(outgoingBuffers.poll());
+            }
+            Arrays.fill(writeBuffers, 0, count, null);
+            pendingBytes -= bytesWritten;
+            if (readPaused && pendingBytes <= lowWatermarkBytes) {
+                resumeReading();
+            }
+            if (outgoingBuffers.isEmpty() && currentBuffer == null) {
+                writeScheduled = false;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+    }
+    //</codeFragment>
+
+    private void pauseReading() {
+        getLogger().debug("Pausing reads from a slow client with " + pendingBytes + " bytes pending");
+        readPaused = true;
+        readPauses++;
+        pendingBytesAtLastPause = pendingBytes;
+        sk.interestOps(sk.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    private void resumeReading() {
+        readPaused = false;
+        pendingBytesAtLastResume = pendingBytes;
+        sk.interestOps(sk.interestOps() | SelectionKey.OP_READ);
+    }
+
+    boolean isReadPaused() {
+        synchronized (outboundLock) {
+            return (sk.interestOps() & SelectionKey.OP_READ) == 0;
+        }
+    }
+
+    int getReadPauses() {
+        synchronized (outboundLock) {
+            return readPauses;
+        }
+    }
+
+    long getPendingBytesAtLastPause() {
+        synchronized (outboundLock) {
+            return pendingBytesAtLastPause;
+        }
+    }
+
+    long getPendingBytesAtLastResume() {
+        synchronized (outboundLock) {
+            return pendingBytesAtLastResume;
+        }
+    }
 }
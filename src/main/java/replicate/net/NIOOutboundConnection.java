@@ -0,0 +1,256 @@
+package replicate.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import replicate.common.RequestOrResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A persistent non-blocking connection to a peer.
+ * Messages are framed with the same length prefix which is read by {@link BoundedByteBufferReceive}.
+ * Only the selector thread of the {@link NIOSocketClient} writes to the channel.
+ * If a {@link ResponseConsumer} is given, the responses read from the channel are passed to it,
+ * so that multiple requests can be in flight on the connection.
+ */
+public class NIOOutboundConnection {
+    private static final Logger logger = LogManager.getLogger(NIOOutboundConnection.class);
+    private static final int maxBuffersPerWrite = 64;
+
+    private final InetAddressAndPort address;
+    private final SocketChannel channel;
+    private final NIOSocketClient client;
+    private final Queue<ByteBuffer> outgoingBuffers = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[maxBuffersPerWrite];
+    //true from the time a message is queued till the selector thread has written all the queued messages.
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean closed;
+    private SelectionKey key;
+    private BoundedByteBufferReceive receive;
+    private final ResponseConsumer responseConsumer;
+    private FramedReceive framedReceive;
+    //set till a non-blocking connect completes. Used only by the selector thread.
+    private boolean connecting;
+    private final long connectDeadlineNs;
+
+    //connectDeadlineNs is 0 if the channel is already connected.
+    NIOOutboundConnection(InetAddressAndPort address, SocketChannel channel, NIOSocketClient client, ResponseConsumer responseConsumer, long connectDeadlineNs) {
+        this.address = address;
+        this.channel = channel;
+        this.client = client;
+        this.responseConsumer = responseConsumer;
+        this.connecting = connectDeadlineNs != 0;
+        this.connectDeadlineNs = connectDeadlineNs;
+    }
+
+    //<codeFragment name="nioOutboundSend">
+    public void send(RequestOrResponse message) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        ByteBuffer frame = client.getWireCodec().encodeFrame(message);
+        outgoingBuffers.add(frame);
+        //the connection might have been closed after the check above. If close has not
+        //already dropped the message, it is failed here instead of being left in the queue.
+        if (closed && outgoingBuffers.remove(frame)) {
+            throw new ClosedChannelException();
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            client.scheduleFlush(this);
+        }
+    }
+    //</codeFragment>
+
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException e) {
+            close();
+            return;
+        }
+        if (flushScheduled.get()) {
+            flush();
+        }
+    }
+
+    boolean isConnecting() {
+        return connecting;
+    }
+
+    long getConnectDeadlineNs() {
+        return connectDeadlineNs;
+    }
+
+    private void finishConnect() {
+        try {
+            if (!channel.finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            logger.error("Could not connect to " + address, e);
+            close();
+            return;
+        }
+        connecting = false;
+        key.interestOps(SelectionKey.OP_READ);
+        //messages queued while connecting.
+        if (flushScheduled.get()) {
+            flush();
+        }
+    }
+
+    boolean isRegistered() {
+        return key != null;
+    }
+
+    void doIO(SelectionKey selectionKey) {
+        try {
+            if (selectionKey.isConnectable()) {
+                finishConnect();
+                return;
+            }
+            if (selectionKey.isReadable()) {
+                read();
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                flush();
+            }
+        } catch (CancelledKeyException e) {
+            close();
+        }
+    }
+
+    //Peers reply with separate messages on their own connections.
+    //Reading here is only needed to find out when the peer closes the connection.
+    private void read() {
+        if (responseConsumer != null) {
+            readResponses();
+            return;
+        }
+        try {
+            if (receive == null) {
+                receive = new BoundedByteBufferReceive();
+            }
+            if (receive.readFrom(channel) < 0) {
+                close();
+            } else if (receive.complete) {
+                logger.debug("Ignoring unexpected message from " + address);
+                receive = null;
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void readResponses() {
+        try {
+            if (framedReceive == null) {
+                framedReceive = new FramedReceive(client.getReadBufferPool());
+            }
+            if (framedReceive.readFrom(channel, frame -> responseConsumer.accept(client.getWireCodec().decode(frame))) < 0) {
+                closeAndReleaseReadBuffer();
+            }
+        } catch (IOException e) {
+            closeAndReleaseReadBuffer();
+        }
+    }
+
+    //Only the selector thread uses the read buffer. If the connection is closed by
+    //another thread, the buffer is left to the garbage collector instead.
+    private void closeAndReleaseReadBuffer() {
+        close();
+        framedReceive.release();
+    }
+
+    //<codeFragment name="nioGatheringWrite">
+    void flush() {
+        //while connecting, the flush stays scheduled and is done once connected.
+        if (closed || connecting) {
+            return;
+        }
+        try {
+            do {
+                if (!writeQueued()) {
+                    //socket buffer is full. Continue when the channel is writable again.
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                flushScheduled.set(false);
+                //a sender might have queued a message after the last write, without scheduling a flush.
+            } while (!outgoingBuffers.isEmpty() && flushScheduled.compareAndSet(false, true));
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException | CancelledKeyException e) {
+            logger.error("Communication failure sending messages to " + address);
+            close();
+        }
+    }
+
+    //returns true if all the queued buffers are written.
+    private boolean writeQueued() throws IOException {
+        while (!outgoingBuffers.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer buffer : outgoingBuffers) {
+                if (count == maxBuffersPerWrite) {
+                    break;
+                }
+                writeBuffers[count++] = buffer;
+            }
+            channel.write(writeBuffers, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (writeBuffers[i].hasRemaining()) {
+                    clearWriteBuffers(count);
+                    return false;
+                }
+                outgoingBuffers.poll();
+            }
+            clearWriteBuffers(count);
+        }
+        return true;
+    }
+    //</codeFragment>
+
+    private void clearWriteBuffers(int count) {
+        for (int i = 0; i < count; i++) {
+            writeBuffers[i] = null;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("ignoring exception during socketchannel close", e);
+        }
+        if (!outgoingBuffers.isEmpty()) {
+            logger.warn("Dropping " + outgoingBuffers.size() + " unsent messages to " + address + " as the connection is closed");
+            outgoingBuffers.clear();
+        }
+        if (responseConsumer != null) {
+            responseConsumer.close(this);
+        }
+    }
+
+    public InetAddressAndPort getAddress() {
+        return address;
+    }
+}
@@ -0,0 +1,113 @@
+package replicate.net;
+
+import replicate.common.Logging;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread doing the reads and writes for the connections assigned to it
+ * by the {@link NIOSocketListener}. Each reactor tracks only its own connections.
+ */
+class NIOReactor extends Thread implements Logging {
+    private final NIOSocketListener server;
+    private final Selector selector;
+    private final Queue<SocketChannel> acceptedChannels = new ConcurrentLinkedQueue<>();
+    final Set<NIOConnection> cnxns = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    NIOReactor(String name, NIOSocketListener server) throws IOException {
+        super(name);
+        this.server = server;
+        this.selector = Selector.open();
+        setDaemon(true);
+    }
+
+    //called by the acceptor thread. The channel is registered by the reactor thread itself,
+    //as registering blocks while the selector is selecting.
+    void assign(SocketChannel channel) {
+        acceptedChannels.add(channel);
+        selector.wakeup();
+    }
+
+    //connections accepted but not registered yet are counted as well.
+    int load() {
+        return cnxns.size() + acceptedChannels.size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                registerAcceptedChannels();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    NIOConnection c = (NIOConnection) key.attachment();
+                    c.doIO(key);
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (Exception e) {
+                getLogger().error(e);
+            }
+        }
+    }
+
+    private void registerAcceptedChannels() {
+        SocketChannel channel;
+        while ((channel = acceptedChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey sk = channel.register(selector, SelectionKey.OP_READ);
+                NIOConnection cnxn = server.createConnection(channel, sk, this);
+                sk.attach(cnxn);
+                cnxns.add(cnxn);
+            } catch (IOException e) {
+                getLogger().warn("Failed to register accepted connection", e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Do nothing.
+        }
+    }
+
+    void remove(NIOConnection cnxn) {
+        cnxns.remove(cnxn);
+    }
+
+    void shutdown() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        for (NIOConnection cnxn : cnxns) {
+            try {
+                cnxn.close();
+            } catch (Exception e) {
+                // Do nothing.
+            }
+        }
+        cnxns.clear();
+        this.join();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            getLogger().warn("ignoring exception during selector close", e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package replicate.net;
+
+import replicate.common.Logging;
+import replicate.common.WireCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound connections to the peers, all served by a single selector thread.
+ * Senders only encode the message and add it to the queue of the connection.
+ * The selector thread writes the queued messages with gathering writes,
+ * so the sending thread never blocks on a slow peer.
+ *
+ * @see NIOSocketListener for the receiving side.
+ */
+public class NIOSocketClient extends Thread implements Logging {
+    private static final int connectTimeoutMs = 5000;
+
+    private final Selector selector;
+    private final WireCodec wireCodec;
+    //read buffers for the connections which receive responses.
+    private final ByteBufferPool readBufferPool = new ByteBufferPool(64 * 1024, 64);
+    private final Queue<NIOOutboundConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NIOOutboundConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+    //connections started with connectAsync which are not connected yet. Used only by the selector thread.
+    private final List<NIOOutboundConnection> connectingConnections = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public NIOSocketClient(String name, WireCodec wireCodec) throws IOException {
+        super(name);
+        this.wireCodec = wireCodec;
+        this.selector = Selector.open();
+        setDaemon(true);
+    }
+
+    //Connecting is blocking, so that an unreachable peer is reported to the caller
+    //immediately, like it was with the blocking SocketClient.
+    //The connection is kept open and used for all the messages to the peer.
+    public NIOOutboundConnection connect(InetAddressAndPort address) throws IOException {
+        return connect(address, null);
+    }
+
+    public NIOOutboundConnection connect(InetAddressAndPort address, ResponseConsumer responseConsumer) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(address.getAddress(), address.getPort()), connectTimeoutMs);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        var connection = new NIOOutboundConnection(address, channel, this, responseConsumer, 0);
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+        return connection;
+    }
+
+    //Connecting does not block the caller. Messages sent before the connection is established
+    //are queued and written once it is. If connecting fails, or does not complete in the connect timeout,
+    //the connection is closed, which fails the requests waiting for responses on it.
+    public NIOOutboundConnection connectAsync(InetAddressAndPort address, ResponseConsumer responseConsumer) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        boolean connected;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connected = channel.connect(new InetSocketAddress(address.getAddress(), address.getPort()));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        long connectDeadlineNs = connected ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+        var connection = new NIOOutboundConnection(address, channel, this, responseConsumer, connectDeadlineNs);
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+        return connection;
+    }
+
+    WireCodec getWireCodec() {
+        return wireCodec;
+    }
+
+    ByteBufferPool getReadBufferPool() {
+        return readBufferPool;
+    }
+
+    //Called by the sending threads, only when the connection has nothing scheduled to write yet.
+    void scheduleFlush(NIOOutboundConnection connection) {
+        pendingFlushes.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                registerPendingConnections();
+                closeTimedOutConnects();
+                flushPendingConnections();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    var connection = (NIOOutboundConnection) key.attachment();
+                    connection.doIO(key);
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (Exception e) {
+                getLogger().error(e);
+            }
+        }
+    }
+
+    private void registerPendingConnections() {
+        NIOOutboundConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            connection.register(selector);
+            if (connection.isConnecting()) {
+                connectingConnections.add(connection);
+            }
+        }
+    }
+
+    private void closeTimedOutConnects() {
+        long now = System.nanoTime();
+        connectingConnections.removeIf(connection -> {
+            if (!connection.isConnecting() || connection.isClosed()) {
+                return true;
+            }
+            if (now - connection.getConnectDeadlineNs() > 0) {
+                getLogger().error("Timed out connecting to " + connection.getAddress());
+                connection.close();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void flushPendingConnections() {
+        NIOOutboundConnection connection;
+        while ((connection = pendingFlushes.poll()) != null) {
+            //connections not registered yet are flushed when they get registered.
+            if (connection.isRegistered()) {
+                connection.flush();
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            selector.wakeup();
+            this.join();
+            selector.close();
+        } catch (InterruptedException e) {
+            getLogger().warn("Interrupted", e);
+        } catch (IOException e) {
+            getLogger().error("Unexpected exception", e);
+        }
+    }
+}
@@ -1,80 +1,134 @@
 package replicate.net;
 
+import replicate.common.CborWireCodec;
+import replicate.common.Config;
 import replicate.common.Logging;
+import replicate.common.WireCodec;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 
+/**
+ * Accepts connections on a single acceptor thread and hands them over to
+ * one of the {@link NIOReactor}s, which do all the reads and writes.
+ * A new connection goes to the reactor with the least connections,
+ * picking reactors round-robin when they have the same load.
+ */
 public class NIOSocketListener extends Thread implements Logging {
     private final ServerSocketChannel ss;
     private final Selector selector;
     private final RequestConsumer requestConsumer;
+    private final NIOReactor[] reactors;
+    private int nextReactor = 0;
+    final WireCodec wireCodec;
+    //executes the requests read from all the connections.
+    final DispatchStage dispatchStage;
+    //direct buffers used by the connections to accumulate responses.
+    final ByteBufferPool bufferPool = new ByteBufferPool(64 * 1024, 256);
 
     public NIOSocketListener(RequestConsumer requestConsumer, InetAddressAndPort listenAddress) throws IOException {
+        this(requestConsumer, listenAddress, new CborWireCodec());
+    }
+
+    public NIOSocketListener(RequestConsumer requestConsumer, InetAddressAndPort listenAddress, WireCodec wireCodec) throws IOException {
+        this(requestConsumer, listenAddress, wireCodec, 1);
+    }
+
+    public NIOSocketListener(RequestConsumer requestConsumer, InetAddressAndPort listenAddress, WireCodec wireCodec, int noOfReactors) throws IOException {
+        this(requestConsumer, listenAddress, wireCodec, noOfReactors, DispatchStage.forConfig("dispatch-" + listenAddress, new Config()));
+    }
+
+    public NIOSocketListener(RequestConsumer requestConsumer, InetAddressAndPort listenAddress, WireCodec wireCodec, int noOfReactors, DispatchStage dispatchStage) throws IOException {
+        super("acceptor-" + listenAddress);
         this.requestConsumer = requestConsumer;
+        this.wireCodec = wireCodec;
+        this.dispatchStage = dispatchStage;
+        this.reactors = new NIOReactor[noOfReactors];
+        for (int i = 0; i < noOfReactors; i++) {
+            reactors[i] = new NIOReactor("reactor-" + i + "-" + listenAddress, this);
+        }
         this.selector = Selector.open();
         this.ss = ServerSocketChannel.open();
         ss.socket().bind(new InetSocketAddress(listenAddress.getAddress(), listenAddress.getPort()));
         ss.configureBlocking(false);
         ss.register(selector, SelectionKey.OP_ACCEPT);
     }
-    HashSet<NIOConnection> cnxns = new HashSet<NIOConnection>();
+
     @Override
     public void run() {
+        for (NIOReactor reactor : reactors) {
+            reactor.start();
+        }
         while (!ss.socket().isClosed()) {
             try {
                 selector.select(1000);
-                Set<SelectionKey> selected;
-                synchronized (this) {
-                    selected = selector.selectedKeys();
-                }
-                ArrayList<SelectionKey> selectedList = new ArrayList<SelectionKey>(
-                        selected);
-                Collections.shuffle(selectedList);
-                for (SelectionKey k : selectedList) {
-                    if ((k.readyOps() & SelectionKey.OP_ACCEPT) != 0) {
-                        SocketChannel sc = ((ServerSocketChannel) k
-                                .channel()).accept();
-                        sc.configureBlocking(false);
-                        SelectionKey sk = sc.register(selector,
-                                SelectionKey.OP_READ);
-                        NIOConnection cnxn = createConnection(sc, sk);
-                        sk.attach(cnxn);
-                        addCnxn(cnxn);
-                    } else if ((k.readyOps() & (SelectionKey.OP_READ | SelectionKey.OP_WRITE)) != 0) {
-                        NIOConnection c = (NIOConnection) k.attachment();
-                        c.doIO(k);
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey k = selected.next();
+                    selected.remove();
+                    if (k.isValid() && k.isAcceptable()) {
+                        acceptConnections((ServerSocketChannel) k.channel());
                     }
                 }
-                selected.clear();
+            } catch (ClosedSelectorException e) {
+                return;
             } catch (Exception e) {
                 getLogger().error(e);
             }
         }
     }
 
-    private void addCnxn(NIOConnection cnxn) {
-        this.cnxns.add(cnxn);
+    private void acceptConnections(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel sc;
+        while ((sc = serverChannel.accept()) != null) {
+            selectReactor().assign(sc);
+        }
+    }
+
+    private NIOReactor selectReactor() {
+        NIOReactor selected = null;
+        for (int i = 0; i < reactors.length; i++) {
+            NIOReactor reactor = reactors[(nextReactor + i) % reactors.length];
+            if (selected == null || reactor.load() < selected.load()) {
+                selected = reactor;
+            }
+        }
+        nextReactor = (nextReactor + 1) % reactors.length;
+        return selected;
     }
 
     protected NIOConnection createConnection(SocketChannel sock,
-                                             SelectionKey sk) throws IOException {
-        return new NIOConnection(sock, sk, this, requestConsumer);
+                                             SelectionKey sk, NIOReactor reactor) throws IOException {
+        return new NIOConnection(sock, sk, this, reactor, requestConsumer);
     }
 
+    public DispatchStage getDispatchStage() {
+        return dispatchStage;
+    }
 
+    int connectionCount() {
+        int count = 0;
+        for (NIOReactor reactor : reactors) {
+            count += reactor.cnxns.size();
+        }
+        return count;
+    }
 
     public void shudown() {
          try {
             ss.close();
+            selector.wakeup();
             clear();
             this.interrupt();
             this.join();
+            selector.close();
+            dispatchStage.shutdown();
         } catch (InterruptedException e) {
             getLogger().warn("Interrupted",e);
         } catch (Exception e) {
@@ -82,21 +136,10 @@ public class NIOSocketListener extends Thread implements Logging {
         }
     }
 
-    synchronized public void clear() {
-        selector.wakeup();
-        synchronized (cnxns) {
-            // got to clear all the connections that we have in the selector
-            for (Iterator<NIOConnection> it = cnxns.iterator(); it
-                    .hasNext();) {
-                NIOConnection cnxn = it.next();
-                it.remove();
-                try {
-                    cnxn.close();
-                } catch (Exception e) {
-                    // Do nothing.
-                }
-            }
+    public void clear() throws InterruptedException {
+        // got to clear all the connections that the reactors have.
+        for (NIOReactor reactor : reactors) {
+            reactor.shutdown();
         }
-
     }
 }
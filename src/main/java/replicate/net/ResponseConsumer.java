@@ -0,0 +1,9 @@
+package replicate.net;
+
+import replicate.common.RequestOrResponse;
+
+//Receives the responses read from an outbound connection, on the selector thread of the NIOSocketClient.
+public interface ResponseConsumer {
+    default void close(NIOOutboundConnection connection) {}
+    void accept(RequestOrResponse response);
+}
@@ -2,28 +2,44 @@ package replicate.net;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import replicate.common.CborWireCodec;
 import replicate.common.JsonSerDes;
 import replicate.common.RequestOrResponse;
+import replicate.common.WireCodec;
 
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 public class SocketClient<T> implements Closeable {
     private static Logger logger = LogManager.getLogger(SocketClient.class.getName());
     private final int readTimeoutMs = 15000;
 
     Socket clientSocket;
+    private final WireCodec wireCodec;
 
     public SocketClient(InetAddressAndPort address) throws IOException {
+        this(address, new CborWireCodec());
+    }
+
+    public SocketClient(InetAddressAndPort address, WireCodec wireCodec) throws IOException {
         this.clientSocket = new Socket(address.getAddress(), address.getPort());
+        this.wireCodec = wireCodec;
         clientSocket.setSoTimeout(readTimeoutMs);
     }
 
     public void sendOneway(T message) {
-        sendOneway(clientSocket, JsonSerDes.serialize(message));
+        sendOneway(clientSocket, encode(message));
+    }
+
+    private byte[] encode(T message) {
+        if (message instanceof RequestOrResponse) {
+            return wireCodec.encode((RequestOrResponse) message);
+        }
+        return JsonSerDes.serialize(message);
     }
 
     public void sendOneway(Socket socket, byte[] serializedMessage) {
@@ -49,7 +65,7 @@ public class SocketClient<T> implements Closeable {
             var dataInputStream = new DataInputStream(inputStream);
             var size = dataInputStream.readInt();
             var responseBytes = new byte[size];
-            dataInputStream.read(responseBytes);
+            dataInputStream.readFully(responseBytes);
             return responseBytes;
             
         } catch (IOException e) {
@@ -58,8 +74,8 @@ public class SocketClient<T> implements Closeable {
     }
 
     public RequestOrResponse blockingSend(T requestOrResponse) {
-        sendOneway(clientSocket, JsonSerDes.serialize(requestOrResponse));
-        return JsonSerDes.deserialize(read(clientSocket), RequestOrResponse.class);
+        sendOneway(clientSocket, encode(requestOrResponse));
+        return wireCodec.decode(ByteBuffer.wrap(read(clientSocket)));
     }
 
     public void close() {
@@ -7,8 +7,9 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SocketListener extends Thread implements Logging {
@@ -16,12 +17,15 @@ public class SocketListener extends Thread implements Logging {
     private final Config config;
     private final ServerSocket serverSocket;
     private RequestConsumer server;
-    private List<SocketHandlerThread> clientThreads = new ArrayList<>();
+    private final Set<SocketHandler> clientHandlers = ConcurrentHashMap.newKeySet();
+    //a thread per connection. With virtual threads, the blocking reads do not hold on to a platform thread.
+    private final ExecutorService connectionThreads;
 
     public SocketListener(RequestConsumer server, InetAddressAndPort listenIp, Config config) {
         this.server = server;
         this.listenIp = listenIp;
         this.config = config;
+        this.connectionThreads = VirtualThreads.newThreadPerTaskExecutor("connection-" + listenIp, config.isUseVirtualThreads());
         try {
             this.serverSocket = new ServerSocket();
             this.serverSocket.bind(new InetSocketAddress(listenIp.getAddress(), listenIp.getPort()));
@@ -44,9 +48,9 @@ public class SocketListener extends Thread implements Logging {
                  * For a single connection, need to have a dedicated thread constantly reading from connection.
                  * Can be optimized by using NIO.
                  */
-                SocketHandlerThread socketHandlerThread = new SocketHandlerThread(clientSocket);
-                socketHandlerThread.start();
-                clientThreads.add(socketHandlerThread);
+                SocketHandler socketHandler = new SocketHandler(clientSocket);
+                clientHandlers.add(socketHandler);
+                connectionThreads.execute(socketHandler);
 
             } catch (IOException e) {
                 getLogger().debug(e);
@@ -66,17 +70,23 @@ public class SocketListener extends Thread implements Logging {
         closeQuitely();
         closeAllClientConnections();
         running.set(false);
+        connectionThreads.shutdownNow();
     }
 
     private void closeAllClientConnections() {
-        for (SocketHandlerThread clientThread : clientThreads) {
-            closeClient(clientThread);
+        for (SocketHandler clientHandler : clientHandlers) {
+            closeClient(clientHandler);
         }
     }
 
-    private void closeClient(SocketHandlerThread clientThread) {
-        clientThread.closeConnection();
-        clientThread.isRunning = false;
+    private void closeClient(SocketHandler clientHandler) {
+        clientHandler.closeConnection();
+        clientHandler.isRunning = false;
+        clientHandlers.remove(clientHandler);
+    }
+
+    int connectionCount() {
+        return clientHandlers.size();
     }
 
     private void closeQuitely() {
@@ -95,11 +105,11 @@ public class SocketListener extends Thread implements Logging {
         return listenIp;
     }
 
-    class SocketHandlerThread extends Thread implements Logging {
+    class SocketHandler implements Runnable, Logging {
         private final BlockingIOConnection clientConnection;
         volatile boolean isRunning = false;
 
-        public SocketHandlerThread(Socket clientSocket) {
+        public SocketHandler(Socket clientSocket) {
             this.clientConnection = new BlockingIOConnection(server, clientSocket);
         }
 
@@ -2,6 +2,11 @@ package replicate.paxos.messages;
 
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 public class CommitResponse extends MessagePayload {
     public final boolean success;
@@ -10,4 +15,16 @@ public class CommitResponse extends MessagePayload {
         super(MessageId.CommitResponse);
         this.success = success;
     }
+
+    public static final PayloadCodec<CommitResponse> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(CommitResponse response, DataOutputStream os) throws IOException {
+            os.writeBoolean(response.success);
+        }
+
+        @Override
+        public CommitResponse decode(DataInputStream is) throws IOException {
+            return new CommitResponse(is.readBoolean());
+        }
+    };
 }
@@ -2,12 +2,38 @@ package replicate.paxos.messages;
 
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 public class ProposalResponse extends MessagePayload {
     public final boolean success;
+    //Index upto which the acceptor has committed entries. Used by the pipelined multi-paxos leader
+    //to find the entries a follower could not commit from the commitIndex.
+    public final int highWatermark;
 
     public ProposalResponse(boolean success) {
+        this(success, -1);
+    }
+
+    public ProposalResponse(boolean success, int highWatermark) {
         super(MessageId.ProposeResponse);
         this.success = success;
+        this.highWatermark = highWatermark;
     }
+
+    public static final PayloadCodec<ProposalResponse> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(ProposalResponse response, DataOutputStream os) throws IOException {
+            os.writeBoolean(response.success);
+            os.writeInt(response.highWatermark);
+        }
+
+        @Override
+        public ProposalResponse decode(DataInputStream is) throws IOException {
+            return new ProposalResponse(is.readBoolean(), is.readInt());
+        }
+    };
 }
@@ -58,11 +58,11 @@ public class PaxosLog extends Replica {
         handlesMessage(MessageId.Prepare, this::handlePrepare, PrepareRequest.class);
         handlesMessage(MessageId.Promise, this::handlePromise, PrepareResponse.class);
 
-        handlesMessage(MessageId.ProposeRequest, this::handlePaxosProposal, ProposalRequest.class);
-        handlesMessage(MessageId.ProposeResponse, this::handleProposalResponse, ProposalResponse.class);
+        handlesMessage(MessageId.ProposeRequest, this::handlePaxosProposal, ProposalRequest.class, ProposalRequest.CODEC);
+        handlesMessage(MessageId.ProposeResponse, this::handleProposalResponse, ProposalResponse.class, ProposalResponse.CODEC);
 
-        handlesMessage(MessageId.Commit, this::handlePaxosCommit, CommitRequest.class);
-        handlesMessage(MessageId.CommitResponse, this::handleCommitResponse, CommitResponse.class);
+        handlesMessage(MessageId.Commit, this::handlePaxosCommit, CommitRequest.class, CommitRequest.CODEC);
+        handlesMessage(MessageId.CommitResponse, this::handleCommitResponse, CommitResponse.class, CommitResponse.CODEC);
     }
 
     private void handleCommitResponse(Message<CommitResponse> commitResponseMessage) {
@@ -168,7 +168,7 @@ public class PaxosLog extends Replica {
 
     private CompletableFuture<byte[]> sendProposeRequest(int index, byte[] proposedValue, MonotonicId monotonicId) {
         var proposalCallback = new AsyncQuorumCallback<ProposalResponse>(getNoOfReplicas(), p -> p.success);
-        sendMessageToReplicas(proposalCallback, MessageId.ProposeRequest, new ProposalRequest(monotonicId, index, proposedValue));
+        sendMessageToReplicas(proposalCallback, MessageId.ProposeRequest, new ProposalRequest(monotonicId, index, proposedValue, -1));
         return proposalCallback.getQuorumFuture().thenApply(r -> proposedValue);
     }
 
@@ -3,6 +3,12 @@ package replicate.paxoslog.messages;
 import replicate.common.MonotonicId;
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+import replicate.common.PayloadCodecs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 public class CommitRequest extends MessagePayload {
     public final int index;
@@ -15,4 +21,18 @@ public class CommitRequest extends MessagePayload {
         this.committedValue = committedValue;
         this.generation = generation;
     }
+
+    public static final PayloadCodec<CommitRequest> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(CommitRequest request, DataOutputStream os) throws IOException {
+            os.writeInt(request.index);
+            PayloadCodecs.writeBytes(os, request.committedValue);
+            request.generation.serialize(os);
+        }
+
+        @Override
+        public CommitRequest decode(DataInputStream is) throws IOException {
+            return new CommitRequest(is.readInt(), PayloadCodecs.readBytes(is), MonotonicId.deserialize(is));
+        }
+    };
 }
@@ -3,17 +3,41 @@ package replicate.paxoslog.messages;
 import replicate.common.MonotonicId;
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+import replicate.common.PayloadCodecs;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.Duration;
 
 public class ProposalRequest extends MessagePayload {
     public final MonotonicId generation;
     public final int index;
     public final byte[] proposedValue;
-    public ProposalRequest(MonotonicId generation, int index, byte[] proposedValue) {
+    //Entries upto commitIndex are committed on the leader. -1 if the proposer does not piggyback commits.
+    public final int commitIndex;
+
+    public ProposalRequest(MonotonicId generation, int index, byte[] proposedValue, int commitIndex) {
         super(MessageId.ProposeRequest);
         this.generation = generation;
         this.index = index;
         this.proposedValue = proposedValue;
+        this.commitIndex = commitIndex;
     }
+
+    public static final PayloadCodec<ProposalRequest> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(ProposalRequest request, DataOutputStream os) throws IOException {
+            request.generation.serialize(os);
+            os.writeInt(request.index);
+            PayloadCodecs.writeBytes(os, request.proposedValue);
+            os.writeInt(request.commitIndex);
+        }
+
+        @Override
+        public ProposalRequest decode(DataInputStream is) throws IOException {
+            return new ProposalRequest(MonotonicId.deserialize(is), is.readInt(), PayloadCodecs.readBytes(is), is.readInt());
+        }
+    };
 }
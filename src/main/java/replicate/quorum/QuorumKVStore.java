@@ -119,7 +119,11 @@ public class QuorumKVStore extends Replica {
 
     private Config makeNewConfigWithSystemWalDir(Config config) {
         String systemWalDir = makeSystemWalDir(config);
-        return new Config(systemWalDir);
+        Config systemConfig = new Config(systemWalDir);
+        if (config.isRocksDBStorage()) {
+            systemConfig.withRocksDBStorage();
+        }
+        return systemConfig;
     }
 
     private String makeSystemWalDir(Config config) {
@@ -0,0 +1,98 @@
+package replicate.raft;
+
+import replicate.net.InetAddressAndPort;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * The currentTerm and votedFor of a server, which must survive restarts.
+ * (Figure 2, "Persistent state on all servers".) Without it, a restarted server could vote
+ * for a second candidate in a term it has already voted in.
+ * Each update is written to a temporary file, synced and renamed over the earlier state,
+ * so a crash leaves either the earlier or the new state on the disk.
+ *
+ * Layout: magic, version, currentTerm, hasVote, (votedFor host, votedFor port)?
+ */
+class PersistentState {
+    private static final String fileName = "raft_state";
+    private static final int MAGIC = 0x52414654; //RAFT
+    private static final int VERSION = 1;
+
+    private final File file;
+    private long currentTerm;
+    private InetAddressAndPort votedFor;
+
+    private PersistentState(File file, long currentTerm, InetAddressAndPort votedFor) {
+        this.file = file;
+        this.currentTerm = currentTerm;
+        this.votedFor = votedFor;
+    }
+
+    static PersistentState load(File dir) {
+        var file = new File(dir, fileName);
+        if (!file.exists()) {
+            return new PersistentState(file, 0, null);
+        }
+        try (var is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new IllegalStateException("Invalid raft state file " + file);
+            }
+            long currentTerm = is.readLong();
+            InetAddressAndPort votedFor = is.readBoolean() ? InetAddressAndPort.create(is.readUTF(), is.readInt()) : null;
+            return new PersistentState(file, currentTerm, votedFor);
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    long getCurrentTerm() {
+        return currentTerm;
+    }
+
+    InetAddressAndPort getVotedFor() {
+        return votedFor;
+    }
+
+    //Returns only after the state is on the disk.
+    void save(long currentTerm, InetAddressAndPort votedFor) {
+        if (this.currentTerm == currentTerm && Objects.equals(this.votedFor, votedFor)) {
+            return;
+        }
+        var tempFile = new File(file.getParentFile(), fileName + ".tmp");
+        try {
+            var fileOutputStream = new FileOutputStream(tempFile);
+            try (var os = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeLong(currentTerm);
+                os.writeBoolean(votedFor != null);
+                if (votedFor != null) {
+                    os.writeUTF(votedFor.getAddress().getHostAddress());
+                    os.writeInt(votedFor.getPort());
+                }
+                os.flush();
+                fileOutputStream.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(file.getParentFile());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.currentTerm = currentTerm;
+        this.votedFor = votedFor;
+    }
+
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //not all platforms allow opening a directory.
+        }
+    }
+}
@@ -1,22 +1,431 @@
 package replicate.raft;
 
-import replicate.common.Config;
-import replicate.common.Replica;
-import replicate.common.SystemClock;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import replicate.common.*;
+import replicate.heartbeat.HeartBeatScheduler;
 import replicate.net.InetAddressAndPort;
+import replicate.paxos.messages.GetValueResponse;
+import replicate.quorum.messages.GetValueRequest;
+import replicate.raft.messages.*;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.*;
 
 import java.io.IOException;
-import java.util.List;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
+/**
+ * Raft replicated log. https://raft.github.io/raft.pdf
+ * The leader appends the client commands to its write-ahead log, and replicates them
+ * to the followers with AppendEntries, tracking nextIndex and matchIndex for each follower.
+ * AppendEntries requests are pipelined, the leader sends the next batch of entries
+ * without waiting for the response to the previous one, upto maxInflightAppends batches
+ * per follower. The entries are committed once a quorum has them in its log.
+ */
 public class Raft extends Replica {
-    private ServerRole serverRole = ServerRole.FOLLOWING;
+    private static Logger logger = LogManager.getLogger(Raft.class);
+    private final SetValueCommand NO_OP_COMMAND = new SetValueCommand("", "");
+    private final Random random = new Random();
+    Duration randomElectionTimeout;
+    private final int maxEntriesPerAppend;
+    private final int maxInflightAppends;
+    private final List<InetAddressAndPort> followers;
+
+    //The term of each entry is stored as the generation of its WALEntry.
+    //currentTerm and votedFor are changed only with updateTermAndVote, which saves them first.
+    long currentTerm = 0;
+    InetAddressAndPort votedFor;
+    private final PersistentState persistentState;
+    final WriteAheadLog wal;
+    ServerRole serverRole = ServerRole.FOLLOWING;
+
+    long commitIndex = 0;
+    long lastApplied = 0;
+    Map<String, String> kv = new HashMap<>();
+
+    //Leader state, reinitialized after every election.
+    Map<InetAddressAndPort, FollowerProgress> followerProgress = new HashMap<>();
+    //Entries appended by the leader since the last WAL write. These are written to the WAL together.
+    private List<WALEntry> unflushedEntries = new ArrayList<>();
+    private Map<Long, PendingCommand> pendingCommands = new HashMap<>();
+
+    private Set<InetAddressAndPort> votesReceived = new HashSet<>();
+
+    record PendingCommand(long term, CompletableFuture<ExecuteCommandResponse> future) {
+    }
+
+    static class FollowerProgress {
+        //index of the next entry to send. Advanced as soon as entries are sent.
+        long nextIndex;
+        //index of the highest entry known to be in the follower's log.
+        long matchIndex = 0;
+        //last index of each AppendEntries request waiting for a response, in the order they are sent.
+        final Deque<Long> inflightAppends = new ArrayDeque<>();
+
+        FollowerProgress(long nextIndex) {
+            this.nextIndex = nextIndex;
+        }
+    }
 
     public Raft(String name, Config config, SystemClock clock, InetAddressAndPort clientConnectionAddress, InetAddressAndPort peerConnectionAddress, List<InetAddressAndPort> peerAddresses) throws IOException {
         super(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses);
+        this.wal = WriteAheadLog.openWAL(config);
+        this.persistentState = PersistentState.load(config.getWalDir());
+        this.currentTerm = persistentState.getCurrentTerm();
+        this.votedFor = persistentState.getVotedFor();
+        this.maxEntriesPerAppend = config.getMaxEntriesPerAppend();
+        this.maxInflightAppends = config.getMaxInflightAppends();
+        this.followers = peerAddresses.stream().filter(a -> !a.equals(peerConnectionAddress)).collect(Collectors.toList());
+        //Checking only every heartbeatTimeout rounds each random election timeout up to the same check,
+        //so followers which became followers together keep starting elections together and splitting the votes.
+        this.heartbeatChecker = new HeartBeatScheduler(this::checkLeader, heartbeatTimeout.toMillis() / 10);
+        becomeFollower(wal.getLastLogEntryGeneration());
+    }
+
+    private void setRandomElectionTimeout() {
+        this.randomElectionTimeout = heartbeatTimeout.plus(Duration.ofMillis(random.nextInt((int) heartbeatTimeout.toMillis())));
     }
 
     @Override
     protected void registerHandlers() {
+        //client rpc
+        handlesRequestAsync(MessageId.ExcuteCommandRequest, this::handleClientExecuteCommand, ExecuteCommandRequest.class);
+        handlesRequestAsync(MessageId.GetValueRequest, this::handleClientGetValueRequest, GetValueRequest.class);
+
+        //peer to peer message passing
+        handlesMessage(MessageId.VoteRequest, this::handleRequestVote, RequestVoteRequest.class);
+        handlesMessage(MessageId.VoteResponse, this::handleRequestVoteResponse, RequestVoteResponse.class);
+
+        handlesMessage(MessageId.ReplicationRequest, this::handleAppendEntries, AppendEntriesRequest.class, AppendEntriesRequest.CODEC);
+        handlesMessage(MessageId.ReplicationResponse, this::handleAppendEntriesResponse, AppendEntriesResponse.class, AppendEntriesResponse.CODEC);
+    }
+
+    @Override
+    protected void checkLeader() {
+        Duration timeSinceLastHeartbeat = elapsedTimeSinceLastHeartbeat();
+        if (timeSinceLastHeartbeat.compareTo(randomElectionTimeout) > 0) {
+            logger.info(getName() + " heartbeat timedOut after " + timeSinceLastHeartbeat.toMillis() + "ms");
+            singularUpdateQueueExecutor.submit(this::startElection);
+        }
+    }
+
+    void startElection() {
+        if (serverRole == ServerRole.LEADING) {
+            return;
+        }
+        serverRole = ServerRole.LOOKING_FOR_LEADER;
+        updateTermAndVote(currentTerm + 1, getPeerConnectionAddress());
+        votesReceived = new HashSet<>();
+        votesReceived.add(getPeerConnectionAddress());
+        //restart the election timeout, so that a split vote is retried in the next term.
+        markHeartbeatReceived();
+        setRandomElectionTimeout();
+        logger.info(getName() + " starting election for term " + currentTerm);
+        sendOnewayMessageToOtherReplicas(new RequestVoteRequest(currentTerm, wal.getLastLogIndex(), wal.getLastLogEntryGeneration()));
+        becomeLeaderIfVotedByQuorum();
+    }
+
+    private void handleRequestVote(Message<RequestVoteRequest> message) {
+        var request = message.messagePayload();
+        if (request.term > currentTerm) {
+            becomeFollower(request.term);
+        }
+        var candidate = message.getFromAddress();
+        boolean voteGranted = request.term == currentTerm
+                && (votedFor == null || votedFor.equals(candidate))
+                && isAtLeastAsUpToDate(request.lastLogTerm, request.lastLogIndex);
+        if (voteGranted) {
+            updateTermAndVote(currentTerm, candidate);
+            markHeartbeatReceived();
+        }
+        sendOneway(candidate, new RequestVoteResponse(currentTerm, voteGranted), message.getCorrelationId());
+    }
+
+    //Only a candidate with all the committed entries can get the votes. (Section 5.4.1)
+    private boolean isAtLeastAsUpToDate(long lastLogTerm, long lastLogIndex) {
+        long ownLastLogTerm = wal.getLastLogEntryGeneration();
+        return lastLogTerm > ownLastLogTerm
+                || (lastLogTerm == ownLastLogTerm && lastLogIndex >= wal.getLastLogIndex());
+    }
+
+    private void handleRequestVoteResponse(Message<RequestVoteResponse> message) {
+        var response = message.messagePayload();
+        if (response.term > currentTerm) {
+            becomeFollower(response.term);
+            return;
+        }
+        if (serverRole != ServerRole.LOOKING_FOR_LEADER || response.term != currentTerm || !response.voteGranted) {
+            return;
+        }
+        votesReceived.add(message.getFromAddress());
+        becomeLeaderIfVotedByQuorum();
+    }
+
+    private void becomeLeaderIfVotedByQuorum() {
+        if (votesReceived.size() >= majorityQuorum()) {
+            becomeLeader();
+        }
+    }
+
+    private void becomeLeader() {
+        logger.info(getName() + " is leader for term " + currentTerm);
+        serverRole = ServerRole.LEADING;
+        followerProgress = new HashMap<>();
+        long nextIndex = wal.getLastLogIndex() + 1;
+        for (InetAddressAndPort follower : followers) {
+            followerProgress.put(follower, new FollowerProgress(nextIndex));
+        }
+        heartbeatChecker.stop();
+        heartBeatScheduler.restart();
+        //Entries from the earlier terms are committed along with this entry. (Section 5.4.2)
+        appendToLog(NO_OP_COMMAND.serialize());
+    }
+
+    private void becomeFollower(long term) {
+        if (term > currentTerm) {
+            updateTermAndVote(term, null);
+        }
+        if (serverRole == ServerRole.LEADING) {
+            logger.info(getName() + " stepping down as leader in term " + currentTerm);
+            failPendingCommands();
+        }
+        serverRole = ServerRole.FOLLOWING;
+        heartBeatScheduler.stop();
+        heartbeatChecker.restart();
+        markHeartbeatReceived();
+        setRandomElectionTimeout();
+    }
+
+    //The term and vote are on the disk before any message is sent for them,
+    //so that a restarted server does not vote twice in the same term.
+    private void updateTermAndVote(long term, InetAddressAndPort votedFor) {
+        persistentState.save(term, votedFor);
+        this.currentTerm = term;
+        this.votedFor = votedFor;
+    }
+
+    //The new leader might overwrite these entries, so the clients can not know if the commands are executed.
+    private void failPendingCommands() {
+        unflushedEntries = new ArrayList<>();
+        var failure = new RuntimeException("Leadership lost before the command was committed");
+        pendingCommands.values().forEach(pendingCommand -> pendingCommand.future.completeExceptionally(failure));
+        pendingCommands = new HashMap<>();
+    }
+
+    private CompletableFuture<ExecuteCommandResponse> handleClientExecuteCommand(ExecuteCommandRequest request) {
+        if (serverRole != ServerRole.LEADING) {
+            return CompletableFuture.failedFuture(new RuntimeException("Can not process requests as the node is not the leader"));
+        }
+        return appendToLog(request.command);
+    }
+
+    //Reads go through the log, so that a leader which has lost its leadership
+    //can not return stale values.
+    private CompletableFuture<GetValueResponse> handleClientGetValueRequest(GetValueRequest request) {
+        if (serverRole != ServerRole.LEADING) {
+            return CompletableFuture.failedFuture(new RuntimeException("Can not process requests as the node is not the leader"));
+        }
+        return appendToLog(NO_OP_COMMAND.serialize())
+                .thenApply(r -> new GetValueResponse(Optional.ofNullable(kv.get(request.getKey()))));
+    }
+
+    //Completes once the entry is committed and applied.
+    //Entries appended while the singular update queue has other requests to process
+    //are written to the WAL and sent to the followers together.
+    private CompletableFuture<ExecuteCommandResponse> appendToLog(byte[] command) {
+        long index = wal.getLastLogIndex() + unflushedEntries.size() + 1;
+        unflushedEntries.add(new WALEntry(index, command, EntryType.DATA, currentTerm));
+        if (unflushedEntries.size() == 1) {
+            singularUpdateQueueExecutor.execute(this::flushAndReplicate);
+        }
+        var pendingCommand = new PendingCommand(currentTerm, new CompletableFuture<>());
+        pendingCommands.put(index, pendingCommand);
+        return pendingCommand.future;
+    }
+
+    private void flushAndReplicate() {
+        if (serverRole != ServerRole.LEADING || unflushedEntries.isEmpty()) {
+            return;
+        }
+        wal.writeEntries(unflushedEntries);
+        unflushedEntries = new ArrayList<>();
+        followers.forEach(this::replicateTo);
+        advanceCommitIndex();
+    }
+
+    //Sends the entries from nextIndex onwards, without waiting for the responses
+    //to the earlier requests, as long as the follower has less than maxInflightAppends requests pending.
+    private void replicateTo(InetAddressAndPort follower) {
+        var progress = followerProgress.get(follower);
+        long lastLogIndex = wal.getLastLogIndex();
+        while (progress.inflightAppends.size() < maxInflightAppends && progress.nextIndex <= lastLogIndex) {
+            List<LogEntry> entries = readEntries(progress.nextIndex, lastLogIndex);
+            sendAppendEntries(follower, progress.nextIndex - 1, entries);
+            progress.nextIndex += entries.size();
+            progress.inflightAppends.add(progress.nextIndex - 1);
+        }
+    }
+
+    private List<LogEntry> readEntries(long fromIndex, long lastLogIndex) {
+        long noOfEntries = Math.min(maxEntriesPerAppend, lastLogIndex - fromIndex + 1);
+        return wal.stream(fromIndex)
+                .limit(noOfEntries)
+                .map(entry -> new LogEntry(entry.getEntryIndex(), entry.getGeneration(), entry.getData()))
+                .collect(Collectors.toList());
+    }
+
+    private void sendAppendEntries(InetAddressAndPort follower, long prevLogIndex, List<LogEntry> entries) {
+        long prevLogTerm = prevLogIndex == 0 ? 0 : wal.readAt(prevLogIndex).getGeneration();
+        var request = new AppendEntriesRequest(currentTerm, prevLogIndex, prevLogTerm, entries, commitIndex);
+        sendOneway(follower, request, newCorrelationId());
+    }
+
+    //Heartbeats also carry the commitIndex, and detect the followers
+    //which missed the AppendEntries requests in flight.
+    @Override
+    protected void sendHeartbeats() {
+        singularUpdateQueueExecutor.execute(() -> {
+            if (serverRole != ServerRole.LEADING) {
+                return;
+            }
+            for (InetAddressAndPort follower : followers) {
+                sendAppendEntries(follower, followerProgress.get(follower).nextIndex - 1, Collections.emptyList());
+            }
+        });
+    }
+
+    private void handleAppendEntries(Message<AppendEntriesRequest> message) {
+        var request = message.messagePayload();
+        var leader = message.getFromAddress();
+        if (request.term < currentTerm) {
+            sendOneway(leader, new AppendEntriesResponse(currentTerm, false, wal.getLastLogIndex()), message.getCorrelationId());
+            return;
+        }
+        if (request.term > currentTerm || serverRole != ServerRole.FOLLOWING) {
+            becomeFollower(request.term);
+        }
+        markHeartbeatReceived();
+
+        long lastLogIndex = wal.getLastLogIndex();
+        if (request.prevLogIndex > lastLogIndex) {
+            sendOneway(leader, new AppendEntriesResponse(currentTerm, false, lastLogIndex), message.getCorrelationId());
+            return;
+        }
+        if (request.prevLogIndex > 0 && wal.readAt(request.prevLogIndex).getGeneration() != request.prevLogTerm) {
+            sendOneway(leader, new AppendEntriesResponse(currentTerm, false, request.prevLogIndex - 1), message.getCorrelationId());
+            return;
+        }
+        appendEntries(request.entries);
+
+        long lastNewIndex = request.prevLogIndex + request.entries.size();
+        if (request.leaderCommit > commitIndex) {
+            commitIndex = Math.max(commitIndex, Math.min(request.leaderCommit, lastNewIndex));
+            applyCommittedEntries();
+        }
+        sendOneway(leader, new AppendEntriesResponse(currentTerm, true, lastNewIndex), message.getCorrelationId());
+    }
+
+    //Entries already in the log are skipped, so that the retried AppendEntries requests are harmless.
+    //Conflicting entries were never committed, and are truncated along with all the entries after them.
+    private void appendEntries(List<LogEntry> entries) {
+        var newEntries = new ArrayList<WALEntry>();
+        long lastLogIndex = wal.getLastLogIndex();
+        for (LogEntry entry : entries) {
+            if (entry.index <= lastLogIndex) {
+                if (wal.readAt(entry.index).getGeneration() == entry.term) {
+                    continue;
+                }
+                logger.info(getName() + " truncating log from " + entry.index + " conflicting with term " + entry.term);
+                wal.truncate(entry.index);
+                lastLogIndex = entry.index - 1;
+            }
+            newEntries.add(new WALEntry(entry.index, entry.command, EntryType.DATA, entry.term));
+        }
+        wal.writeEntries(newEntries);
+    }
+
+    private void handleAppendEntriesResponse(Message<AppendEntriesResponse> message) {
+        var response = message.messagePayload();
+        if (response.term > currentTerm) {
+            becomeFollower(response.term);
+            return;
+        }
+        if (serverRole != ServerRole.LEADING || response.term < currentTerm) {
+            return;
+        }
+        var follower = message.getFromAddress();
+        var progress = followerProgress.get(follower);
+        if (response.success) {
+            progress.matchIndex = Math.max(progress.matchIndex, response.matchIndex);
+            while (!progress.inflightAppends.isEmpty() && progress.inflightAppends.peek() <= progress.matchIndex) {
+                progress.inflightAppends.poll();
+            }
+            advanceCommitIndex();
+        } else {
+            //The requests in flight will fail as well. Resend from the index the follower can match.
+            long followerMatchIndex = Math.min(response.matchIndex, progress.nextIndex - 1);
+            progress.nextIndex = Math.max(progress.matchIndex, followerMatchIndex) + 1;
+            progress.inflightAppends.clear();
+        }
+        replicateTo(follower);
+    }
+
+    //The highest index in the logs of a quorum is committed,
+    //only if it is from the current term. (Section 5.4.2)
+    private void advanceCommitIndex() {
+        var matchIndexes = new ArrayList<Long>();
+        matchIndexes.add(wal.getLastLogIndex());
+        followerProgress.values().forEach(progress -> matchIndexes.add(progress.matchIndex));
+        matchIndexes.sort(Comparator.reverseOrder());
+        long quorumMatchIndex = matchIndexes.get(majorityQuorum() - 1);
+        if (quorumMatchIndex > commitIndex && wal.readAt(quorumMatchIndex).getGeneration() == currentTerm) {
+            commitIndex = quorumMatchIndex;
+            applyCommittedEntries();
+        }
+    }
+
+    private void applyCommittedEntries() {
+        if (lastApplied >= commitIndex) {
+            return;
+        }
+        wal.stream(lastApplied + 1)
+                .limit(commitIndex - lastApplied)
+                .collect(Collectors.toList())
+                .forEach(this::apply);
+    }
+
+    private void apply(WALEntry entry) {
+        var response = new ExecuteCommandResponse(Optional.empty(), true);
+        Command command = Command.deserialize(entry.getData());
+        if (command instanceof SetValueCommand setValueCommand) {
+            kv.put(setValueCommand.getKey(), setValueCommand.getValue());
+            response = new ExecuteCommandResponse(Optional.of(setValueCommand.getValue()), true);
+        }
+        lastApplied = entry.getEntryIndex();
+        var pendingCommand = pendingCommands.remove(lastApplied);
+        if (pendingCommand == null) {
+            return;
+        }
+        if (pendingCommand.term == entry.getGeneration()) {
+            pendingCommand.future.complete(response);
+        } else {
+            pendingCommand.future.completeExceptionally(new RuntimeException("Log entry " + lastApplied + " overwritten by a leader of term " + entry.getGeneration()));
+        }
+    }
+
+    public String getValue(String key) {
+        return kv.get(key);
+    }
+
+    public boolean isLeader() {
+        return serverRole == ServerRole.LEADING;
+    }
 
+    public boolean isFollower() {
+        return serverRole == ServerRole.FOLLOWING;
     }
 }
@@ -0,0 +1,60 @@
+package replicate.raft.messages;
+
+import replicate.common.MessageId;
+import replicate.common.MessagePayload;
+import replicate.common.PayloadCodec;
+import replicate.common.PayloadCodecs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//Heartbeats are AppendEntries requests without any entries.
+public class AppendEntriesRequest extends MessagePayload {
+    public final long term;
+    public final long prevLogIndex;
+    public final long prevLogTerm;
+    public final List<LogEntry> entries;
+    public final long leaderCommit;
+
+    public AppendEntriesRequest(long term, long prevLogIndex, long prevLogTerm, List<LogEntry> entries, long leaderCommit) {
+        super(MessageId.ReplicationRequest);
+        this.term = term;
+        this.prevLogIndex = prevLogIndex;
+        this.prevLogTerm = prevLogTerm;
+        this.entries = entries;
+        this.leaderCommit = leaderCommit;
+    }
+
+    public static final PayloadCodec<AppendEntriesRequest> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(AppendEntriesRequest request, DataOutputStream os) throws IOException {
+            os.writeLong(request.term);
+            os.writeLong(request.prevLogIndex);
+            os.writeLong(request.prevLogTerm);
+            os.writeLong(request.leaderCommit);
+            os.writeInt(request.entries.size());
+            for (LogEntry entry : request.entries) {
+                os.writeLong(entry.index);
+                os.writeLong(entry.term);
+                PayloadCodecs.writeBytes(os, entry.command);
+            }
+        }
+
+        @Override
+        public AppendEntriesRequest decode(DataInputStream is) throws IOException {
+            long term = is.readLong();
+            long prevLogIndex = is.readLong();
+            long prevLogTerm = is.readLong();
+            long leaderCommit = is.readLong();
+            int noOfEntries = is.readInt();
+            var entries = new ArrayList<LogEntry>(noOfEntries);
+            for (int i = 0; i < noOfEntries; i++) {
+                entries.add(new LogEntry(is.readLong(), is.readLong(), PayloadCodecs.readBytes(is)));
+            }
+            return new AppendEntriesRequest(term, prevLogIndex, prevLogTerm, entries, leaderCommit);
+        }
+    };
+}
@@ -0,0 +1,38 @@
+package replicate.raft.messages;
+
+import replicate.common.MessageId;
+import replicate.common.MessagePayload;
+import replicate.common.PayloadCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class AppendEntriesResponse extends MessagePayload {
+    public final long term;
+    public final boolean success;
+    //On success, the index of the last entry in the request.
+    //On failure, the last index upto which the follower's log can match the leader's.
+    public final long matchIndex;
+
+    public AppendEntriesResponse(long term, boolean success, long matchIndex) {
+        super(MessageId.ReplicationResponse);
+        this.term = term;
+        this.success = success;
+        this.matchIndex = matchIndex;
+    }
+
+    public static final PayloadCodec<AppendEntriesResponse> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(AppendEntriesResponse response, DataOutputStream os) throws IOException {
+            os.writeLong(response.term);
+            os.writeBoolean(response.success);
+            os.writeLong(response.matchIndex);
+        }
+
+        @Override
+        public AppendEntriesResponse decode(DataInputStream is) throws IOException {
+            return new AppendEntriesResponse(is.readLong(), is.readBoolean(), is.readLong());
+        }
+    };
+}
@@ -0,0 +1,13 @@
+package replicate.raft.messages;
+
+public class LogEntry {
+    public final long index;
+    public final long term;
+    public final byte[] command;
+
+    public LogEntry(long index, long term, byte[] command) {
+        this.index = index;
+        this.term = term;
+        this.command = command;
+    }
+}
@@ -0,0 +1,17 @@
+package replicate.raft.messages;
+
+import replicate.common.MessageId;
+import replicate.common.MessagePayload;
+
+public class RequestVoteRequest extends MessagePayload {
+    public final long term;
+    public final long lastLogIndex;
+    public final long lastLogTerm;
+
+    public RequestVoteRequest(long term, long lastLogIndex, long lastLogTerm) {
+        super(MessageId.VoteRequest);
+        this.term = term;
+        this.lastLogIndex = lastLogIndex;
+        this.lastLogTerm = lastLogTerm;
+    }
+}
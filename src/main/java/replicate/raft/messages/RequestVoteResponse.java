@@ -0,0 +1,15 @@
+package replicate.raft.messages;
+
+import replicate.common.MessageId;
+import replicate.common.MessagePayload;
+
+public class RequestVoteResponse extends MessagePayload {
+    public final long term;
+    public final boolean voteGranted;
+
+    public RequestVoteResponse(long term, boolean voteGranted) {
+        super(MessageId.VoteResponse);
+        this.term = term;
+        this.voteGranted = voteGranted;
+    }
+}
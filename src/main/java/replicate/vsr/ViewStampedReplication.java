@@ -5,6 +5,8 @@ import org.apache.logging.log4j.Logger;
 import replicate.common.*;
 import replicate.net.InetAddressAndPort;
 import replicate.net.requestwaitinglist.RequestWaitingList;
+import replicate.paxos.messages.GetValueResponse;
+import replicate.quorum.messages.GetValueRequest;
 import replicate.twophaseexecution.CompareAndSwap;
 import replicate.twophaseexecution.messages.ExecuteCommandRequest;
 import replicate.twophaseexecution.messages.ExecuteCommandResponse;
@@ -14,13 +16,21 @@ import replicate.wal.SetValueCommand;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
 
 public class ViewStampedReplication extends Replica {
     private static final Logger logger = LogManager.getLogger(ViewStampedReplication.class);
 
+    //Backups learn the commitNumber from the next Prepare, or from the heartbeat
+    //when there are no new client requests.
     @Override
     protected void sendHeartbeats() {
         logger.info(getName() + " sending heartbeat message");
@@ -46,12 +56,13 @@ public class ViewStampedReplication extends Replica {
 
     private void resetMessageCounters() {
         startViewChangeCounter = 0;
-        doViewChangeCounter = 0;
+        doViewChangeMessages = new HashMap<>();
     }
 
     private void transitionToViewChange() {
         logger.info(getName() + " Triggering view change from view " + viewNumber + " to " + (viewNumber + 1));
         heartBeatScheduler.stop();
+        failPendingReads();
         this.status = Status.ViewChange;
         viewNumber = viewNumber + 1;
         sendOnewayMessageToReplicas(new StartViewChange(MessageId.StartViewChange, viewNumber, getReplicaIndex()));
@@ -65,6 +76,18 @@ public class ViewStampedReplication extends Replica {
         return viewNumber;
     }
 
+    public int getOpNumber() {
+        return opNumber;
+    }
+
+    int getViewConfirmationRounds() {
+        return viewConfirmationRounds.get();
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
     static enum Status {
         Normal,ViewChange,Recovering
     }
@@ -77,16 +100,56 @@ public class ViewStampedReplication extends Replica {
     private int opNumber = 0;
     private int commitNumber = 0;
     private int startViewChangeCounter;
-    private int doViewChangeCounter;
 
     private int normalStatusViewNumber = viewNumber;
 
     private RequestWaitingList pendingRquests;
 
+    //Client requests are prepared in batches of upto maxOpsPerPrepare ops.
+    //Accessed only from the singularUpdateQueue thread.
+    private final int maxOpsPerPrepare;
+    private final long prepareBatchDelayNs;
+    private int lastPreparedOpNumber = 0;
+    private ScheduledFuture<?> prepareBatchTimeout;
+    //Highest op number each backup has acknowledged, by replica index.
+    private Map<Integer, Integer> backupOpNumbers = new HashMap<>();
+
+    //The log upto checkpoint.opNumber is truncated, and its ops are applied in the checkpoint kv.
+    private Checkpoint checkpoint = new Checkpoint(0, 0, Map.of());
+    private final int opsBetweenCheckpoints;
+
+    //State transfer to lagging backups. NewState messages are sent in slots of stateTransferIntervalNs,
+    //so that catch-up traffic does not starve the Prepares.
+    private final int maxOpsPerStateTransfer;
+    private final long stateTransferIntervalNs;
+    private long nextStateTransferSlotNs = 0;
+    //A backup has a single GetState outstanding. It is sent again if there is no NewState in heartbeatTimeout.
+    private boolean awaitingNewState = false;
+    private long getStateSentAtNs;
+
+    //ReadIndex reads. A read is answered once a quorum confirms this replica is still the primary,
+    //and the ops committed before the read arrived are applied. Reads arriving while a
+    //confirmation round is in flight share the next round.
+    record PendingRead(String key, int readIndex, CompletableFuture<GetValueResponse> future) {
+    }
+    private List<PendingRead> readsForNextRound = new ArrayList<>();
+    private boolean confirmingView = false;
+    //Read from the tests, to check that concurrent reads share the confirmation rounds.
+    private final AtomicInteger viewConfirmationRounds = new AtomicInteger();
+    private final Deque<PendingRead> readsWaitingForApply = new ArrayDeque<>();
+    //The log of the new primary has all the ops committed in the earlier views, but they might be
+    //committed here only after the view starts. Reads wait till those are applied.
+    private int viewStartOpNumber = 0;
+
     public ViewStampedReplication(String name, Config config, SystemClock clock, InetAddressAndPort clientConnectionAddress, InetAddressAndPort peerConnectionAddress, List<InetAddressAndPort> peerAddresses) throws IOException {
         super(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses);
         this.configuration = new Configuration(peerAddresses);
         pendingRquests = new RequestWaitingList(clock, Duration.ofMillis(1000));
+        this.maxOpsPerPrepare = config.getMaxCommandsPerBatch();
+        this.prepareBatchDelayNs = config.getCommandBatchDelayNs();
+        this.opsBetweenCheckpoints = config.getOpsBetweenLogCheckpoints();
+        this.maxOpsPerStateTransfer = config.getMaxOpsPerStateTransfer();
+        this.stateTransferIntervalNs = TimeUnit.SECONDS.toNanos(1) / config.getMaxStateTransfersPerSecond();
     }
 
     @Override
@@ -102,29 +165,265 @@ public class ViewStampedReplication extends Replica {
     protected void registerHandlers() {
         //client interface rpc
         handlesRequestAsync(MessageId.ExcuteCommandRequest, this::handleClientRequest, ExecuteCommandRequest.class);
+        handlesRequestAsync(MessageId.GetValueRequest, this::handleClientGetValueRequest, GetValueRequest.class);
 
         //peers communicate by message passing.
-        handlesMessage(MessageId.Prepare, this::handlePrepare, Prepare.class);
-        handlesMessage(MessageId.PrepareOK, this::handlePrepareOk, PrepareOK.class);
-        handlesMessage(MessageId.Commit, this::handleCommit, Commit.class);
+        handlesMessage(MessageId.Prepare, this::handlePrepare, Prepare.class, Prepare.CODEC);
+        handlesMessage(MessageId.PrepareOK, this::handlePrepareOk, PrepareOK.class, PrepareOK.CODEC);
+        handlesMessage(MessageId.Commit, this::handleCommit, Commit.class, Commit.CODEC);
         handlesMessage(MessageId.StartViewChange, this::handleStartViewChange, StartViewChange.class);
         handlesMessage(MessageId.DoViewChange, this::handleDoViewChange, DoViewChange.class);
         handlesMessage(MessageId.StartView, this::handleStartView, StartView.class);
+        handlesMessage(MessageId.GetState, this::handleGetState, GetState.class);
+        handlesMessage(MessageId.NewState, this::handleNewState, NewState.class);
+        handlesMessage(MessageId.ConfirmView, this::handleConfirmView, ConfirmView.class);
+        handlesMessage(MessageId.ConfirmViewResponse, this::handleConfirmViewResponse, ConfirmViewResponse.class);
+    }
+
+    private CompletableFuture<GetValueResponse> handleClientGetValueRequest(GetValueRequest request) {
+        if (!isPrimary() || status != Status.Normal) {
+            return CompletableFuture.failedFuture(new RuntimeException("Not processing as the request is sent to backup."));
+        }
+        var read = new PendingRead(request.getKey(), Math.max(commitNumber, viewStartOpNumber), new CompletableFuture<>());
+        readsForNextRound.add(read);
+        if (!confirmingView) {
+            confirmViewForReads();
+        }
+        return read.future();
+    }
+
+    private void confirmViewForReads() {
+        var reads = readsForNextRound;
+        readsForNextRound = new ArrayList<>();
+        confirmingView = true;
+        viewConfirmationRounds.incrementAndGet();
+        int roundViewNumber = viewNumber;
+        var callback = new AsyncQuorumCallback<ConfirmViewResponse>(getNoOfReplicas(), r -> r.inView);
+        sendMessageToReplicas(callback, MessageId.ConfirmView, new ConfirmView(roundViewNumber));
+        callback.getQuorumFuture().whenCompleteAsync((responses, e) -> {
+            confirmingView = false;
+            if (e != null || roundViewNumber != viewNumber || status != Status.Normal) {
+                failReads(reads);
+            } else {
+                readsWaitingForApply.addAll(reads);
+                completeAppliedReads();
+            }
+            if (!readsForNextRound.isEmpty()) {
+                confirmViewForReads();
+            }
+        }, singularUpdateQueueExecutor);
+    }
+
+    //Read indexes do not decrease within a view, so the reads are completed in order.
+    private void completeAppliedReads() {
+        while (!readsWaitingForApply.isEmpty() && readsWaitingForApply.peek().readIndex() <= commitNumber) {
+            var read = readsWaitingForApply.poll();
+            read.future().complete(new GetValueResponse(Optional.ofNullable(kv.get(read.key()))));
+        }
+    }
+
+    private void failPendingReads() {
+        failReads(readsForNextRound);
+        readsForNextRound = new ArrayList<>();
+        failReads(readsWaitingForApply);
+        readsWaitingForApply.clear();
+    }
+
+    private void failReads(Collection<PendingRead> reads) {
+        var e = new RuntimeException("Could not confirm " + getName() + " is the primary for view " + viewNumber);
+        reads.forEach(read -> read.future().completeExceptionally(e));
+    }
+
+    private void handleConfirmView(Message<ConfirmView> message) {
+        var confirmView = message.messagePayload();
+        if (isFromUnstartedView(confirmView.viewNumber)) {
+            startViewWithStateTransfer(confirmView.viewNumber);
+        }
+        boolean inView = confirmView.viewNumber == viewNumber && status == Status.Normal;
+        sendOneway(message.getFromAddress(), new ConfirmViewResponse(viewNumber, inView), message.getCorrelationId());
+    }
+
+    private void handleConfirmViewResponse(Message<ConfirmViewResponse> message) {
+        handleResponse(message);
     }
 
     private void handleStartView(Message<StartView> message) {
         var startView = message.messagePayload();
-        logger.info(getName()  + " starting view " + this.viewNumber);
-        this.log = startView.log;
-        this.opNumber = startView.opNumber;
-        this.commitNumber = startView.commitNumber;
+        if (startView.viewNumber < this.viewNumber) {
+            return;
+        }
+        logger.info(getName()  + " starting view " + startView.viewNumber);
+        int lastMatchingOpNumber = startView.firstOpNumber() - 1;
+        if (lastMatchingOpNumber <= opNumber && fingerprintAt(lastMatchingOpNumber) == startView.previousFingerprint) {
+            replaceOpsAfter(lastMatchingOpNumber, startView.ops);
+        } else {
+            logger.warn(getName() + " missing ops before " + startView.firstOpNumber() + " in view " + startView.viewNumber);
+            replaceOpsAfter(commitNumber, Collections.emptyList());
+        }
+        startNormalViewAsBackup(startView.viewNumber);
+        commitUpto(startView.commitNumber);
+        //the new primary commits the uncommitted ops once a quorum has them.
+        sendOneway(message.getFromAddress(), new PrepareOK(this.viewNumber, this.opNumber, getReplicaIndex(), true), message.getCorrelationId());
+        if (opNumber < startView.opNumber) {
+            requestState();
+        }
+    }
+
+    private void startNormalViewAsBackup(int viewNumber) {
+        this.viewNumber = viewNumber;
         this.status = Status.Normal;
         this.normalStatusViewNumber = viewNumber;
+        this.awaitingNewState = false;
         this.heartBeatScheduler.stop();
-        this.heartbeatChecker.start();
+        this.heartbeatChecker.restart();
+    }
+
+    //A Prepare or Commit from the primary of a view this replica has not started means it missed the StartView.
+    //The ops after the commitNumber might not be in the new view, so they are removed, and fetched again from the new primary.
+    private boolean isFromUnstartedView(int messageViewNumber) {
+        return messageViewNumber > viewNumber || (messageViewNumber == viewNumber && status == Status.ViewChange);
+    }
+
+    private void startViewWithStateTransfer(int viewNumber) {
+        logger.info(getName() + " missed the StartView for view " + viewNumber + ". Fetching the log from the primary");
+        replaceOpsAfter(commitNumber, Collections.emptyList());
+        startNormalViewAsBackup(viewNumber);
+        requestState();
+    }
+
+    private void requestState() {
+        if (status != Status.Normal || isPrimary()) {
+            return;
+        }
+        if (awaitingNewState && clock.nanoTime() - getStateSentAtNs < heartbeatTimeout.toNanos()) {
+            return;
+        }
+        awaitingNewState = true;
+        getStateSentAtNs = clock.nanoTime();
+        logger.info(getName() + " requesting state after op " + opNumber + " in view " + viewNumber);
+        sendOneway(getPrimaryAddress(), new GetState(viewNumber, opNumber), newCorrelationId());
+    }
+
+    private void handleGetState(Message<GetState> message) {
+        var getState = message.messagePayload();
+        if (getState.viewNumber == viewNumber && status == Status.ViewChange && isPrimaryForView(viewNumber, message.getFromAddress())) {
+            //the new primary misses ops committed in the log of this replica, and needs them to start the view.
+            sendNewState(message.getFromAddress(), getState.opNumber, commitNumber);
+            return;
+        }
+        if (getState.viewNumber != viewNumber || status != Status.Normal || !isPrimary()) {
+            return;
+        }
+        //Each NewState takes the next free slot. The chunk is read when the slot comes,
+        //so it has the ops appended while the request waited.
+        long now = clock.nanoTime();
+        long sendAtNs = Math.max(now, nextStateTransferSlotNs);
+        nextStateTransferSlotNs = sendAtNs + stateTransferIntervalNs;
+        Runnable sendNewState = () -> {
+            if (getState.viewNumber == viewNumber && isPrimary()) {
+                sendNewState(message.getFromAddress(), getState.opNumber, opNumber);
+            }
+        };
+        if (sendAtNs == now) {
+            sendNewState.run();
+        } else {
+            singularUpdateQueueExecutor.schedule(sendNewState, sendAtNs - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    //Sends the next chunk of ops after afterOpNumber, upto uptoOpNumber.
+    private void sendNewState(InetAddressAndPort replica, int afterOpNumber, int uptoOpNumber) {
+        int lastSentOpNumber = Math.min(afterOpNumber, uptoOpNumber);
+        Checkpoint sentCheckpoint = null;
+        if (lastSentOpNumber < checkpoint.opNumber) {
+            sentCheckpoint = checkpoint;
+            lastSentOpNumber = checkpoint.opNumber;
+        }
+        int lastOpNumber = Math.min(uptoOpNumber, lastSentOpNumber + maxOpsPerStateTransfer);
+        var ops = new ArrayList<LogEntry>(lastOpNumber - lastSentOpNumber);
+        for (int i = lastSentOpNumber + 1; i <= lastOpNumber; i++) {
+            ops.add(log.get(i));
+        }
+        sendOneway(replica, new NewState(viewNumber, sentCheckpoint, ops, fingerprintAt(lastSentOpNumber), lastOpNumber, commitNumber, opNumber), newCorrelationId());
+    }
+
+    private void handleNewState(Message<NewState> message) {
+        var newState = message.messagePayload();
+        if ((status == Status.ViewChange || newState.viewNumber > viewNumber) && isPrimaryForView(newState.viewNumber, getPeerConnectionAddress())) {
+            handleCommittedOpsForView(newState);
+            return;
+        }
+        if (newState.viewNumber != viewNumber || status != Status.Normal || isPrimary()) {
+            return;
+        }
+        awaitingNewState = false;
+        if (newState.checkpoint != null && newState.checkpoint.opNumber > commitNumber) {
+            installCheckpoint(newState.checkpoint);
+        }
+        int lastMatchingOpNumber = newState.firstOpNumber() - 1;
+        if (lastMatchingOpNumber > opNumber || fingerprintAt(lastMatchingOpNumber) != newState.previousFingerprint) {
+            logger.warn(getName() + " NewState does not follow the log at op " + lastMatchingOpNumber + ". Requesting state after the committed ops");
+            replaceOpsAfter(commitNumber, Collections.emptyList());
+            requestState();
+            return;
+        }
+        for (int i = 0; i < newState.ops.size(); i++) {
+            int op = lastMatchingOpNumber + 1 + i;
+            var entry = newState.ops.get(i);
+            if (op <= opNumber && fingerprintAt(op) == entry.fingerprint) {
+                continue;
+            }
+            replaceOpsAfter(op - 1, List.of(entry));
+        }
+        commitUpto(newState.commitNumber);
+        sendOneway(message.getFromAddress(), new PrepareOK(this.viewNumber, this.opNumber, getReplicaIndex(), true), message.getCorrelationId());
+        if (opNumber < newState.primaryOpNumber) {
+            requestState();
+        }
+    }
+
+    //The ops are committed in the log of the selected DoViewChange, so they are applied as they are added.
+    private void handleCommittedOpsForView(NewState newState) {
+        if (doViewChangeMessagesFor(newState.viewNumber).size() < majorityQuorum()) {
+            return;
+        }
+        if (newState.checkpoint != null && newState.checkpoint.opNumber > commitNumber) {
+            installCheckpoint(newState.checkpoint);
+        }
+        int lastMatchingOpNumber = newState.firstOpNumber() - 1;
+        if (lastMatchingOpNumber != commitNumber || fingerprintAt(lastMatchingOpNumber) != newState.previousFingerprint) {
+            logger.warn(getName() + " ignoring NewState after op " + lastMatchingOpNumber + " as it does not follow the committed ops upto " + commitNumber);
+            return;
+        }
+        replaceOpsAfter(commitNumber, newState.ops);
+        commitUpto(newState.opNumber);
+        startView(newState.viewNumber);
+    }
+
+    private void installCheckpoint(Checkpoint newCheckpoint) {
+        logger.info(getName() + " installing checkpoint at op " + newCheckpoint.opNumber);
+        log.clear();
+        kv = new HashMap<>(newCheckpoint.kv);
+        checkpoint = newCheckpoint;
+        opNumber = newCheckpoint.opNumber;
+        commitNumber = newCheckpoint.opNumber;
+    }
+
+    //The clients waiting for the removed ops are failed, as a different op can be committed with the same op number.
+    private void replaceOpsAfter(int lastOpNumber, List<LogEntry> ops) {
+        for (int i = lastOpNumber + 1; i <= opNumber; i++) {
+            log.remove(i);
+            pendingRquests.handleError(i, new RuntimeException("Op " + i + " is removed in a view change"));
+        }
+        opNumber = lastOpNumber;
+        for (LogEntry op : ops) {
+            opNumber = opNumber + 1;
+            log.put(opNumber, op);
+        }
     }
 
-    List<DoViewChange> doViewChangeMessages = new ArrayList<>();
+    //DoViewChange messages for the view being started, by the sender.
+    Map<InetAddressAndPort, DoViewChange> doViewChangeMessages = new HashMap<>();
 
     private void handleDoViewChange(Message<DoViewChange> message) {
         var doViewChange = message.messagePayload();
@@ -132,31 +431,110 @@ public class ViewStampedReplication extends Replica {
             return;
         }
         logger.info(getName() + " Received DoViewChange from " + message.getFromAddress() + " for view " + doViewChange.viewNumber);
-        doViewChangeCounter++;
-        doViewChangeMessages.add(doViewChange);
-        if (doViewChangeCounter == majorityQuorum()) {
-            logger.info("");
-            DoViewChange selectedViewChange = pickViewChangeMessageWithHighestNormalViewnumber(doViewChangeMessages);
-            this.log = selectedViewChange.log;
-            this.opNumber = selectedViewChange.opNumber;
-            this.commitNumber = maxCommitNumber(doViewChangeMessages);
-            this.status = Status.Normal;
-            this.viewNumber = doViewChange.viewNumber;
-            this.normalStatusViewNumber = doViewChange.viewNumber;
-            heartbeatChecker.stop();
-            heartBeatScheduler.start();
-            logger.info(getName() + " DoViewChange quorum reached. Starting view " + this.viewNumber);
-            sendOnewayMessageToOtherReplicas(new StartView(this.log, this.opNumber, this.commitNumber));
-        }
-    }
-
-    private int maxCommitNumber(List<DoViewChange> doViewChangeMessages) {
+        if (status == Status.Normal && viewNumber == doViewChange.viewNumber && isPrimary()) {
+            //the view has started already with the quorum of DoViewChange messages.
+            //The DoViewChange of the primary itself needs no StartView.
+            if (!message.getFromAddress().equals(getPeerConnectionAddress())) {
+                sendStartView(message.getFromAddress(), lastMatchingOpNumber(doViewChange));
+            }
+            return;
+        }
+        doViewChangeMessages.put(message.getFromAddress(), doViewChange);
+        if (doViewChangeMessagesFor(doViewChange.viewNumber).size() == majorityQuorum()) {
+            startView(doViewChange.viewNumber);
+        }
+    }
+
+    private Map<InetAddressAndPort, DoViewChange> doViewChangeMessagesFor(int viewNumber) {
+        return doViewChangeMessages.entrySet().stream()
+                .filter(e -> e.getValue().viewNumber == viewNumber)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    //If this replica misses ops committed in the selected log, the view starts only after
+    //they are fetched from the sender of the selected DoViewChange.
+    private void startView(int newViewNumber) {
+        var messagesForView = doViewChangeMessagesFor(newViewNumber);
+        InetAddressAndPort selectedSender = pickViewChangeSenderWithHighestNormalViewnumber(messagesForView);
+        DoViewChange selectedViewChange = messagesForView.get(selectedSender);
+        if (!adoptLog(selectedViewChange)) {
+            logger.info(getName() + " fetching committed ops after " + commitNumber + " upto " + selectedViewChange.commitNumber + " from " + selectedSender + " to start view " + newViewNumber);
+            sendOneway(selectedSender, new GetState(newViewNumber, commitNumber), newCorrelationId());
+            return;
+        }
+        this.status = Status.Normal;
+        this.viewNumber = newViewNumber;
+        this.normalStatusViewNumber = newViewNumber;
+        this.lastPreparedOpNumber = this.opNumber;
+        this.viewStartOpNumber = this.opNumber;
+        this.backupOpNumbers = new HashMap<>();
+        heartbeatChecker.stop();
+        heartBeatScheduler.restart();
+        logger.info(getName() + " DoViewChange quorum reached. Starting view " + this.viewNumber);
+        commitUpto(maxCommitNumber(messagesForView.values()));
+        sendStartViewToBackups();
+    }
+
+    //The ops upto the commitNumber of the selected log are committed, and the same in every log.
+    //The new primary has those already, so only the uncommitted ops are taken from the selected log.
+    //Returns false if this replica misses some of the committed ops of the selected log.
+    private boolean adoptLog(DoViewChange selected) {
+        if (selected.commitNumber < commitNumber) {
+            //the selected log has all the ops committed here, and they might be truncated from this log.
+            int alreadyCommitted = Math.min(commitNumber - selected.commitNumber, selected.uncommittedOps.size());
+            replaceOpsAfter(commitNumber, selected.uncommittedOps.subList(alreadyCommitted, selected.uncommittedOps.size()));
+            return true;
+        }
+        if (selected.commitNumber > opNumber || fingerprintAt(selected.commitNumber) != selected.commitFingerprint) {
+            return false;
+        }
+        replaceOpsAfter(selected.commitNumber, selected.uncommittedOps);
+        return true;
+    }
+
+    //Each backup gets only the ops after the last op in its log which matches the new log.
+    private void sendStartViewToBackups() {
+        var messagesForView = doViewChangeMessagesFor(viewNumber);
+        //backups which did not send a DoViewChange have at least the ops committed in all the DoViewChange logs.
+        int minCommitNumber = messagesForView.values().stream().mapToInt(d -> d.commitNumber).min().orElse(commitNumber);
+        for (InetAddressAndPort replica : configuration.sortedReplicaAddresses) {
+            if (replica.equals(getPeerConnectionAddress())) {
+                continue;
+            }
+            var doViewChange = messagesForView.get(replica);
+            sendStartView(replica, doViewChange == null ? minCommitNumber : lastMatchingOpNumber(doViewChange));
+        }
+    }
+
+    private int lastMatchingOpNumber(DoViewChange doViewChange) {
+        int lastMatchingOpNumber = Math.min(doViewChange.commitNumber, opNumber);
+        for (LogEntry uncommittedOp : doViewChange.uncommittedOps) {
+            int op = lastMatchingOpNumber + 1;
+            if (op > opNumber || fingerprintAt(op) != uncommittedOp.fingerprint) {
+                break;
+            }
+            lastMatchingOpNumber = op;
+        }
+        return lastMatchingOpNumber;
+    }
+
+    private void sendStartView(InetAddressAndPort backup, int lastMatchingOpNumber) {
+        //a backup missing the ops before the checkpoint fetches the checkpoint with state transfer.
+        lastMatchingOpNumber = Math.max(lastMatchingOpNumber, checkpoint.opNumber);
+        var ops = new ArrayList<LogEntry>(opNumber - lastMatchingOpNumber);
+        for (int i = lastMatchingOpNumber + 1; i <= opNumber; i++) {
+            ops.add(log.get(i));
+        }
+        sendOneway(backup, new StartView(viewNumber, ops, fingerprintAt(lastMatchingOpNumber), opNumber, commitNumber), newCorrelationId());
+    }
+
+    private int maxCommitNumber(Collection<DoViewChange> doViewChangeMessages) {
         return doViewChangeMessages.stream().map(d -> d.commitNumber).max(Comparator.comparingInt(c -> c)).orElse(0);
     }
 
-    private DoViewChange pickViewChangeMessageWithHighestNormalViewnumber(List<DoViewChange> doViewChangeMessages) {
-        return doViewChangeMessages.stream().max(Comparator.comparingInt((DoViewChange d) -> d.normalStatusViewNumber)
-                .thenComparingInt(d -> d.opNumber)).get();
+    private InetAddressAndPort pickViewChangeSenderWithHighestNormalViewnumber(Map<InetAddressAndPort, DoViewChange> doViewChangeMessages) {
+        return doViewChangeMessages.entrySet().stream().max(Map.Entry.comparingByValue(Comparator.comparingInt((DoViewChange d) -> d.normalStatusViewNumber)
+                .thenComparingInt(d -> d.opNumber))).get().getKey();
     }
 
     private void handleStartViewChange(Message<StartViewChange> message) {
@@ -168,40 +546,77 @@ public class ViewStampedReplication extends Replica {
         if (startViewChangeCounter == majorityQuorum()) {
             InetAddressAndPort primaryForView = configuration.getPrimaryForView(viewNumber);
             logger.info(getName() + " StartViewChange quorum reached." + primaryForView + " is the new primary." + " Sending DoViewChange");
-            sendOneway(primaryForView, new DoViewChange(viewNumber, log, normalStatusViewNumber, opNumber, commitNumber), message.getCorrelationId());
+            sendOneway(primaryForView, new DoViewChange(viewNumber, uncommittedOps(), normalStatusViewNumber, opNumber, commitNumber, fingerprintAt(commitNumber)), message.getCorrelationId());
+        }
+    }
+
+    private List<LogEntry> uncommittedOps() {
+        var ops = new ArrayList<LogEntry>(opNumber - commitNumber);
+        for (int i = commitNumber + 1; i <= opNumber; i++) {
+            ops.add(log.get(i));
         }
+        return ops;
     }
 
     private void handleCommit(Message<Commit> message) {
         var commit = message.messagePayload();
         logger.info(getName() + " Handling commit/heartbeat request from " + message.getFromAddress() + " at " + super.clock.now());
         markHeartbeatReceived();
-        //TODO: if missing log entries upto commitNumber, initiate state change
-        if (commit.viewNumber == this.viewNumber && this.commitNumber < commit.commitNumber) {
-            this.commitNumber = commit.commitNumber;
-            applyEntryAt(commitNumber);
+        if (isFromUnstartedView(commit.viewNumber)) {
+            startViewWithStateTransfer(commit.viewNumber);
+            return;
+        }
+        if (commit.viewNumber == this.viewNumber) {
+            commitUpto(commit.commitNumber);
+            if (commit.commitNumber > opNumber) {
+                requestState();
+            }
         }
     }
 
+    //Ops after opNumber are not in the log yet. They are committed when they are prepared or fetched with state transfer.
+    private void commitUpto(int primaryCommitNumber) {
+        int committableOpNumber = Math.min(primaryCommitNumber, opNumber);
+        while (commitNumber < committableOpNumber) {
+            //commitNumber moves past the op only once it is applied, so a failed apply is not counted as committed.
+            applyEntryAt(commitNumber + 1);
+            commitNumber = commitNumber + 1;
+        }
+        if (opsBetweenCheckpoints > 0 && commitNumber - checkpoint.opNumber >= opsBetweenCheckpoints) {
+            takeCheckpoint();
+        }
+        completeAppliedReads();
+    }
+
+    private void takeCheckpoint() {
+        for (int i = checkpoint.opNumber + 1; i < commitNumber; i++) {
+            log.remove(i);
+        }
+        checkpoint = new Checkpoint(commitNumber, fingerprintAt(commitNumber), new HashMap<>(kv));
+        log.remove(commitNumber);
+        logger.info(getName() + " took checkpoint at op " + commitNumber);
+    }
+
+    //PrepareOKs are cumulative, so a single PrepareOK can commit multiple ops.
+    //There is no separate Commit message. The commitNumber is sent with the next Prepare or heartbeat.
     private void handlePrepareOk(Message<PrepareOK> message) {
         var prepareOK = message.messagePayload();
-        LogEntry logEntry = log.get(prepareOK.opNumber);
-        logEntry.prepareOK();
+        if (prepareOK.viewNumber != viewNumber || !isPrimary()) {
+            return;
+        }
+        backupOpNumbers.merge(prepareOK.replicaIndex, prepareOK.opNumber, Math::max);
         maybeIncrementCommitNumberAndApply();
-        sendOnewayMessageToOtherReplicas(new Commit(viewNumber, commitNumber));
     }
 
-    //0, 1, 2
+    //An op is committed once the primary and enough backups to form a quorum have prepared it.
     void maybeIncrementCommitNumberAndApply() {
-        //from last commit number to the entry which is quorum accepted.
-        for (int i = commitNumber + 1; i <= log.size(); i++) {
-            LogEntry logEntry = log.get(i);
-            if (logEntry == null || !logEntry.isQuorumAccepted(majorityQuorum())) {
-                break;
-            }
-            commitNumber = i;
-            applyEntryAt(commitNumber);
+        var preparedOpNumbers = new ArrayList<Integer>(backupOpNumbers.values());
+        preparedOpNumbers.add(opNumber);
+        if (preparedOpNumbers.size() < majorityQuorum()) {
+            return;
         }
+        preparedOpNumbers.sort(Comparator.reverseOrder());
+        commitUpto(preparedOpNumbers.get(majorityQuorum() - 1));
     }
 
     Map<String, String> kv = new HashMap<>();
@@ -209,7 +624,7 @@ public class ViewStampedReplication extends Replica {
         logger.info(getName() + " Handling commit " + commitNumber);
         LogEntry logEntry = log.get(commitNumber);
         if (logEntry == null) {
-            return;
+            throw new IllegalStateException(getName() + " has no op " + commitNumber + " to apply");
         }
         ExecuteCommandRequest request = logEntry.request;
         Command command = Command.deserialize(new ByteArrayInputStream(request.command));
@@ -232,43 +647,116 @@ public class ViewStampedReplication extends Replica {
 
     public static class LogEntry {
         public final ExecuteCommandRequest request;
-        public LogEntry(ExecuteCommandRequest request) {
+        //view in which the primary assigned the op number.
+        public final int viewNumber;
+        //Chained over all the ops upto this one. Logs with the same fingerprint at an op have the same ops upto it.
+        public final long fingerprint;
+
+        public LogEntry(ExecuteCommandRequest request, int viewNumber, long fingerprint) {
             this.request = request;
+            this.viewNumber = viewNumber;
+            this.fingerprint = fingerprint;
         }
-        private int acks;
-        public void prepareOK() {
-            acks++;
+    }
+
+    //The applied state upto opNumber, which replaces the log upto it.
+    public static class Checkpoint {
+        public final int opNumber;
+        public final long fingerprint;
+        public final Map<String, String> kv;
+
+        public Checkpoint(int opNumber, long fingerprint, Map<String, String> kv) {
+            this.opNumber = opNumber;
+            this.fingerprint = fingerprint;
+            this.kv = kv;
         }
+    }
 
-        public boolean isQuorumAccepted(int quorum) {
-            return acks == quorum;
+    private void appendToLog(int opNumber, ExecuteCommandRequest request, int viewNumber) {
+        log.put(opNumber, new LogEntry(request, viewNumber, fingerprint(fingerprintAt(opNumber - 1), viewNumber, request.command)));
+    }
+
+    //Fingerprints of the ops truncated by the checkpoint are not known. CRC32C values are never negative,
+    //so UNKNOWN_FINGERPRINT does not match any fingerprint.
+    private static final long UNKNOWN_FINGERPRINT = -1;
+
+    private long fingerprintAt(int opNumber) {
+        if (opNumber < checkpoint.opNumber) {
+            return UNKNOWN_FINGERPRINT;
         }
+        return opNumber == checkpoint.opNumber ? checkpoint.fingerprint : log.get(opNumber).fingerprint;
+    }
+
+    static long fingerprint(long previousFingerprint, int viewNumber, byte[] command) {
+        var crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(previousFingerprint).putInt(viewNumber).array());
+        crc.update(command);
+        return crc.getValue();
     }
 
     public CompletableFuture<ExecuteCommandResponse> handleClientRequest(ExecuteCommandRequest request) {
-        if (!isPrimaryForView(viewNumber, getPeerConnectionAddress())) {
+        //The next primary knows its view number during the view change, but it does not have the log of the view yet.
+        if (!isPrimary() || status != Status.Normal) {
             return CompletableFuture.completedFuture(ExecuteCommandResponse.errorResponse("Not processing as the request is sent to backup."));
-        };
+        }
 
         opNumber = opNumber + 1;
-        log.put(opNumber, new LogEntry(request));
+        appendToLog(opNumber, request, viewNumber);
 
         CompletionCallback<ExecuteCommandResponse> callback = new CompletionCallback();
         pendingRquests.add(opNumber, callback);
 
-        sendOnewayMessageToOtherReplicas(new Prepare(viewNumber, request, opNumber, commitNumber));
+        int unpreparedOps = opNumber - lastPreparedOpNumber;
+        if (unpreparedOps >= maxOpsPerPrepare) {
+            sendPrepare();
+        } else if (unpreparedOps == 1) {
+            //the first op of the batch does not wait more than the batch delay.
+            prepareBatchTimeout = singularUpdateQueueExecutor.schedule(this::sendPrepare, prepareBatchDelayNs, TimeUnit.NANOSECONDS);
+        }
         return callback.getFuture();
     }
 
+    //One Prepare for all the ops appended since the last Prepare.
+    private void sendPrepare() {
+        if (prepareBatchTimeout != null) {
+            prepareBatchTimeout.cancel(false);
+            prepareBatchTimeout = null;
+        }
+        if (lastPreparedOpNumber >= opNumber || !isPrimary() || status != Status.Normal) {
+            return;
+        }
+        var requests = new ArrayList<ExecuteCommandRequest>(opNumber - lastPreparedOpNumber);
+        for (int i = lastPreparedOpNumber + 1; i <= opNumber; i++) {
+            requests.add(log.get(i).request);
+        }
+        lastPreparedOpNumber = opNumber;
+        sendOnewayMessageToOtherReplicas(new Prepare(viewNumber, requests, opNumber, commitNumber));
+        maybeIncrementCommitNumberAndApply(); //a single replica cluster has a quorum already.
+    }
+
     //if viewchange is higher than the node.
     // Then
     public void handlePrepare(Message<Prepare> message) {
         Prepare prepare = message.messagePayload();
-        if (this.viewNumber == prepare.viewNumber) {
-            this.opNumber = this.opNumber + 1;
-            this.log.put(opNumber, new LogEntry(prepare.request));
-            sendOneway(message.getFromAddress(), new PrepareOK(this.viewNumber, this.opNumber, getReplicaIndex(), true), message.getCorrelationId());
+        if (isFromUnstartedView(prepare.viewNumber)) {
+            startViewWithStateTransfer(prepare.viewNumber);
+            return;
+        }
+        if (this.viewNumber != prepare.viewNumber || this.status != Status.Normal) {
+            return;
+        }
+        //ops are prepared in order. Ops already in the log are skipped, and a Prepare
+        //after missing ops is not accepted. The missing ops are fetched with state transfer.
+        if (prepare.firstOpNumber() <= this.opNumber + 1) {
+            for (int i = this.opNumber + 1; i <= prepare.opNumber; i++) {
+                appendToLog(i, prepare.requests.get(i - prepare.firstOpNumber()), prepare.viewNumber);
+            }
+            this.opNumber = Math.max(this.opNumber, prepare.opNumber);
+        } else {
+            requestState();
         }
+        sendOneway(message.getFromAddress(), new PrepareOK(this.viewNumber, this.opNumber, getReplicaIndex(), true), message.getCorrelationId());
+        commitUpto(prepare.commitNumber);
     }
 
     private int getReplicaIndex() {
@@ -2,6 +2,11 @@ package replicate.vsr.messages;
 
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 public class Commit extends MessagePayload {
     public final int viewNumber;
@@ -12,4 +17,17 @@ public class Commit extends MessagePayload {
         this.viewNumber = viewNumber;
         this.commitNumber = commitNumber;
     }
+
+    public static final PayloadCodec<Commit> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(Commit commit, DataOutputStream os) throws IOException {
+            os.writeInt(commit.viewNumber);
+            os.writeInt(commit.commitNumber);
+        }
+
+        @Override
+        public Commit decode(DataInputStream is) throws IOException {
+            return new Commit(is.readInt(), is.readInt());
+        }
+    };
 }
@@ -0,0 +1,14 @@
+package replicate.vsr.messages;
+
+import replicate.common.MessagePayload;
+import replicate.common.MessageId;
+
+//Sent by the primary to check that a quorum is still in its view, before serving reads.
+public class ConfirmView extends MessagePayload {
+    public final int viewNumber;
+
+    public ConfirmView(int viewNumber) {
+        super(MessageId.ConfirmView);
+        this.viewNumber = viewNumber;
+    }
+}
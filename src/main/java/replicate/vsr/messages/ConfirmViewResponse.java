@@ -0,0 +1,16 @@
+package replicate.vsr.messages;
+
+import replicate.common.MessagePayload;
+import replicate.common.MessageId;
+
+public class ConfirmViewResponse extends MessagePayload {
+    public final int viewNumber;
+    //false if the replica has moved to a view change or a later view.
+    public final boolean inView;
+
+    public ConfirmViewResponse(int viewNumber, boolean inView) {
+        super(MessageId.ConfirmViewResponse);
+        this.viewNumber = viewNumber;
+        this.inView = inView;
+    }
+}
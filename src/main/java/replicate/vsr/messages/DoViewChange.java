@@ -4,21 +4,25 @@ import replicate.common.MessagePayload;
 import replicate.common.MessageId;
 import replicate.vsr.ViewStampedReplication;
 
-import java.util.Map;
+import java.util.List;
 
+//Carries only the ops after the commitNumber, as the committed ops are the same on all the replicas.
+//commitFingerprint identifies the committed ops, so that the new primary can check that it has the same ops.
 public class DoViewChange extends MessagePayload {
     public final int viewNumber;
-    public final Map<Integer, ViewStampedReplication.LogEntry> log;
+    public final List<ViewStampedReplication.LogEntry> uncommittedOps;
     public final int normalStatusViewNumber;
     public final int opNumber;
     public final int commitNumber;
+    public final long commitFingerprint;
 
-    public DoViewChange(int viewNumber, Map<Integer, ViewStampedReplication.LogEntry> log, int normalStatusViewNumber, int opNumber, int commitNumber) {
+    public DoViewChange(int viewNumber, List<ViewStampedReplication.LogEntry> uncommittedOps, int normalStatusViewNumber, int opNumber, int commitNumber, long commitFingerprint) {
         super(MessageId.DoViewChange);
         this.viewNumber = viewNumber;
-        this.log = log;
+        this.uncommittedOps = uncommittedOps;
         this.normalStatusViewNumber = normalStatusViewNumber;
         this.opNumber = opNumber;
         this.commitNumber = commitNumber;
+        this.commitFingerprint = commitFingerprint;
     }
 }
@@ -0,0 +1,16 @@
+package replicate.vsr.messages;
+
+import replicate.common.MessagePayload;
+import replicate.common.MessageId;
+
+//Sent by a backup which is missing ops in the current view. opNumber is the last op in its log.
+public class GetState extends MessagePayload {
+    public final int viewNumber;
+    public final int opNumber;
+
+    public GetState(int viewNumber, int opNumber) {
+        super(MessageId.GetState);
+        this.viewNumber = viewNumber;
+        this.opNumber = opNumber;
+    }
+}
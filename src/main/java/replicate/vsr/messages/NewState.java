@@ -0,0 +1,35 @@
+package replicate.vsr.messages;
+
+import replicate.common.MessagePayload;
+import replicate.common.MessageId;
+import replicate.vsr.ViewStampedReplication;
+
+import java.util.List;
+
+//One chunk of the primary's log, starting after the op the backup asked from.
+//If the primary has truncated its log upto that op, the chunk starts with its checkpoint, and
+//the ops follow the checkpoint. The backup asks for the next chunk till it reaches primaryOpNumber.
+public class NewState extends MessagePayload {
+    public final int viewNumber;
+    public final ViewStampedReplication.Checkpoint checkpoint; //null if the backup does not need it.
+    public final List<ViewStampedReplication.LogEntry> ops;
+    public final long previousFingerprint;
+    public final int opNumber;
+    public final int commitNumber;
+    public final int primaryOpNumber;
+
+    public NewState(int viewNumber, ViewStampedReplication.Checkpoint checkpoint, List<ViewStampedReplication.LogEntry> ops, long previousFingerprint, int opNumber, int commitNumber, int primaryOpNumber) {
+        super(MessageId.NewState);
+        this.viewNumber = viewNumber;
+        this.checkpoint = checkpoint;
+        this.ops = ops;
+        this.previousFingerprint = previousFingerprint;
+        this.opNumber = opNumber;
+        this.commitNumber = commitNumber;
+        this.primaryOpNumber = primaryOpNumber;
+    }
+
+    public int firstOpNumber() {
+        return opNumber - ops.size() + 1;
+    }
+}
@@ -2,19 +2,57 @@ package replicate.vsr.messages;
 
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+import replicate.common.PayloadCodecs;
 import replicate.twophaseexecution.messages.ExecuteCommandRequest;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//The primary can prepare a batch of consecutive ops with a single Prepare.
+//opNumber is the op number of the last request in the batch.
 public class Prepare extends MessagePayload {
     public final int viewNumber;
-    public final ExecuteCommandRequest request;
+    public final List<ExecuteCommandRequest> requests;
     public final int opNumber;
     public final int commitNumber;
 
-    public Prepare(int viewNumber, ExecuteCommandRequest request, int opNumber, int commitNumber) {
+    public Prepare(int viewNumber, List<ExecuteCommandRequest> requests, int opNumber, int commitNumber) {
         super(MessageId.Prepare);
         this.viewNumber = viewNumber;
-        this.request = request;
+        this.requests = requests;
         this.opNumber = opNumber;
         this.commitNumber = commitNumber;
     }
+
+    public int firstOpNumber() {
+        return opNumber - requests.size() + 1;
+    }
+
+    public static final PayloadCodec<Prepare> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(Prepare prepare, DataOutputStream os) throws IOException {
+            os.writeInt(prepare.viewNumber);
+            os.writeInt(prepare.requests.size());
+            for (ExecuteCommandRequest request : prepare.requests) {
+                PayloadCodecs.writeBytes(os, request.command);
+            }
+            os.writeInt(prepare.opNumber);
+            os.writeInt(prepare.commitNumber);
+        }
+
+        @Override
+        public Prepare decode(DataInputStream is) throws IOException {
+            int viewNumber = is.readInt();
+            int noOfRequests = is.readInt();
+            var requests = new ArrayList<ExecuteCommandRequest>(noOfRequests);
+            for (int i = 0; i < noOfRequests; i++) {
+                requests.add(new ExecuteCommandRequest(PayloadCodecs.readBytes(is)));
+            }
+            return new Prepare(viewNumber, requests, is.readInt(), is.readInt());
+        }
+    };
 }
@@ -2,9 +2,15 @@ package replicate.vsr.messages;
 
 import replicate.common.MessagePayload;
 import replicate.common.MessageId;
+import replicate.common.PayloadCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 public class PrepareOK extends MessagePayload {
     public final int viewNumber;
+    //Acknowledges all the ops upto opNumber.
     public final int opNumber;
     public final int replicaIndex;
     public final boolean isAck;
@@ -16,4 +22,19 @@ public class PrepareOK extends MessagePayload {
         this.replicaIndex = replicaIndex;
         this.isAck = isAck;
     }
+
+    public static final PayloadCodec<PrepareOK> CODEC = new PayloadCodec<>() {
+        @Override
+        public void encode(PrepareOK prepareOK, DataOutputStream os) throws IOException {
+            os.writeInt(prepareOK.viewNumber);
+            os.writeInt(prepareOK.opNumber);
+            os.writeInt(prepareOK.replicaIndex);
+            os.writeBoolean(prepareOK.isAck);
+        }
+
+        @Override
+        public PrepareOK decode(DataInputStream is) throws IOException {
+            return new PrepareOK(is.readInt(), is.readInt(), is.readInt(), is.readBoolean());
+        }
+    };
 }
@@ -4,18 +4,27 @@ import replicate.common.MessagePayload;
 import replicate.common.MessageId;
 import replicate.vsr.ViewStampedReplication;
 
-import java.util.Map;
+import java.util.List;
 
+//Carries only the ops the backup does not have. The backup keeps its ops upto firstOpNumber() - 1
+//if the fingerprint of its log at that op is previousFingerprint.
 public class StartView extends MessagePayload {
-    public final Map<Integer, ViewStampedReplication.LogEntry> log;
+    public final int viewNumber;
+    public final List<ViewStampedReplication.LogEntry> ops;
+    public final long previousFingerprint;
     public final int opNumber;
     public final int commitNumber;
 
-    public StartView(Map<Integer, ViewStampedReplication.LogEntry> log, int opNumber, int commitNumber) {
+    public StartView(int viewNumber, List<ViewStampedReplication.LogEntry> ops, long previousFingerprint, int opNumber, int commitNumber) {
         super(MessageId.StartView);
-
-        this.log = log;
+        this.viewNumber = viewNumber;
+        this.ops = ops;
+        this.previousFingerprint = previousFingerprint;
         this.opNumber = opNumber;
         this.commitNumber = commitNumber;
     }
+
+    public int firstOpNumber() {
+        return opNumber - ops.size() + 1;
+    }
 }
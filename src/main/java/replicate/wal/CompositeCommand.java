@@ -16,8 +16,6 @@ public class CompositeCommand extends Command {
         os.writeInt(commands.size());
         for (Command command : commands) {
             byte[] bytes = command.serialize();
-            Command deserialize = deserialize(new ByteArrayInputStream(bytes));
-
             os.writeInt(bytes.length);
             os.write(bytes);
         }
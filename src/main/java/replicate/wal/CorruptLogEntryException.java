@@ -0,0 +1,8 @@
+package replicate.wal;
+
+//Thrown when an entry in a WAL segment is partially written or fails its crc check.
+public class CorruptLogEntryException extends RuntimeException {
+    public CorruptLogEntryException(String message) {
+        super(message);
+    }
+}
@@ -3,64 +3,162 @@ package replicate.wal;
 import replicate.common.Config;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class DurableKVStore {
     //persistent..
-    private final Map<String, String> kv = new HashMap<>();
+    private final StorageEngine kv;
+    //durable puts waiting for the puts before them to be applied.
+    private final Map<Long, PendingPut> pendingPuts = new HashMap<>();
 
     public String get(String key) {
         return kv.get(key);
     }
 
     public void put(String key, String value) {
+        putAsync(key, value).join();
+    }
 
-        //Then applyLog at startup.
-        //e.g. Cassandra's WAL for memtable.
-        //pipeline
-        //async
-        //queue of requests |put() | put| put | | |-->
-        // <--|resonse | put| put | | |
-        //async arrayblockqueue
-        appendLog(key, value);
-        //async but preserver order
-        kv.put(key, value);
-        //async
-        //respond to client
+    //<codeFragment name="pipelinedPut">
+    //queue of requests |put() | put| put | | |-->
+    // <--|resonse | put| put | | |
+    //Puts are queued to the WAL, which assigns the log indexes in the order of the calls.
+    //With group commit, many queued puts are flushed together with a single fsync.
+    //Once durable, puts are applied to the map strictly in log index order,
+    //and the future is completed only after that, so the caller can read its own write.
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        var pendingPut = new PendingPut(key, value);
+        wal.writeEntryAsync(new SetValueCommand(key, value).serialize(), 0)
+                .whenComplete((entryId, e) -> {
+                    if (e != null) {
+                        pendingPut.future.completeExceptionally(e);
+                    } else {
+                        applyInOrder(entryId, pendingPut);
+                    }
+                });
+        return pendingPut.future;
     }
 
-    private Long appendLog(String key, String value) {
-        Long aLong = wal.writeEntry(new SetValueCommand(key, value).serialize());
-        return aLong;
+    private void applyInOrder(Long entryId, PendingPut pendingPut) {
+        List<PendingPut> applied = new ArrayList<>();
+        synchronized (this) {
+            pendingPuts.put(entryId, pendingPut);
+            StorageBatch batch = new StorageBatch();
+            PendingPut next;
+            while ((next = pendingPuts.remove(lastAppliedEntryId + applied.size() + 1)) != null) {
+                batch.put(next.key, next.value);
+                applied.add(next);
+            }
+            if (!batch.isEmpty()) {
+                kv.write(batch);
+                lastAppliedEntryId += applied.size();
+            }
+        }
+        //respond to clients outside the lock.
+        applied.forEach(put -> put.future.complete(null));
+    }
+    //</codeFragment>
+
+    static class PendingPut {
+        final String key;
+        final String value;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingPut(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
     }
 
     //@VisibleForTesting
     final WriteAheadLog wal;
     private final Config config;
+    private long lastAppliedEntryId = 0;
+    private long snapshotIndex = 0;
+    //@VisibleForTesting
+    LogIndexBasedLogCleaner logCleaner;
+    private ScheduledExecutorService snapshotScheduler;
 
     public DurableKVStore(Config config) {
         this.config = config;
         this.wal = WriteAheadLog.openWAL(config);
+        this.kv = newStorageEngine(config);
+        loadSnapshot();
         applyLog();
         //Assignment 1: applyLog at startup.
+        if (config.isSnapshotEnabled()) {
+            startSnapshotting();
+        }
     }
 
+    //<codeFragment name="loadSnapshot">
+    //The state is restored from the latest snapshot and only the
+    //log entries after it are replayed.
+    private void loadSnapshot() {
+        lastAppliedEntryId = kv.recover();
+        snapshotIndex = lastAppliedEntryId;
+    }
+    //</codeFragment>
+
+    static StorageEngine newStorageEngine(Config config) {
+        if (config.isRocksDBStorage()) {
+            return new RocksDBStorageEngine(new File(config.getWalDir(), "rocksdb"));
+        }
+        return new InMemoryStorageEngine(config.getWalDir());
+    }
+
+    //Entries are read one at a time, so replay does not need memory for the whole log.
     public void applyLog() {
-        List<WALEntry> walEntries = wal.readAll();
-        applyEntries(walEntries);
+        WALIterator walEntries = wal.iterator(lastAppliedEntryId + 1);
+        while (walEntries.hasNext()) {
+            applyEntry(walEntries.next());
+        }
     }
 
-    private void applyEntries(List<WALEntry> walEntries) {
-        for (WALEntry walEntry : walEntries) {
-            Command command = deserialize(walEntry);
-            if (command instanceof SetValueCommand) {
-                SetValueCommand setValueCommand = (SetValueCommand) command;
-                kv.put(setValueCommand.key, setValueCommand.value);
-            }
+    private void applyEntry(WALEntry walEntry) {
+        Command command = deserialize(walEntry);
+        if (command instanceof SetValueCommand) {
+            SetValueCommand setValueCommand = (SetValueCommand) command;
+            kv.put(setValueCommand.key, setValueCommand.value);
         }
+        lastAppliedEntryId = walEntry.getEntryIndex();
+    }
+
+    //<codeFragment name="takeSnapshot">
+    //Puts wait while the snapshot is written, so the snapshot
+    //has exactly the state as of lastAppliedEntryId.
+    //Once the snapshot is on the disk, the log segments before it can be deleted.
+    public synchronized Long takeSnapshot() {
+        kv.snapshot(lastAppliedEntryId);
+        snapshotIndex = lastAppliedEntryId;
+        if (logCleaner != null) {
+            logCleaner.updateShapshotIndex(snapshotIndex);
+        }
+        return snapshotIndex;
+    }
+    //</codeFragment>
+
+    private void startSnapshotting() {
+        logCleaner = new LogIndexBasedLogCleaner(config, wal, snapshotIndex);
+        logCleaner.startup();
+        if (config.isPeriodicSnapshotEnabled()) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor();
+            long interval = config.getSnapshotIntervalMs();
+            snapshotScheduler.scheduleWithFixedDelay(this::takeSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized long getLastAppliedEntryId() {
+        return lastAppliedEntryId;
     }
 
     private Command deserialize(WALEntry walEntry) {
@@ -69,8 +167,14 @@ public class DurableKVStore {
 
     //simulates crash.
     public void close() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (logCleaner != null) {
+            logCleaner.shutdown();
+        }
         wal.close();
-        kv.clear();
+        kv.close();
     }
 
     public Collection<String> values() {
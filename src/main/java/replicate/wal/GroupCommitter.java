@@ -0,0 +1,160 @@
+package replicate.wal;
+
+import replicate.common.Config;
+import replicate.common.Logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues concurrent writes to the WriteAheadLog and writes them as a batch,
+ * so that a single fsync is paid for all the entries in the batch.
+ * A batch is written as soon as it has maxBatchEntries or maxBatchSizeBytes,
+ * or when the first entry in the batch has waited for maxBatchWaitTime.
+ * The futures of all the entries in a batch are completed only after the
+ * batch is flushed to the disk.
+ */
+//<codeFragment name="groupCommitter">
+class GroupCommitter extends Thread implements Logging {
+    private final ArrayBlockingQueue<PendingWrite> writeQueue;
+    private final WriteAheadLog wal;
+    private final int maxBatchEntries;
+    private final int maxBatchSizeBytes;
+    private final long maxBatchWaitTimeNs;
+    private volatile boolean isRunning = false;
+
+    GroupCommitter(WriteAheadLog wal, Config config) {
+        super("GroupCommitter");
+        setDaemon(true);
+        this.wal = wal;
+        this.maxBatchEntries = config.getMaxBatchEntries();
+        this.maxBatchSizeBytes = config.getMaxBatchSizeBytes();
+        this.maxBatchWaitTimeNs = config.getMaxBatchWaitTime();
+        this.writeQueue = new ArrayBlockingQueue<>(maxBatchEntries * 4);
+    }
+
+    public CompletableFuture<Long> submit(PendingWrite write) {
+        if (!isRunning) {
+            throw new IllegalStateException("GroupCommitter is not running");
+        }
+        try {
+            writeQueue.put(write); //blocks writers if the disk can not keep up.
+            return write.future;
+
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        isRunning = true;
+        super.start();
+    }
+
+    @Override
+    public void run() {
+        while ((isRunning || !writeQueue.isEmpty()) && !isInterrupted()) {
+            List<PendingWrite> batch = nextBatch();
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+        }
+        failUnwrittenWrites();
+    }
+
+    private List<PendingWrite> nextBatch() {
+        var batch = new ArrayList<PendingWrite>();
+        try {
+            PendingWrite first = writeQueue.poll(2, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return batch;
+            }
+            batch.add(first);
+            int batchSize = first.size();
+            long lingerDeadline = System.nanoTime() + maxBatchWaitTimeNs;
+            while (batch.size() < maxBatchEntries && batchSize < maxBatchSizeBytes) {
+                PendingWrite next = writeQueue.poll();
+                if (next == null) {
+                    long remainingNs = lingerDeadline - System.nanoTime();
+                    if (remainingNs <= 0 || !isRunning) {
+                        break;
+                    }
+                    next = writeQueue.poll(remainingNs, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                }
+                batch.add(next);
+                batchSize += next.size();
+            }
+        } catch (InterruptedException e) {
+            //the writes already taken from the queue are committed before the committer stops.
+            getLogger().warn("Interrupted while waiting for WAL writes", e);
+            isRunning = false;
+            Thread.currentThread().interrupt();
+        }
+        return batch;
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        try {
+            List<Long> entryIndexes = wal.writeBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(entryIndexes.get(i));
+            }
+        } catch (Exception e) {
+            getLogger().error("Failed to write batch of " + batch.size() + " entries", e);
+            batch.forEach(write -> write.future.completeExceptionally(e));
+        }
+    }
+
+    //Pending writes are flushed before the committer stops.
+    public void shutdown() {
+        isRunning = false;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failUnwrittenWrites();
+    }
+
+    private void failUnwrittenWrites() {
+        var unwritten = new ArrayList<PendingWrite>();
+        writeQueue.drainTo(unwritten);
+        unwritten.forEach(write -> write.future.completeExceptionally(new IllegalStateException("WAL is closed")));
+    }
+    //</codeFragment>
+
+    static class PendingWrite {
+        //entry is null when the log index is to be assigned at the time of writing.
+        final WALEntry entry;
+        final byte[] data;
+        final long generation;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingWrite(WALEntry entry) {
+            this.entry = entry;
+            this.data = entry.getData();
+            this.generation = entry.getGeneration();
+        }
+
+        PendingWrite(byte[] data, long generation) {
+            this.entry = null;
+            this.data = data;
+            this.generation = generation;
+        }
+
+        WALEntry toEntry(long nextIndex) {
+            return entry != null ? entry : new WALEntry(nextIndex, data, EntryType.DATA, generation);
+        }
+
+        int size() {
+            return WALEntry.logEntrySize(data.length);
+        }
+    }
+}
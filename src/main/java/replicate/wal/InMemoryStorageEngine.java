@@ -0,0 +1,81 @@
+package replicate.wal;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps all the key values on the heap. The state is made durable by writing
+ * a {@link SnapShot} to the wal directory.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+    //Puts are applied on the WAL writer thread, while gets are served on the callers' threads.
+    private final ConcurrentSkipListMap<String, String> kv = new ConcurrentSkipListMap<>();
+    private final File snapshotDir;
+
+    public InMemoryStorageEngine(File snapshotDir) {
+        this.snapshotDir = snapshotDir;
+    }
+
+    @Override
+    public String get(String key) {
+        return kv.get(key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        kv.put(key, value);
+    }
+
+    @Override
+    public void delete(String key) {
+        kv.remove(key);
+    }
+
+    //A copy, like the RocksDB engine returns, so later puts do not change the result.
+    @Override
+    public SortedMap<String, String> range(String fromKey, String toKey) {
+        return new TreeMap<>(kv.subMap(fromKey, toKey));
+    }
+
+    //Readers can see a partially applied batch.
+    //The DurableKVStore applies batches while holding its lock, which snapshots also take.
+    @Override
+    public void write(StorageBatch batch) {
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            if (operation.isDelete()) {
+                kv.remove(operation.key);
+            } else {
+                kv.put(operation.key, operation.value);
+            }
+        }
+    }
+
+    @Override
+    public void snapshot(long lastAppliedEntryId) {
+        SnapShot.write(snapshotDir, kv, lastAppliedEntryId);
+    }
+
+    @Override
+    public long recover() {
+        SnapShot snapShot = SnapShot.latest(snapshotDir);
+        if (snapShot == null) {
+            return 0;
+        }
+        snapShot.loadInto(kv);
+        return snapShot.getLastAppliedEntryId();
+    }
+
+    @Override
+    public Collection<String> values() {
+        return kv.values();
+    }
+
+    //simulates crash.
+    @Override
+    public void close() {
+        kv.clear();
+    }
+}
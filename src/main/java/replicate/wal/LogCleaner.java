@@ -35,9 +35,16 @@ public abstract class LogCleaner {
     }
 
     private void scheduleLogCleaning() {
+        if (singleThreadedExecutor.isShutdown()) {
+            return;
+        }
         singleThreadedExecutor.schedule(() -> {
             cleanLogs();
         }, config.getCleanTaskIntervalMs(), TimeUnit.MILLISECONDS);
     }
     //</codeFragment>
+
+    public void shutdown() {
+        singleThreadedExecutor.shutdownNow();
+    }
 }
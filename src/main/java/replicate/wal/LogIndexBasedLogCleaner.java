@@ -20,7 +20,7 @@ public class LogIndexBasedLogCleaner extends LogCleaner {
     //<codeFragment name="logIndexBasedLogCleaning"
     List<WALSegment> getSegmentsBefore(Long snapshotIndex) {
         List<WALSegment> markedForDeletion = new ArrayList<>();
-        List<WALSegment> sortedSavedSegments = wal.sortedSavedSegments;
+        List<WALSegment> sortedSavedSegments = wal.rolledOverSegments();
         for (WALSegment sortedSavedSegment : sortedSavedSegments) {
             if (sortedSavedSegment.getLastLogEntryIndex() < snapshotIndex) {
                 markedForDeletion.add(sortedSavedSegment);
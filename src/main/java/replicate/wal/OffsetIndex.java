@@ -0,0 +1,92 @@
+package replicate.wal;
+
+import java.util.Arrays;
+
+/**
+ * Maps log indexes of a segment to the file position of the entry.
+ * Entries in a segment have consecutive log indexes, so the file positions
+ * are kept in a primitive array, dense by (logIndex - firstIndex).
+ * This avoids boxing a Long key and value for every entry in the log.
+ */
+class OffsetIndex {
+    static final long NO_POSITION = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long firstIndex = -1;
+    private long[] positions = new long[INITIAL_CAPACITY];
+    private int noOfSlots = 0;
+
+    OffsetIndex() {
+    }
+
+    //used when the index is loaded from the index file.
+    OffsetIndex(long firstIndex, long[] positions) {
+        this.firstIndex = firstIndex;
+        this.positions = positions;
+        this.noOfSlots = positions.length;
+    }
+
+    void put(long logIndex, long filePosition) {
+        if (isEmpty()) {
+            firstIndex = logIndex;
+        } else if (logIndex < firstIndex) {
+            throw new IllegalArgumentException("logIndex=" + logIndex + " is less than the first index " + firstIndex + " of the segment");
+        }
+        int slot = slotOf(logIndex);
+        ensureCapacity(slot + 1);
+        //There should not be gaps, but mark them so that they are never read.
+        Arrays.fill(positions, noOfSlots, slot, NO_POSITION);
+        positions[slot] = filePosition;
+        noOfSlots = Math.max(noOfSlots, slot + 1);
+    }
+
+    long positionOf(long logIndex) {
+        if (isEmpty() || logIndex < firstIndex || logIndex > lastIndex()) {
+            return NO_POSITION;
+        }
+        return positions[slotOf(logIndex)];
+    }
+
+    boolean contains(long logIndex) {
+        return positionOf(logIndex) != NO_POSITION;
+    }
+
+    boolean isEmpty() {
+        return noOfSlots == 0;
+    }
+
+    long firstIndex() {
+        return isEmpty() ? 0l : firstIndex;
+    }
+
+    long lastIndex() {
+        return isEmpty() ? 0l : firstIndex + noOfSlots - 1;
+    }
+
+    //removes logIndex and all the indexes after it.
+    void truncateFrom(long logIndex) {
+        if (isEmpty() || logIndex > lastIndex()) {
+            return;
+        }
+        noOfSlots = logIndex <= firstIndex ? 0 : slotOf(logIndex);
+    }
+
+    int noOfSlots() {
+        return noOfSlots;
+    }
+
+    //Returns the backing array. Only the first noOfSlots positions are valid.
+    long[] positions() {
+        return positions;
+    }
+
+    private int slotOf(long logIndex) {
+        return Math.toIntExact(logIndex - firstIndex);
+    }
+
+    private void ensureCapacity(int requiredSlots) {
+        if (requiredSlots > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(requiredSlots, positions.length * 2));
+        }
+    }
+}
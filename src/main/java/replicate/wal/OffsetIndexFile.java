@@ -0,0 +1,116 @@
+package replicate.wal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The offset index of a rolled over segment is persisted next to the segment
+ * as wal_[baseOffset].index, so that the segment does not need to be scanned
+ * when the WriteAheadLog is opened.
+ *
+ * Layout: magic, version, segmentSize, firstIndex, noOfEntries, lastLogEntryTimestamp,
+ * file positions of all the entries, crc of all the preceding bytes.
+ * The index is considered valid only if the crc matches and the segment has
+ * the same size as it had when the index was written.
+ */
+//<codeFragment name="offsetIndexFile">
+class OffsetIndexFile {
+    private static final String indexSuffix = ".index";
+    private static final int MAGIC = 0x57414C49; //WALI
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfInt
+            + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfLong;
+
+    final OffsetIndex offsetIndex;
+    final long lastLogEntryTimestamp;
+
+    private OffsetIndexFile(OffsetIndex offsetIndex, long lastLogEntryTimestamp) {
+        this.offsetIndex = offsetIndex;
+        this.lastLogEntryTimestamp = lastLogEntryTimestamp;
+    }
+
+    static File indexFileFor(File segmentFile) {
+        var name = segmentFile.getName();
+        var baseName = name.substring(0, name.lastIndexOf('.'));
+        return new File(segmentFile.getParentFile(), baseName + indexSuffix);
+    }
+
+    static boolean isIndexFile(File file) {
+        return file.getName().endsWith(indexSuffix);
+    }
+
+    //The index is written to a temporary file and renamed,
+    //so that a crash never leaves a partially written index behind.
+    static void write(File indexFile, OffsetIndex offsetIndex, long segmentSize, long lastLogEntryTimestamp) {
+        int noOfEntries = offsetIndex.noOfSlots();
+        var buffer = ByteBuffer.allocate(HEADER_SIZE + noOfEntries * WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfLong);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(segmentSize);
+        buffer.putLong(offsetIndex.firstIndex());
+        buffer.putInt(noOfEntries);
+        buffer.putLong(lastLogEntryTimestamp);
+        buffer.asLongBuffer().put(offsetIndex.positions(), 0, noOfEntries);
+        buffer.position(buffer.position() + noOfEntries * WriteAheadLog.sizeOfLong);
+        buffer.putLong(crcOf(buffer.array(), buffer.position()));
+        buffer.flip();
+
+        var tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Returns null if the index file is missing or does not match the segment.
+    static OffsetIndexFile read(File indexFile, long segmentSize) {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            var bytes = Files.readAllBytes(indexFile.toPath());
+            if (bytes.length < HEADER_SIZE + WriteAheadLog.sizeOfLong) {
+                return null;
+            }
+            var buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != segmentSize) {
+                return null;
+            }
+            long firstIndex = buffer.getLong();
+            int noOfEntries = buffer.getInt();
+            long lastLogEntryTimestamp = buffer.getLong();
+            int crcPosition = HEADER_SIZE + noOfEntries * WriteAheadLog.sizeOfLong;
+            if (noOfEntries < 0 || bytes.length != crcPosition + WriteAheadLog.sizeOfLong
+                    || buffer.getLong(crcPosition) != crcOf(bytes, crcPosition)) {
+                return null;
+            }
+            var positions = new long[noOfEntries];
+            buffer.asLongBuffer().get(positions);
+            var offsetIndex = noOfEntries == 0 ? new OffsetIndex() : new OffsetIndex(firstIndex, positions);
+            return new OffsetIndexFile(offsetIndex, lastLogEntryTimestamp);
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long crcOf(byte[] bytes, int length) {
+        var crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+}
+//</codeFragment>
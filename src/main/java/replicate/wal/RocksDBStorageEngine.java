@@ -0,0 +1,167 @@
+package replicate.wal;
+
+import org.rocksdb.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the key values in RocksDB, so the data can be larger than the heap.
+ *
+ * Our write ahead log is the source of truth, so the RocksDB WAL is disabled.
+ * Writes go to the memtable, and after a crash the entries after the last
+ * snapshot are applied again from our log. User data and system data are kept
+ * in separate column families. The system column family stores the id of the
+ * last log entry which is flushed to the disk.
+ */
+public class RocksDBStorageEngine implements StorageEngine {
+    private static final byte[] USER_DATA = "user".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SYSTEM_DATA = "system".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LAST_APPLIED_ENTRY_ID = "lastAppliedEntryId".getBytes(StandardCharsets.UTF_8);
+
+    private final RocksDB db;
+    private final DBOptions dbOptions;
+    private final WriteOptions writeOptions;
+    private final List<ColumnFamilyHandle> columnFamilyHandles = new ArrayList<>();
+    private final ColumnFamilyHandle userData;
+    private final ColumnFamilyHandle systemData;
+
+    //<codeFragment name="rocksdbStorageEngine">
+    public RocksDBStorageEngine(File dataDir) {
+        dataDir.mkdirs();
+        dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setKeepLogFileNum(30)
+                .setLogFileTimeToRoll(TimeUnit.DAYS.toSeconds(1));
+        writeOptions = new WriteOptions().setDisableWAL(true);
+        List<ColumnFamilyDescriptor> columnFamilies = List.of(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY),
+                new ColumnFamilyDescriptor(USER_DATA),
+                new ColumnFamilyDescriptor(SYSTEM_DATA));
+        try {
+            db = RocksDB.open(dbOptions, dataDir.getPath(), columnFamilies, columnFamilyHandles);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+        userData = columnFamilyHandles.get(1);
+        systemData = columnFamilyHandles.get(2);
+    }
+    //</codeFragment>
+
+    @Override
+    public String get(String key) {
+        try {
+            return toString(db.get(userData, toBytes(key)));
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        write(new StorageBatch().put(key, value));
+    }
+
+    @Override
+    public void delete(String key) {
+        write(new StorageBatch().delete(key));
+    }
+
+    @Override
+    public SortedMap<String, String> range(String fromKey, String toKey) {
+        SortedMap<String, String> result = new TreeMap<>();
+        byte[] to = toBytes(toKey);
+        try (RocksIterator iterator = db.newIterator(userData)) {
+            for (iterator.seek(toBytes(fromKey)); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (Arrays.compareUnsigned(key, to) >= 0) { //the default RocksDB comparator is bytewise.
+                    break;
+                }
+                result.put(toString(key), toString(iterator.value()));
+            }
+        }
+        return result;
+    }
+
+    //<codeFragment name="rocksdbWriteBatch">
+    @Override
+    public void write(StorageBatch batch) {
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            for (StorageBatch.Operation operation : batch.getOperations()) {
+                if (operation.isDelete()) {
+                    writeBatch.delete(userData, toBytes(operation.key));
+                } else {
+                    writeBatch.put(userData, toBytes(operation.key), toBytes(operation.value));
+                }
+            }
+            db.write(writeOptions, writeBatch);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    //</codeFragment>
+
+    //<codeFragment name="rocksdbSnapshot">
+    //The user data is flushed first. Only then the lastAppliedEntryId is stored
+    //and flushed, so the stored id never runs ahead of the user data on the disk.
+    //RocksDB might flush user data later than lastAppliedEntryId on its own,
+    //which is fine, as applying the puts from the log again is idempotent.
+    @Override
+    public void snapshot(long lastAppliedEntryId) {
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            db.flush(flushOptions, userData);
+            db.put(systemData, writeOptions, LAST_APPLIED_ENTRY_ID, ByteBuffer.allocate(Long.BYTES).putLong(lastAppliedEntryId).array());
+            db.flush(flushOptions, systemData);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    //</codeFragment>
+
+    @Override
+    public long recover() {
+        try {
+            byte[] lastAppliedEntryId = db.get(systemData, LAST_APPLIED_ENTRY_ID);
+            return lastAppliedEntryId == null ? 0 : ByteBuffer.wrap(lastAppliedEntryId).getLong();
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Reads all the values, so should be used only for small datasets.
+    @Override
+    public Collection<String> values() {
+        List<String> values = new ArrayList<>();
+        try (RocksIterator iterator = db.newIterator(userData)) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                values.add(toString(iterator.value()));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        columnFamilyHandles.forEach(ColumnFamilyHandle::close);
+        db.close();
+        writeOptions.close();
+        dbOptions.close();
+    }
+
+    private static byte[] toBytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String toString(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,27 +1,143 @@
 package replicate.wal;
 
-import replicate.common.JsonSerDes;
-
-import java.util.HashMap;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
+/**
+ * Snapshot of the key value state, as of the lastAppliedEntryId of the WAL.
+ * The key values are streamed to the file one at a time, so neither writing
+ * nor loading a snapshot needs the whole state serialized in memory.
+ *
+ * Layout: magic, version, lastAppliedEntryId, noOfEntries, (key, value)*, crc.
+ * Keys and values are written as an int length followed by the UTF-8 bytes,
+ * as writeUTF can not write strings longer than 65535 bytes.
+ */
 class SnapShot {
-    private byte[] serializedKv;
-    private Long lastAppliedEntryId;
+    private static final String snapshotPrefix = "snapshot_";
+    private static final String snapshotSuffix = ".snap";
+    private static final int MAGIC = 0x534E4150; //SNAP
+    private static final int VERSION = 1;
 
-    public SnapShot(byte[] serializedKv, Long lastAppliedEntryId) {
-        this.serializedKv = serializedKv;
-        this.lastAppliedEntryId = lastAppliedEntryId;
-    }
+    private final File file;
+    private final Long lastAppliedEntryId;
 
-    public byte[] getSerializedKv() {
-        return serializedKv;
+    private SnapShot(File file, Long lastAppliedEntryId) {
+        this.file = file;
+        this.lastAppliedEntryId = lastAppliedEntryId;
     }
 
     public Long getLastAppliedEntryId() {
         return lastAppliedEntryId;
     }
 
-    HashMap deserializeState() {
-        return JsonSerDes.deserialize(getSerializedKv(), HashMap.class);
+    //<codeFragment name="writeSnapshot">
+    //The snapshot is written to a temporary file and renamed once it is on the disk.
+    //Older snapshots are deleted after that.
+    static SnapShot write(File dir, Map<String, String> kv, Long lastAppliedEntryId) {
+        var snapshotFile = new File(dir, snapshotPrefix + lastAppliedEntryId + snapshotSuffix);
+        var tempFile = new File(dir, snapshotFile.getName() + ".tmp");
+        try {
+            var fileOutputStream = new FileOutputStream(tempFile);
+            var checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileOutputStream), new CRC32());
+            try (var os = new DataOutputStream(checkedStream)) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeLong(lastAppliedEntryId);
+                os.writeInt(kv.size());
+                for (Map.Entry<String, String> entry : kv.entrySet()) {
+                    writeString(os, entry.getKey());
+                    writeString(os, entry.getValue());
+                }
+                os.writeLong(checkedStream.getChecksum().getValue());
+                os.flush();
+                fileOutputStream.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(dir);
+            deleteSnapshotsBefore(dir, lastAppliedEntryId);
+            return new SnapShot(snapshotFile, lastAppliedEntryId);
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    //</codeFragment>
+
+    //<codeFragment name="loadSnapshot">
+    void loadInto(Map<String, String> kv) {
+        try (var checkedStream = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+             var is = new DataInputStream(checkedStream)) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || is.readLong() != lastAppliedEntryId) {
+                throw new IllegalStateException("Invalid snapshot file " + file);
+            }
+            int noOfEntries = is.readInt();
+            for (int i = 0; i < noOfEntries; i++) {
+                kv.put(readString(is), readString(is));
+            }
+            long computedCrc = checkedStream.getChecksum().getValue();
+            if (is.readLong() != computedCrc) {
+                throw new IllegalStateException("Crc mismatch for snapshot file " + file);
+            }
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static SnapShot latest(File dir) {
+        return Arrays.stream(snapshotFiles(dir))
+                .map(f -> new SnapShot(f, lastAppliedEntryIdOf(f)))
+                .max(Comparator.comparing(SnapShot::getLastAppliedEntryId))
+                .orElse(null);
+    }
+    //</codeFragment>
+
+    private static void writeString(DataOutputStream os, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static String readString(DataInputStream is) throws IOException {
+        byte[] bytes = new byte[is.readInt()];
+        is.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static File[] snapshotFiles(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(snapshotPrefix) && name.endsWith(snapshotSuffix));
+        return files == null ? new File[0] : files;
+    }
+
+    private static Long lastAppliedEntryIdOf(File snapshotFile) {
+        var name = snapshotFile.getName();
+        return Long.parseLong(name.substring(snapshotPrefix.length(), name.length() - snapshotSuffix.length()));
+    }
+
+    private static void deleteSnapshotsBefore(File dir, Long lastAppliedEntryId) throws IOException {
+        for (File snapshotFile : snapshotFiles(dir)) {
+            if (lastAppliedEntryIdOf(snapshotFile) < lastAppliedEntryId) {
+                Files.deleteIfExists(snapshotFile.toPath());
+            }
+        }
+    }
+
+    //makes sure the rename of the snapshot file is durable.
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //not all platforms allow opening a directory.
+        }
     }
 }
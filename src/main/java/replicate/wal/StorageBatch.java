@@ -0,0 +1,43 @@
+package replicate.wal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts and deletes which are applied together to the {@link StorageEngine}.
+ */
+public class StorageBatch {
+    private final List<Operation> operations = new ArrayList<>();
+
+    public StorageBatch put(String key, String value) {
+        operations.add(new Operation(key, value));
+        return this;
+    }
+
+    public StorageBatch delete(String key) {
+        operations.add(new Operation(key, null));
+        return this;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public static class Operation {
+        final String key;
+        final String value; //null for delete.
+
+        Operation(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public boolean isDelete() {
+            return value == null;
+        }
+    }
+}
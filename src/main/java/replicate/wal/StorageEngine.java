@@ -0,0 +1,36 @@
+package replicate.wal;
+
+import java.util.Collection;
+import java.util.SortedMap;
+
+/**
+ * The storage for the key values of the {@link DurableKVStore}.
+ * The write ahead log is the source of truth. The storage engine only needs to
+ * make its state durable when a snapshot is taken, so the log before the
+ * snapshot can be discarded.
+ */
+public interface StorageEngine {
+
+    String get(String key);
+
+    void put(String key, String value);
+
+    void delete(String key);
+
+    //keys from fromKey (inclusive) to toKey (exclusive), in key order.
+    SortedMap<String, String> range(String fromKey, String toKey);
+
+    //applies all the operations in the batch atomically.
+    void write(StorageBatch batch);
+
+    //Makes the state as of lastAppliedEntryId durable.
+    void snapshot(long lastAppliedEntryId);
+
+    //Loads the durable state and returns the id of the last log entry applied to it.
+    //The log entries after it need to be applied again.
+    long recover();
+
+    Collection<String> values();
+
+    void close();
+}
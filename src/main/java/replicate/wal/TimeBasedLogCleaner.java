@@ -20,7 +20,7 @@ class TimeBasedLogCleaner extends LogCleaner {
     private List<WALSegment> getSegmentsPast(Long logMaxDurationMs) {
         long now = System.currentTimeMillis();
         List<WALSegment> markedForDeletion = new ArrayList<>();
-        List<WALSegment> sortedSavedSegments = wal.sortedSavedSegments;
+        List<WALSegment> sortedSavedSegments = wal.rolledOverSegments();
         for (WALSegment sortedSavedSegment : sortedSavedSegments) {
             if (timeElaspedSince(now, sortedSavedSegment.getLastLogEntryTimestamp()) > logMaxDurationMs) {
                 markedForDeletion.add(sortedSavedSegment);
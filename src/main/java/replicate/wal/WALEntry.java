@@ -2,6 +2,7 @@ package replicate.wal;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.zip.CRC32C;
 
 public class WALEntry {
 //<codeFragment name="walEntry">
@@ -17,11 +18,16 @@ public class WALEntry {
     };
 
     public WALEntry(Long entryIndex, byte[] data, EntryType entryType, long generation) {
+        this(entryIndex, data, entryType, generation, System.currentTimeMillis());
+    }
+
+    //used when reading entries back from the log, to keep the timestamp of the write.
+    WALEntry(Long entryIndex, byte[] data, EntryType entryType, long generation, long timeStamp) {
         this.entryIndex = entryIndex;
         this.data = data;
         this.entryType = entryType;
         this.generation = generation;
-        this.timeStamp = System.currentTimeMillis();
+        this.timeStamp = timeStamp;
     }
 
     public Long getEntryIndex() {
@@ -40,49 +46,65 @@ public class WALEntry {
         return timeStamp;
     }
 
+    //<codeFragment name="walEntryFormat">
+    //size | version | crc | entryType | generation | entryIndex | timestamp | data
+    //size is the number of bytes following it and crc is the CRC32C of all the bytes after the crc.
+    //Entries written before the crc was added have entryType right after the size.
+    //The version is chosen so that it never matches an entryType value.
+    static final int RECORD_VERSION = 0x57A10001;
+    static final int CRC_OFFSET = WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfInt;
+    static final int CRC_DATA_OFFSET = CRC_OFFSET + WriteAheadLog.sizeOfInt;
+    static final int HEADER_SIZE = CRC_DATA_OFFSET + sizeOfEntryType() + sizeOfGeneration() + sizeOfIndex() + sizeOfTimestamp();
+    static final int LEGACY_HEADER_SIZE = WriteAheadLog.sizeOfInt + sizeOfEntryType() + sizeOfGeneration() + sizeOfIndex() + sizeOfTimestamp();
+
     public ByteBuffer serialize() {
-        Integer entrySize = serializedSize();
         var bufferSize = logEntrySize(); //4 bytes for record length + walEntry size
         var buffer = ByteBuffer.allocate(bufferSize);
         buffer.clear();
-        buffer.putInt(entrySize);
+        buffer.putInt(bufferSize - WriteAheadLog.sizeOfInt);
+        buffer.putInt(RECORD_VERSION);
+        buffer.putInt(0); //crc is filled in once the rest of the entry is written.
         buffer.putInt(entryType.getValue());
         buffer.putLong(generation);
         buffer.putLong(entryIndex);
         buffer.putLong(timeStamp);
         buffer.put(data);
+        buffer.putInt(CRC_OFFSET, crcOf(buffer.array(), CRC_DATA_OFFSET, bufferSize - CRC_DATA_OFFSET));
         return buffer;
     }
 
-    public Long getGeneration() {
-        return generation;
+    static int crcOf(byte[] bytes, int offset, int length) {
+        var crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
     }
+    //</codeFragment>
 
-    Integer logEntrySize() { //4 bytes for size + size of serialized entry.
-        return WriteAheadLog.sizeOfInt + serializedSize();
+    public Long getGeneration() {
+        return generation;
     }
 
-    private Integer serializedSize() {
-        return sizeOfData() + sizeOfIndex() + sizeOfGeneration() + sizeOfEntryType() + sizeOfTimestamp(); //size of all the fields
+    Integer logEntrySize() { //size of the header + size of data.
+        return logEntrySize(data.length);
     }
 
-    private int sizeOfData() {
-        return data.length;
+    static int logEntrySize(int dataSize) {
+        return HEADER_SIZE + dataSize;
     }
 
-    private int sizeOfEntryType() {
+    private static int sizeOfEntryType() {
         return WriteAheadLog.sizeOfInt;
     }
 
-    private int sizeOfTimestamp() {
+    private static int sizeOfTimestamp() {
         return WriteAheadLog.sizeOfLong;
     }
 
-    private int sizeOfGeneration() {
+    private static int sizeOfGeneration() {
         return WriteAheadLog.sizeOfLong;
     }
 
-    private int sizeOfIndex() {
+    private static int sizeOfIndex() {
         return WriteAheadLog.sizeOfLong;
     }
 
@@ -3,10 +3,12 @@ package replicate.wal;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
 
 class WALEntryDeserializer {
-    final ByteBuffer intBuffer = ByteBuffer.allocate(WriteAheadLog.sizeOfInt);
-    final ByteBuffer longBuffer = ByteBuffer.allocate(WriteAheadLog.sizeOfLong);
+    final ByteBuffer headerBuffer = ByteBuffer.allocate(WALEntry.HEADER_SIZE);
+    //reused to verify the crc of entries while scanning the segment.
+    private ByteBuffer dataBuffer = ByteBuffer.allocate(1024);
     private FileChannel logChannel;
 
     public WALEntryDeserializer(FileChannel logChannel) {
@@ -21,65 +23,140 @@ class WALEntryDeserializer {
         }
     }
 
-    class Header {
-        long headerStartOffset;
+    static class Header {
+        final boolean hasCrc;
+        final int entrySize;
+        final int crc;
+        final int entryType;
+        final long generation;
+        final long entryIndex;
+        final long timestamp;
+
+        //headerBytes are the bytes available in the buffer starting at position.
+        //segmentBytes are the bytes left in the segment starting at the entry.
+        Header(ByteBuffer buffer, int position, long headerBytes, long segmentBytes) {
+            if (headerBytes < WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfInt) {
+                throw new CorruptLogEntryException("Partially written entry header of " + headerBytes + " bytes");
+            }
+            this.entrySize = buffer.getInt(position);
+            int versionOrEntryType = buffer.getInt(position + WriteAheadLog.sizeOfInt);
+            if (versionOrEntryType != WALEntry.RECORD_VERSION && EntryType.valueOf(versionOrEntryType) == null) {
+                throw new CorruptLogEntryException("Unknown entry version " + versionOrEntryType);
+            }
+            this.hasCrc = versionOrEntryType == WALEntry.RECORD_VERSION;
+            if (headerBytes < headerSize() || logEntrySize() < headerSize()) {
+                throw new CorruptLogEntryException("Partially written entry header of " + headerBytes + " bytes");
+            }
+            if (logEntrySize() > segmentBytes) {
+                throw new CorruptLogEntryException("Entry of size " + logEntrySize() + " is larger than the remaining " + segmentBytes + " bytes of the segment");
+            }
+            int fieldsOffset = position + (hasCrc ? WALEntry.CRC_DATA_OFFSET : WriteAheadLog.sizeOfInt);
+            this.crc = hasCrc ? buffer.getInt(position + WALEntry.CRC_OFFSET) : 0;
+            this.entryType = buffer.getInt(fieldsOffset);
+            this.generation = buffer.getLong(fieldsOffset + WriteAheadLog.sizeOfInt);
+            this.entryIndex = buffer.getLong(fieldsOffset + WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfLong);
+            this.timestamp = buffer.getLong(fieldsOffset + WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfLong);
+        }
 
-        public Header(long headerStartOffset) {
-            this.headerStartOffset = headerStartOffset;
+        int headerSize() {
+            return hasCrc ? WALEntry.HEADER_SIZE : WALEntry.LEGACY_HEADER_SIZE;
         }
 
-        Integer readEntryType() {
-            return readInteger(headerStartOffset);
+        int dataSize() {
+            return logEntrySize() - headerSize();
         }
-        Long readGeneration() {
-            return readLong(headerStartOffset + WriteAheadLog.sizeOfInt);
+
+        //4 bytes for size + size of serialized entry.
+        int logEntrySize() {
+            return WriteAheadLog.sizeOfInt + entrySize;
         }
 
-        Long readEntryId() {
-            return readLong(headerStartOffset + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfInt);
+        WALEntry toEntry(byte[] data) {
+            return new WALEntry(entryIndex, data, EntryType.valueOf(entryType), generation, timestamp);
         }
+    }
+
+    //The header is read with a single read call, followed by a single read for the data.
+    WALEntry readEntry(long startPosition) {
+        Header header = readHeader(startPosition);
+        ByteBuffer buffer = ByteBuffer.allocate(header.dataSize());
+        readFromChannel(logChannel, buffer, startPosition + header.headerSize(), header.dataSize());
+        verifyCrc(header, buffer, startPosition);
+        return header.toEntry(buffer.array());
+    }
 
-        Long readEntryTimestamp() {
-            return readLong(headerStartOffset + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfInt);
+    Header readHeader(long startPosition) {
+        try {
+            return readHeader(startPosition, logChannel.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        public int getSize() {
-            return WriteAheadLog.sizeOfInt + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfLong + WriteAheadLog.sizeOfLong;
+    //<codeFragment name="verifyEntry">
+    //Reads the complete entry and checks its crc, without allocating for the data.
+    //Used to find the last completely written entry when the segment is opened.
+    Header readVerifiedHeader(long startPosition, long segmentSize) {
+        Header header = readHeader(startPosition, segmentSize);
+        if (dataBuffer.capacity() < header.dataSize()) {
+            dataBuffer = ByteBuffer.allocate(Math.max(header.dataSize(), dataBuffer.capacity() * 2));
         }
+        readFromChannel(logChannel, dataBuffer, startPosition + header.headerSize(), header.dataSize());
+        verifyCrc(header, dataBuffer, startPosition);
+        return header;
     }
+    //</codeFragment>
 
-    WALEntry readEntry(long startPosition) {
-        Integer entrySize = readInteger(startPosition);
-        //read header
-        Header header = new Header(startPosition + WriteAheadLog.sizeOfInt);
-        Integer entryType = header.readEntryType();
-        Long generation = header.readGeneration();
-        Long entryId = header.readEntryId();
-        Long entryTimestamp = header.readEntryTimestamp();
-
-        int headerSize = header.getSize();
-        var dataSize = (entrySize - headerSize);
-        //read data
-        ByteBuffer buffer = ByteBuffer.allocate(dataSize);
-        var position = readFromChannel(logChannel, buffer, startPosition + headerSize + WriteAheadLog.sizeOfInt);
-        var bytesRead = entrySize + WriteAheadLog.sizeOfInt;
-        return new WALEntry(entryId, buffer.array(), EntryType.valueOf(entryType), generation);
+    private Header readHeader(long startPosition, long segmentSize) {
+        readFromChannel(logChannel, headerBuffer, startPosition, headerBuffer.capacity());
+        return new Header(headerBuffer, 0, headerBuffer.limit(), segmentSize - startPosition);
     }
 
-    public Long readLong(long position1) {
-        long position = readFromChannel(logChannel, longBuffer, position1);
-        return longBuffer.getLong();
+    private void verifyCrc(Header header, ByteBuffer data, long startPosition) {
+        if (!header.hasCrc) {
+            return;
+        }
+        var crc = new CRC32C();
+        crc.update(headerBuffer.array(), WALEntry.CRC_DATA_OFFSET, WALEntry.HEADER_SIZE - WALEntry.CRC_DATA_OFFSET);
+        crc.update(data.array(), 0, header.dataSize());
+        checkCrc(header, (int) crc.getValue(), startPosition);
+    }
+
+    private static void checkCrc(Header header, int crc, long startPosition) {
+        if (crc != header.crc) {
+            throw new CorruptLogEntryException("Crc mismatch for entry at position " + startPosition);
+        }
     }
 
-    public Integer readInteger(long position) {
-        readFromChannel(logChannel, intBuffer, position);
-        return intBuffer.getInt();
+    //<codeFragment name="mappedRead">
+    //Reads the entry from a memory mapped segment.
+    //The only allocation is the byte array for the entry data.
+    static WALEntry readEntry(ByteBuffer mappedSegment, int startPosition) {
+        Header header = readHeader(mappedSegment, startPosition);
+        if (header.hasCrc) {
+            var crc = new CRC32C();
+            crc.update(mappedSegment.slice(startPosition + WALEntry.CRC_DATA_OFFSET, header.logEntrySize() - WALEntry.CRC_DATA_OFFSET));
+            checkCrc(header, (int) crc.getValue(), startPosition);
+        }
+        var data = new byte[header.dataSize()];
+        mappedSegment.get(startPosition + header.headerSize(), data);
+        return header.toEntry(data);
+    }
+
+    static Header readHeader(ByteBuffer mappedSegment, int startPosition) {
+        if (startPosition < 0 || startPosition > mappedSegment.limit()) {
+            throw new CorruptLogEntryException("Position " + startPosition + " is outside the segment of size " + mappedSegment.limit());
+        }
+        int available = mappedSegment.limit() - startPosition;
+        return new Header(mappedSegment, startPosition, available, available);
     }
+    //</codeFragment>
 
-    private long readFromChannel(FileChannel channel, ByteBuffer buffer, long filePosition) {
+    private long readFromChannel(FileChannel channel, ByteBuffer buffer, long filePosition, int length) {
 
         try {
             buffer.clear();//clear to start reading.
+            buffer.limit(length);
 
             int bytesRead;
             do {
@@ -0,0 +1,49 @@
+package replicate.wal;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the entries of the WriteAheadLog, one segment at a time,
+ * reading an entry only when it is asked for. Unlike readAll, the memory needed
+ * to replay the log does not grow with the size of the log.
+ * The segments to iterate over are fixed when the iterator is created. Entries
+ * appended to the open segment while iterating are also returned.
+ */
+//<codeFragment name="walIterator">
+public class WALIterator implements Iterator<WALEntry> {
+    private final Iterator<WALSegment> segments;
+    private WALSegment currentSegment;
+    private long nextIndex;
+
+    WALIterator(List<WALSegment> segments, long startIndex) {
+        this.segments = segments.iterator();
+        this.nextIndex = startIndex;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (currentSegment == null || !currentSegment.containsIndex(nextIndex)) {
+            if (currentSegment != null && nextIndex < currentSegment.getLastLogEntryIndex()) {
+                nextIndex++; //skip missing index within the segment.
+                continue;
+            }
+            if (!segments.hasNext()) {
+                return false;
+            }
+            currentSegment = segments.next();
+            nextIndex = Math.max(nextIndex, currentSegment.getFirstLogEntryIndex());
+        }
+        return true;
+    }
+
+    @Override
+    public WALEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentSegment.readAt(nextIndex++);
+    }
+}
+//</codeFragment>
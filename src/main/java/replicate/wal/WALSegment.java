@@ -1,38 +1,92 @@
 package replicate.wal;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 public class WALSegment {
+    private static Logger logger = LogManager.getLogger(WALSegment.class);
     private static String logSuffix = ".log";
     private static String logPrefix = "wal";
     final RandomAccessFile randomAccessFile;
     final FileChannel fileChannel;
-    Map<Long, Long> entryOffsets = new HashMap<Long, Long>();
+    final WALEntryDeserializer deserializer;
+    OffsetIndex entryOffsets = new OffsetIndex();
+    //Segments which are rolled over are only read, so they are read through a memory map.
+    private MappedByteBuffer mappedSegment;
+    private boolean sealed = false;
+    private long sealedLastLogEntryTimestamp;
     private File file;
 
     private WALSegment(Long startIndex, File file) {
+        this(file, false);
+    }
+
+    private WALSegment(File file, boolean sealed) {
         try {
             this.file = file;
             this.randomAccessFile = new RandomAccessFile(file, "rw");
             this.fileChannel = randomAccessFile.getChannel();
-            //build index;
-            buildOffsetIndex();
-        } catch (FileNotFoundException e) {
+            this.deserializer = new WALEntryDeserializer(fileChannel);
+            if (sealed) {
+                loadOrBuildIndex();
+                mapSegment();
+            } else {
+                //build index;
+                buildOffsetIndex(true);
+            }
+            //new entries are always appended at the end of the segment.
+            fileChannel.position(fileChannel.size());
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    //<codeFragment name="loadIndex">
+    //Only segments which are rolled over have index files. If the index file
+    //is missing or does not match the segment, the segment is scanned and the
+    //index file is written again.
+    private void loadOrBuildIndex() throws IOException {
+        var indexFile = OffsetIndexFile.read(OffsetIndexFile.indexFileFor(file), fileChannel.size());
+        if (indexFile != null && lastEntryMatches(indexFile.offsetIndex)) {
+            entryOffsets = indexFile.offsetIndex;
+            sealedLastLogEntryTimestamp = indexFile.lastLogEntryTimestamp;
+            return;
+        }
+        buildOffsetIndex(false);
+        writeIndexFile();
+    }
+
+    private boolean lastEntryMatches(OffsetIndex offsetIndex) {
+        if (offsetIndex.isEmpty()) {
+            return size() == 0;
+        }
+        long lastIndex = offsetIndex.lastIndex();
+        try {
+            var header = deserializer.readHeader(offsetIndex.positionOf(lastIndex));
+            return header.entryIndex == lastIndex
+                    && offsetIndex.positionOf(lastIndex) + header.logEntrySize() == size();
+
+        } catch (CorruptLogEntryException e) {
+            return false;
+        }
+    }
+
+    private void writeIndexFile() {
+        sealedLastLogEntryTimestamp = readLastLogEntryTimestamp();
+        OffsetIndexFile.write(OffsetIndexFile.indexFileFor(file), entryOffsets, size(), sealedLastLogEntryTimestamp);
+    }
+    //</codeFragment>
+
     public synchronized String getFileName() {
         return file.getPath();
     }
@@ -50,67 +104,134 @@ public class WALSegment {
         return new WALSegment(getBaseOffsetFromFileName(file.getName()), file);
     }
 
-    public synchronized List<WALEntry> readFrom(Long starIndex) {
-            var entries = new ArrayList<WALEntry>();
-            var deserializer = new WALEntryDeserializer(fileChannel);
-            List<Long> indexes = entryOffsets.keySet().stream().filter(index -> index >= starIndex).collect(Collectors.toList());
-            for (Long index : indexes) {
-                var entryOffset = entryOffsets.get(index);
-                try {
-                    WALEntry entry = deserializer.readEntry(entryOffset);
-                    entries.add(entry);
+    //Opens a segment which was rolled over earlier, using its index file.
+    public static WALSegment openSealed(File file) {
+        return new WALSegment(file, true);
+    }
 
-                } catch (Exception e) {
-                      throw new RuntimeException("Error reading from entryOffset " + entryOffset, e);
-                }
-            }
-            return entries;
+    //<codeFragment name="sealSegment">
+    //Called when the segment is rolled over. No more entries can be written to it.
+    public synchronized void seal() {
+        flush();
+        writeIndexFile();
+        mapSegment();
     }
+    //</codeFragment>
 
-    public synchronized void buildOffsetIndex() {
+    private void mapSegment() {
+        sealed = true;
         try {
-            entryOffsets = new HashMap<>();
-            var totalBytesRead = 0L;
-            var deserializer = new WALEntryDeserializer(fileChannel);
-            while (totalBytesRead < fileChannel.size()) {
-                WALEntry entry = deserializer.readEntry(totalBytesRead);
-                entryOffsets.put(entry.getEntryIndex(), totalBytesRead);
-                totalBytesRead += entry.logEntrySize(); //size of entry + size of int which stores length
+            long size = fileChannel.size();
+            //A MappedByteBuffer can not be larger than 2GB, such segments are read through the channel.
+            if (size > 0 && size <= Integer.MAX_VALUE) {
+                mappedSegment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
             }
-
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public synchronized List<WALEntry> readAll() {
+    public synchronized boolean isSealed() {
+        return sealed;
+    }
+
+    public synchronized List<WALEntry> readFrom(Long starIndex) {
+        var entries = new ArrayList<WALEntry>();
+        if (entryOffsets.isEmpty()) {
+            return entries;
+        }
+        long fromIndex = Math.max(starIndex, entryOffsets.firstIndex());
+        for (long index = fromIndex; index <= entryOffsets.lastIndex(); index++) {
+            var entryOffset = entryOffsets.positionOf(index);
+            if (entryOffset == OffsetIndex.NO_POSITION) {
+                continue;
+            }
+            try {
+                entries.add(readEntryAtPosition(entryOffset));
+
+            } catch (Exception e) {
+                throw new RuntimeException("Error reading from entryOffset " + entryOffset, e);
+            }
+        }
+        return entries;
+    }
+
+    //<codeFragment name="tailRepair">
+    //Every entry is verified against its crc while building the index.
+    //A crash can leave a partially written entry at the end of the segment.
+    //The open segment is truncated at the first such entry, so that new entries
+    //are appended after the last complete entry. Rolled over segments were complete when they were
+    //sealed, and the entries after a corrupt one are not in any other segment, so they are not truncated.
+    private synchronized void buildOffsetIndex(boolean truncateCorruptTail) {
         try {
+            entryOffsets = new OffsetIndex();
             var totalBytesRead = 0L;
-            var entries = new ArrayList<WALEntry>();
-            var deserializer = new WALEntryDeserializer(fileChannel);
-            while (totalBytesRead < fileChannel.size()) {
-                WALEntry entry = deserializer.readEntry(totalBytesRead);
-                totalBytesRead += entry.logEntrySize(); //size of entry + size of int which stores length
-                entries.add(entry);
+            var fileSize = fileChannel.size();
+            while (totalBytesRead < fileSize) {
+                try {
+                    WALEntryDeserializer.Header header = deserializer.readVerifiedHeader(totalBytesRead, fileSize);
+                    entryOffsets.put(header.entryIndex, totalBytesRead);
+                    totalBytesRead += header.logEntrySize(); //size of entry + size of int which stores length
+
+                } catch (CorruptLogEntryException e) {
+                    if (!truncateCorruptTail) {
+                        throw new CorruptLogEntryException("Sealed segment " + getFileName() + " is corrupt at " + totalBytesRead + " bytes. " + e.getMessage());
+                    }
+                    logger.warn("Truncating " + getFileName() + " of size " + fileSize + " to " + totalBytesRead + " bytes. " + e.getMessage());
+                    fileChannel.truncate(totalBytesRead);
+                    fileChannel.force(true);
+                    break;
+                }
             }
-            return entries;
+
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+    //</codeFragment>
+
+    public synchronized List<WALEntry> readAll() {
+        return readFrom(entryOffsets.firstIndex());
+    }
+
+    private WALEntry readEntryAtPosition(long filePosition) {
+        if (mappedSegment != null) {
+            return WALEntryDeserializer.readEntry(mappedSegment, (int) filePosition);
+        }
+        return deserializer.readEntry(filePosition);
+    }
+
+    private WALEntryDeserializer.Header readHeaderAtPosition(long filePosition) {
+        if (mappedSegment != null) {
+            return WALEntryDeserializer.readHeader(mappedSegment, (int) filePosition);
+        }
+        return deserializer.readHeader(filePosition);
+    }
 
     public synchronized Long getLastLogEntryTimestamp() {
+        if (sealed) {
+            return sealedLastLogEntryTimestamp;
+        }
+        return readLastLogEntryTimestamp();
+    }
+
+    private long readLastLogEntryTimestamp() {
         if (entryOffsets.isEmpty()) {
             return 0l;
         }
-        return readAt(getLastLogEntryIndex()).getTimeStamp();
+        return readHeaderAtPosition(entryOffsets.positionOf(getLastLogEntryIndex())).timestamp;
+    }
+
+    public synchronized Long getFirstLogEntryIndex() {
+        return entryOffsets.firstIndex();
     }
 
     public synchronized Long getLastLogEntryIndex() {
-        return entryOffsets.keySet().stream().max(Long::compareTo).orElse(0l);
+        return entryOffsets.lastIndex();
     }
 
     public synchronized Long writeEntry(WALEntry logEntry) {
+        checkNotSealed();
         try {
             long entryOffset = fileChannel.size();
             writeToChannel(logEntry.serialize());
@@ -121,6 +242,50 @@ public class WALSegment {
         }
     }
 
+    private void checkNotSealed() {
+        if (isSealed()) {
+            throw new IllegalStateException("Can not write to sealed segment " + getFileName());
+        }
+    }
+
+    //<codeFragment name="groupCommitWrite">
+    //All the entries are written with a single gathering write and a single fsync.
+    public synchronized List<Long> writeEntries(List<WALEntry> logEntries) {
+        if (logEntries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        checkNotSealed();
+        try {
+            long entryOffset = fileChannel.size();
+            var buffers = new ByteBuffer[logEntries.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = logEntries.get(i).serialize();
+                buffers[i].flip();
+            }
+            writeToChannel(buffers);
+
+            var entryIndexes = new ArrayList<Long>(logEntries.size());
+            for (int i = 0; i < buffers.length; i++) {
+                WALEntry logEntry = logEntries.get(i);
+                entryOffsets.put(logEntry.getEntryIndex(), entryOffset);
+                entryOffset += buffers[i].limit();
+                entryIndexes.add(logEntry.getEntryIndex());
+            }
+            return entryIndexes;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeToChannel(ByteBuffer[] buffers) throws IOException {
+        var lastBuffer = buffers[buffers.length - 1];
+        while (lastBuffer.hasRemaining()) {
+            fileChannel.write(buffers);
+        }
+        flush();
+    }
+    //</codeFragment>
+
     private Long writeToChannel(ByteBuffer buffer) {
         try {
             buffer.flip();
@@ -156,15 +321,30 @@ public class WALSegment {
 
     //<codeFragment name="logTruncation">
     public synchronized  void truncate(Long logIndex) throws IOException {
-        var filePosition = entryOffsets.get(logIndex);
-        if (filePosition == null) throw new IllegalArgumentException("No file position available for logIndex=" + logIndex);
+        checkNotSealed();
+        var filePosition = entryOffsets.positionOf(logIndex);
+        if (filePosition == OffsetIndex.NO_POSITION) throw new IllegalArgumentException("No file position available for logIndex=" + logIndex);
 
         fileChannel.truncate(filePosition);
         truncateIndex(logIndex);
     }
 
     private void truncateIndex(Long logIndex) {
-        entryOffsets.entrySet().removeIf(entry -> entry.getKey() >= logIndex);
+        entryOffsets.truncateFrom(logIndex);
+    }
+
+    //Used when the log is truncated to an entry in a rolled over segment, so that
+    //the segment can be truncated and written to again.
+    //The index file is deleted, it is written again when the segment is rolled over.
+    public synchronized WALSegment reopenForWrites() {
+        try {
+            mappedSegment = null;
+            fileChannel.close();
+            Files.deleteIfExists(OffsetIndexFile.indexFileFor(file).toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return open(file);
     }
     //</codeFragment>
 
@@ -173,6 +353,11 @@ public class WALSegment {
         return logPrefix + "_" + startIndex + logSuffix;
     }
 
+    public static boolean isSegmentFile(File file) {
+        var fileName = file.getName();
+        return fileName.startsWith(logPrefix + "_") && fileName.endsWith(logSuffix);
+    }
+
     public static Long getBaseOffsetFromFileName(String fileName) {
         String[] nameAndSuffix = fileName.split(logSuffix);
         String[] prefixAndOffset = nameAndSuffix[0].split("_");
@@ -192,21 +377,26 @@ public class WALSegment {
 
     public synchronized void delete() {
         try {
+            mappedSegment = null;
             fileChannel.close();
             randomAccessFile.close();
             Files.deleteIfExists(file.toPath());
+            Files.deleteIfExists(OffsetIndexFile.indexFileFor(file).toPath());
 
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public WALEntry readAt(Long index) {
-        var filePosition = entryOffsets.get(index);
-        if (filePosition == null) {
+    public synchronized boolean containsIndex(Long index) {
+        return entryOffsets.contains(index);
+    }
+
+    public synchronized WALEntry readAt(Long index) {
+        var filePosition = entryOffsets.positionOf(index);
+        if (filePosition == OffsetIndex.NO_POSITION) {
             throw new IllegalArgumentException("No file position available for logIndex=" + index);
         }
-        var deserializer = new WALEntryDeserializer(fileChannel);
-        return deserializer.readEntry(filePosition);
+        return readEntryAtPosition(filePosition);
     }
 }
@@ -5,15 +5,21 @@ import replicate.common.Config;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 public class WriteAheadLog {
     static int sizeOfInt = 4;
     static int sizeOfLong = 8;
     final TimeBasedLogCleaner logCleaner;
+    private final GroupCommitter groupCommitter;
     public WALSegment openSegment;
     private Config config;
     //Segments are kept sorted in ascending order of log indexes.
@@ -25,22 +31,31 @@ public class WriteAheadLog {
         return new WriteAheadLog(openAllSegments(config.getWalDir()), config);
     }
 
+    //<codeFragment name="openSegments">
+    //Only the last segment is scanned to build its index.
+    //All the other segments are rolled over, and their index is loaded from the index files.
     private static List<WALSegment> openAllSegments(File walDir) {
+        List<File> walFiles = new ArrayList<>();
+        for (File walFile : walDir.listFiles()) {
+            if (WALSegment.isSegmentFile(walFile)) {
+                walFiles.add(walFile);
+            }
+        }
+        //compare ascending for baseoffsets
+        walFiles.sort(Comparator.comparing(walFile -> WALSegment.getBaseOffsetFromFileName(walFile.getName())));
+
         List<WALSegment> segments = new ArrayList<>();
-        File[] walFiles = walDir.listFiles();
-        for (File walFile : walFiles) {
-            String name = walFile.getName();
-            Long baseOffset = WALSegment.getBaseOffsetFromFileName(name);
-            segments.add(WALSegment.open(walFile));
+        for (int i = 0; i < walFiles.size() - 1; i++) {
+            segments.add(WALSegment.openSealed(walFiles.get(i)));
         }
-        if (segments.size() == 0) {
+        if (walFiles.isEmpty()) {
             segments.add(WALSegment.open(0l, walDir));
+        } else {
+            segments.add(WALSegment.open(walFiles.get(walFiles.size() - 1)));
         }
-
-        //compare ascending for baseoffsets
-        Collections.sort(segments, Comparator.comparing(WALSegment::getBaseOffset));
         return segments;
     }
+    //</codeFragment>
 
     public WriteAheadLog(List<WALSegment> segmentsSortedByIndex, Config config) {
         sortedSavedSegments = segmentsSortedByIndex;
@@ -50,6 +65,13 @@ public class WriteAheadLog {
         this.logCleaner = newLogCleaner(config);
         this.logCleaner.startup();
        //</codeFragment>
+        this.groupCommitter = config.isGroupCommit() ? startGroupCommitter(config) : null;
+    }
+
+    private GroupCommitter startGroupCommitter(Config config) {
+        var committer = new GroupCommitter(this, config);
+        committer.start();
+        return committer;
     }
 
     private int lastIndex() {
@@ -70,10 +92,22 @@ public class WriteAheadLog {
         return openSegment.writeEntry(entry);
     }
 
+    //Writes entries with the indexes already assigned, e.g. the entries replicated from a leader.
+    //All the entries are written with a single fsync.
+    public synchronized List<Long> writeEntries(List<WALEntry> entries) {
+        //e.g. heartbeats. Rolling over here would leave an empty open segment,
+        //which has 0 as the last log index.
+        if (entries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        maybeRoll();
+        return openSegment.writeEntries(entries);
+    }
+
     private void maybeRoll() {
         if (openSegment.
                 size() >= config.getMaxLogSize()) {
-            openSegment.flush();
+            openSegment.seal();
             sortedSavedSegments.add(openSegment);
             long lastId = openSegment.getLastLogEntryIndex();
             openSegment = WALSegment.open(lastId, config.getWalDir());
@@ -81,13 +115,41 @@ public class WriteAheadLog {
     }
     //</codeFragment>
 
-    public synchronized List<WALEntry> readAll() {
-        List<WALEntry> walEntries = new ArrayList<>();
-        for (WALSegment sortedSavedSegment : sortedSavedSegments) {
-            walEntries.addAll(sortedSavedSegment.readAll());
+    //<codeFragment name="groupCommit">
+    //Completes once the entry is flushed to the disk.
+    //With group commit enabled, concurrent writes share a single fsync.
+    public CompletableFuture<Long> writeEntryAsync(WALEntry entry) {
+        if (groupCommitter == null) {
+            return CompletableFuture.completedFuture(writeEntry(entry));
+        }
+        return groupCommitter.submit(new GroupCommitter.PendingWrite(entry));
+    }
+
+    //The log index is assigned when the entry is written,
+    //so the returned future completes with the index of the entry.
+    public CompletableFuture<Long> writeEntryAsync(byte[] data, long generation) {
+        if (groupCommitter == null) {
+            return CompletableFuture.completedFuture(writeEntry(data, generation));
+        }
+        return groupCommitter.submit(new GroupCommitter.PendingWrite(data, generation));
+    }
+
+    synchronized List<Long> writeBatch(List<GroupCommitter.PendingWrite> batch) {
+        maybeRoll();
+        var entries = new ArrayList<WALEntry>(batch.size());
+        var nextIndex = getLastLogIndex() + 1;
+        for (GroupCommitter.PendingWrite pendingWrite : batch) {
+            WALEntry entry = pendingWrite.toEntry(nextIndex);
+            entries.add(entry);
+            nextIndex = entry.getEntryIndex() + 1;
         }
-        walEntries.addAll(openSegment.readAll());
-        return walEntries;
+        return openSegment.writeEntries(entries);
+    }
+    //</codeFragment>
+
+    //Prefer iterator() to replay large logs, this reads the whole log in memory.
+    public synchronized List<WALEntry> readAll() {
+        return readFrom(0l);
     }
 
 
@@ -96,10 +158,35 @@ public class WriteAheadLog {
     }
 
     public void close() {
+        logCleaner.shutdown();
+        if (groupCommitter != null) {
+            groupCommitter.shutdown();
+        }
         openSegment.close();
     }
 
+    //Removes logIndex and all the entries after it, which can span rolled over segments.
+    //The segments after the one containing logIndex are deleted, and that segment
+    //is opened for writes again.
     public synchronized void truncate(Long logIndex)  {
+        var segment = segmentContaining(logIndex);
+        if (!segment.containsIndex(logIndex)) {
+            throw new IllegalArgumentException("No log entry available for logIndex=" + logIndex);
+        }
+        if (segment != openSegment) {
+            openSegment.delete();
+            while (sortedSavedSegments.get(lastIndex()) != segment) {
+                sortedSavedSegments.remove(lastIndex()).delete();
+            }
+            openSegment = sortedSavedSegments.remove(lastIndex()).reopenForWrites();
+        }
+        //An empty segment has 0 as the last log index, so a segment left
+        //without entries is deleted, unless it is the only one.
+        if (openSegment.getFirstLogEntryIndex().equals(logIndex) && !sortedSavedSegments.isEmpty()) {
+            openSegment.delete();
+            openSegment = sortedSavedSegments.remove(lastIndex()).reopenForWrites();
+            return;
+        }
         try {
             openSegment.truncate(logIndex);
         } catch (IOException e) {
@@ -108,49 +195,64 @@ public class WriteAheadLog {
     }
 
     public synchronized WALEntry readAt(Long index) {
-        return openSegment.readAt(index);
-//        List<WALEntry> walEntries = readFrom(index);
-//        return walEntries.get(0); //get first entry
+        return segmentContaining(index).readAt(index);
+    }
+
+    private WALSegment segmentContaining(Long index) {
+        if (openSegment.containsIndex(index)) {
+            return openSegment;
+        }
+        for (int i = sortedSavedSegments.size() - 1; i >= 0; i--) {
+            WALSegment segment = sortedSavedSegments.get(i);
+            if (segment.containsIndex(index)) {
+                return segment;
+            }
+        }
+        return openSegment; //readAt fails with the missing index.
     }
 
     //<codeFragment name="segmentRead">
     public synchronized List<WALEntry> readFrom(Long startIndex) {
-        List<WALSegment> segments = getAllSegmentsContainingLogGreaterThan(startIndex);
-        return readWalEntriesFrom(startIndex, segments);
+        return stream(startIndex).collect(Collectors.toList());
     }
     //</codeFragment>
 
-    private List<WALEntry> readWalEntriesFrom(Long startIndex, List<WALSegment> segments) {
-        List<WALEntry> allEntries = new ArrayList<>();
-        for (WALSegment segment : segments) {
-            List<WALEntry> walEntries = segment.readFrom(startIndex);
-            allEntries.addAll(walEntries);
-        }
-        return allEntries;
+    //<codeFragment name="streamingRead">
+    //Entries are read one at a time as the iterator is advanced.
+    public synchronized WALIterator iterator(long startIndex) {
+        return new WALIterator(getAllSegmentsContainingLogGreaterThan(startIndex), startIndex);
     }
 
+    public synchronized WALIterator iterator() {
+        return iterator(0l);
+    }
+
+    public Stream<WALEntry> stream(long startIndex) {
+        var spliterator = Spliterators.spliteratorUnknownSize(iterator(startIndex), Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+    //</codeFragment>
+
     //<codeFragment name="segmentSelection">
     private List<WALSegment> getAllSegmentsContainingLogGreaterThan(Long startIndex) {
         List<WALSegment> segments = new ArrayList<>();
-        //Start from the last segment to the first segment with starting offset less than startIndex
-        //This will get all the segments which have log entries more than the startIndex
-        for (int i = sortedSavedSegments.size() - 1; i >= 0; i--) {
-            WALSegment walSegment = sortedSavedSegments.get(i);
-            segments.add(walSegment);
-
-            if (walSegment.getBaseOffset() <= startIndex) {
-                break; // break for the first segment with baseoffset less than startIndex
+        //Segments are sorted in ascending order of log indexes.
+        //Skip the segments which have all their log entries before the startIndex.
+        for (WALSegment walSegment : sortedSavedSegments) {
+            if (walSegment.getLastLogEntryIndex() >= startIndex) {
+                segments.add(walSegment);
             }
         }
-
-        if (openSegment.getBaseOffset() <= startIndex) {
-            segments.add(openSegment);
-        }
-
+        segments.add(openSegment);
         return segments;
     }
     //</codeFragment>
 
+    //A copy, so that the log cleaner can go over the segments while new segments are rolled over.
+    synchronized List<WALSegment> rolledOverSegments() {
+        return new ArrayList<>(sortedSavedSegments);
+    }
+
     public synchronized void removeAndDeleteSegment(WALSegment walSegment) {
         int index = indexOf(walSegment);
         sortedSavedSegments.remove(index);
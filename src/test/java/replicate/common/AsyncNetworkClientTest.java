@@ -0,0 +1,103 @@
+package replicate.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import replicate.net.InetAddressAndPort;
+import replicate.net.NIOSocketListener;
+import replicate.quorum.messages.GetValueRequest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class AsyncNetworkClientTest {
+    private InetAddressAndPort listenAddress;
+    private NIOSocketListener listener;
+    private AsyncNetworkClient client;
+
+    //responds with the key, except for the keys starting with 'drop'.
+    @Before
+    public void startEchoListener() throws IOException {
+        listenAddress = TestUtils.randomLocalAddress();
+        listener = new NIOSocketListener(message -> {
+            var request = message.messagePayload();
+            var key = JsonSerDes.deserialize(request.getMessageBodyJson(), GetValueRequest.class).getKey();
+            if (!key.startsWith("drop")) {
+                message.getClientConnection().write(new RequestOrResponse(request.getRequestId(), JsonSerDes.serialize(key), message.getCorrelationId()));
+            }
+        }, listenAddress, new CborWireCodec());
+        listener.start();
+        client = new AsyncNetworkClient(new Config().withClientConnectionsPerNode(2).withClientRequestTimeoutMs(5000));
+    }
+
+    @After
+    public void shutdown() {
+        client.close();
+        listener.shudown();
+    }
+
+    @Test
+    public void matchesPipelinedResponsesToRequests() throws Exception {
+        List<CompletableFuture<NetworkClient.Response<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            responses.add(client.sendAsync(new GetValueRequest("key" + i), listenAddress, String.class));
+        }
+
+        for (int i = 0; i < responses.size(); i++) {
+            var response = responses.get(i).get();
+            assertTrue(response.isSuccess());
+            assertEquals("key" + i, response.getResult());
+        }
+        assertEquals(0, client.getInflightRequests());
+    }
+
+    @Test
+    public void failsRequestsWithoutResponseAfterTimeout() throws Exception {
+        var dropped = client.sendAsync(new GetValueRequest("drop"), listenAddress, String.class, 200);
+        var answered = client.sendAsync(new GetValueRequest("key"), listenAddress, String.class, 200);
+
+        assertEquals("key", answered.get().getResult());
+        var e = assertThrows(ExecutionException.class, dropped::get);
+        assertTrue(e.getCause() instanceof TimeoutException);
+        TestUtils.waitUntilTrue(() -> client.getInflightRequests() == 0, "Waiting for the timed out request to be removed", Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void failsInflightRequestsWhenConnectionCloses() throws Exception {
+        var dropped = client.sendAsync(new GetValueRequest("drop"), listenAddress, String.class);
+        TestUtils.waitUntilTrue(() -> client.getInflightRequests() == 1, "Waiting for the request to be sent", Duration.ofSeconds(5));
+
+        listener.shudown();
+
+        var e = assertThrows(ExecutionException.class, dropped::get);
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void sendDoesNotWaitForTheConnection() throws Exception {
+        //connecting to a non-routable address does not complete till the connect timeout.
+        var unroutable = InetAddressAndPort.create("10.255.255.1", 9000);
+
+        long start = System.nanoTime();
+        var response = client.sendAsync(new GetValueRequest("key"), unroutable, String.class);
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+
+        var e = assertThrows(ExecutionException.class, response::get);
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void failsRequestsToUnreachableNode() {
+        var response = client.sendAsync(new GetValueRequest("key"), TestUtils.randomLocalAddress(), String.class);
+
+        var e = assertThrows(ExecutionException.class, response::get);
+        assertTrue(e.getCause() instanceof IOException);
+    }
+}
@@ -0,0 +1,91 @@
+package replicate.common;
+
+import org.junit.Test;
+import replicate.net.InetAddressAndPort;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.vsr.messages.Prepare;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryWireCodecTest {
+
+    @Test
+    public void encodesAndDecodesHeaderAndPayload() throws Exception {
+        var fromAddress = new InetAddressAndPort(InetAddress.getByName("127.0.0.1"), 9000);
+        var message = new RequestOrResponse(5, MessageId.Prepare.getId(), "payload".getBytes(), 42, fromAddress).setError();
+
+        var codec = new BinaryWireCodec();
+        var decoded = codec.decode(ByteBuffer.wrap(codec.encode(message)));
+
+        assertEquals(message, decoded);
+        assertTrue(decoded.isError());
+        assertFalse(decoded.hasBinaryPayload());
+    }
+
+    @Test
+    public void encodesMessageWithoutFromAddress() {
+        var message = new RequestOrResponse(MessageId.Commit.getId(), "payload".getBytes(), 7);
+
+        var codec = new BinaryWireCodec();
+        var decoded = codec.decode(ByteBuffer.wrap(codec.encode(message)));
+
+        assertEquals(message, decoded);
+        assertNull(decoded.getFromAddress());
+    }
+
+    @Test
+    public void cborCodecEncodesPayloadReferringToReceivedBuffer() {
+        var received = new BinaryWireCodec().decode(ByteBuffer.wrap(
+                new BinaryWireCodec().encode(new RequestOrResponse(MessageId.Commit.getId(), "payload".getBytes(), 7))));
+
+        var codec = new CborWireCodec();
+        var decoded = codec.decode(ByteBuffer.wrap(codec.encode(received)));
+
+        assertArrayEquals("payload".getBytes(), decoded.getMessageBodyJson());
+        assertEquals(received, decoded);
+    }
+
+    @Test
+    public void decodesBinaryEncodedPayload() {
+        var payloadCodecs = new PayloadCodecs();
+        payloadCodecs.register(Prepare.class, Prepare.CODEC);
+        var prepare = new Prepare(3, List.of(new ExecuteCommandRequest("command".getBytes())), 7, 5);
+        var message = new RequestOrResponse(MessageId.Prepare.getId(), payloadCodecs.encode(prepare), 1).withBinaryPayload();
+
+        var codec = new BinaryWireCodec();
+        var decoded = codec.decode(ByteBuffer.wrap(codec.encode(message)));
+
+        assertTrue(decoded.hasBinaryPayload());
+        var decodedPrepare = payloadCodecs.decode(decoded.getMessageBodyJson(), Prepare.class);
+        assertEquals(3, decodedPrepare.viewNumber);
+        assertEquals("command", new String(decodedPrepare.requests.get(0).command));
+        assertEquals(7, decodedPrepare.opNumber);
+        assertEquals(5, decodedPrepare.commitNumber);
+    }
+
+    @Test
+    public void writesBinaryPayloadDirectlyIntoFrame() throws Exception {
+        var payloadCodecs = new PayloadCodecs();
+        payloadCodecs.register(Prepare.class, Prepare.CODEC);
+        var prepare = new Prepare(3, List.of(new ExecuteCommandRequest("command".getBytes())), 7, 5);
+        var fromAddress = new InetAddressAndPort(InetAddress.getByName("127.0.0.1"), 9000);
+        var message = new RequestOrResponse(MessageId.Prepare.getId(), os -> payloadCodecs.encode(prepare, os), 1, fromAddress);
+
+        var codec = new BinaryWireCodec();
+        ByteBuffer frame = codec.encodeFrame(message);
+        assertEquals(frame.remaining() - Integer.BYTES, frame.getInt());
+        var decoded = codec.decode(frame);
+
+        assertFalse(frame.hasRemaining());
+        assertTrue(decoded.hasBinaryPayload());
+        assertEquals(fromAddress, decoded.getFromAddress());
+        var decodedPrepare = payloadCodecs.decode(decoded.getPayload(), Prepare.class);
+        assertEquals("command", new String(decodedPrepare.requests.get(0).command));
+        assertEquals(7, decodedPrepare.opNumber);
+        assertArrayEquals(payloadCodecs.encode(prepare), decoded.getMessageBodyJson());
+    }
+}
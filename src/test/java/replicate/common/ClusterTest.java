@@ -2,18 +2,64 @@ package replicate.common;
 
 import org.junit.After;
 import org.junit.Before;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertTrue;
 
 public abstract class ClusterTest<T extends Replica> {
     protected Map<String, T> nodes = new HashMap<String, T>();
+    private AsyncNetworkClient client;
+
     @Before
     public void setUp() throws IOException {
     }
     @After
     public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
         nodes.values().stream().forEach(n -> n.shutdown());
     }
+
+    protected void startCluster(TestUtils.ReplicaFactory<T> factory) throws IOException {
+        nodes = TestUtils.startCluster(Arrays.asList("athens", "byzantium", "cyrene"), factory);
+    }
+
+    //Client for sending concurrent requests. Closed after the test.
+    protected AsyncNetworkClient client() throws IOException {
+        if (client == null) {
+            client = new AsyncNetworkClient(new Config());
+        }
+        return client;
+    }
+
+    protected List<CompletableFuture<NetworkClient.Response<ExecuteCommandResponse>>> sendCommands(Replica replica, int fromIndex, int toIndex, IntFunction<SetValueCommand> command) throws IOException {
+        List<CompletableFuture<NetworkClient.Response<ExecuteCommandResponse>>> responses = new ArrayList<>();
+        for (int i = fromIndex; i < toIndex; i++) {
+            responses.add(client().sendAsync(new ExecuteCommandRequest(command.apply(i).serialize()), replica.getClientConnectionAddress(), ExecuteCommandResponse.class));
+        }
+        return responses;
+    }
+
+    //Sets keyPrefix + i to "value" + i.
+    protected List<CompletableFuture<NetworkClient.Response<ExecuteCommandResponse>>> sendSetValueCommands(Replica replica, String keyPrefix, int fromIndex, int toIndex) throws IOException {
+        return sendCommands(replica, fromIndex, toIndex, i -> new SetValueCommand(keyPrefix + i, "value" + i));
+    }
+
+    protected static void assertAllSucceeded(List<CompletableFuture<NetworkClient.Response<ExecuteCommandResponse>>> responses) throws Exception {
+        for (var response : responses) {
+            assertTrue(response.get().isSuccess());
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package replicate.common;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.cfg.ConstructorDetector;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import replicate.net.InetAddressAndPort;
+import replicate.quorum.messages.SetValueRequest;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/**
+ * Compares the cost of encoding and decoding a network message with the cached
+ * mappers in JsonSerDes against creating a new ObjectMapper for every call.
+ * Reports messages per second and bytes allocated per message.
+ */
+public class JsonSerDesPerformanceTest {
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    interface SerDes {
+        byte[] serialize(Object obj) throws Exception;
+
+        <T> T deserialize(byte[] bytes, Class<T> clazz) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SerDes cached = new SerDes() {
+            @Override
+            public byte[] serialize(Object obj) {
+                return JsonSerDes.serialize(obj);
+            }
+
+            @Override
+            public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+                return JsonSerDes.deserialize(bytes, clazz);
+            }
+        };
+        SerDes newMapperPerCall = new SerDes() {
+            @Override
+            public byte[] serialize(Object obj) throws Exception {
+                var objectMapper = new ObjectMapper(new CBORFactory());
+                objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+                objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+                objectMapper.registerModule(new Jdk8Module());
+                return objectMapper.writeValueAsBytes(obj);
+            }
+
+            @Override
+            public <T> T deserialize(byte[] bytes, Class<T> clazz) throws Exception {
+                var objectMapper = new ObjectMapper(new CBORFactory());
+                objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+                objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                objectMapper.registerModule(new ParameterNamesModule(JsonCreator.Mode.PROPERTIES));
+                objectMapper.registerModule(new Jdk8Module());
+                objectMapper.setConstructorDetector(ConstructorDetector.USE_PROPERTIES_BASED);
+                return objectMapper.readValue(bytes, clazz);
+            }
+        };
+
+        run("new ObjectMapper per call", newMapperPerCall);
+        run("cached ObjectReader/ObjectWriter", cached);
+    }
+
+    private static void run(String name, SerDes serDes) throws Exception {
+        roundTrips(serDes, WARMUP_ITERATIONS);
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        roundTrips(serDes, ITERATIONS);
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.println(name);
+        System.out.println("  messages/sec       = " + (ITERATIONS * 1_000_000_000L / duration.toNanos()));
+        System.out.println("  micros/message     = " + (duration.toNanos() / 1000.0 / ITERATIONS));
+        System.out.println("  bytes allocated/message = " + (allocated / ITERATIONS));
+    }
+
+    //encodes and decodes a request the way it is sent over the network.
+    private static void roundTrips(SerDes serDes, int iterations) throws Exception {
+        InetAddressAndPort from = InetAddressAndPort.create("127.0.0.1", 9000);
+        for (int i = 0; i < iterations; i++) {
+            var request = new SetValueRequest("key" + i, "value" + i, 1, i, i);
+            var message = new RequestOrResponse(MessageId.SetValueRequest.getId(), serDes.serialize(request), i, from);
+            byte[] bytes = serDes.serialize(message);
+
+            var received = serDes.deserialize(bytes, RequestOrResponse.class);
+            serDes.deserialize(received.getMessageBodyJson(), SetValueRequest.class);
+        }
+    }
+
+    private static long allocatedBytes() {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,41 @@
+package replicate.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import replicate.net.InetAddressAndPort;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.Assert.assertTrue;
+
+public class NetworkTest {
+    private Network network;
+
+    @Before
+    public void createNetwork() throws IOException {
+        network = new Network("athens", WireCodec.forConfig(new Config()));
+    }
+
+    @After
+    public void shutdown() {
+        network.shutdown();
+    }
+
+    @Test
+    public void sendsToUnreachablePeerDoNotWaitForTheConnection() throws IOException {
+        //connecting to a non-routable address does not complete till the connect timeout.
+        var unroutable = InetAddressAndPort.create("10.255.255.1", 9000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            try {
+                network.sendOneWay(unroutable, new RequestOrResponse(MessageId.HeartBeatRequest.getId(), new byte[0], i));
+            } catch (IOException e) {
+                //Some networks reject the address right away, which is reported like before.
+            }
+        }
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+    }
+}
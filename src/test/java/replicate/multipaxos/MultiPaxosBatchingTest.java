@@ -0,0 +1,49 @@
+package replicate.multipaxos;
+
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.TestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * With command batching, the leader replicates concurrent client commands
+ * as a single log entry, and each client still gets the response for its own command.
+ */
+public class MultiPaxosBatchingTest extends ClusterTest<MultiPaxos> {
+    private MultiPaxos athens;
+    private MultiPaxos byzantium;
+    private MultiPaxos cyrene;
+
+    @Before
+    public void setupBatchingCluster() throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peers) ->
+                new MultiPaxos(name, clock, config.withCommandBatching(50, Duration.ofMillis(5)),
+                        clientConnectionAddress, peerConnectionAddress, peers));
+        athens = nodes.get("athens");
+        byzantium = nodes.get("byzantium");
+        cyrene = nodes.get("cyrene");
+    }
+
+    @Test
+    public void replicatesConcurrentCommandsAsBatches() throws Exception {
+        athens.leaderElection();
+        TestUtils.waitUntilTrue(() -> athens.isLeader(), "Waiting for leader election", Duration.ofSeconds(2));
+
+        var responses = sendSetValueCommands(athens, "key", 0, 200);
+
+        for (int i = 0; i < responses.size(); i++) {
+            var response = responses.get(i).get();
+            assertTrue(response.isSuccess());
+            assertEquals("value" + i, response.getResult().getResponse().get());
+        }
+        assertTrue("Commands should share log entries", athens.paxosLog.size() < responses.size());
+        TestUtils.waitUntilTrue(() -> "value199".equals(byzantium.getValue("key199"))
+                && "value199".equals(cyrene.getValue("key199")), "Waiting for followers to apply the batches", Duration.ofSeconds(5));
+        assertEquals("value0", cyrene.getValue("key0"));
+    }
+}
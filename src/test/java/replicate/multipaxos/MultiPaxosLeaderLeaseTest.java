@@ -0,0 +1,113 @@
+package replicate.multipaxos;
+
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.MessageId;
+import replicate.common.MonotonicId;
+import replicate.common.NetworkClient;
+import replicate.common.TestUtils;
+import replicate.paxos.messages.GetValueResponse;
+import replicate.quorum.messages.GetValueRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * With leader leases, reads are served from the leader's state without a Paxos round,
+ * and no other node can become the leader while the lease is valid.
+ */
+public class MultiPaxosLeaderLeaseTest extends ClusterTest<MultiPaxos> {
+    private MultiPaxos athens;
+    private MultiPaxos byzantium;
+    private MultiPaxos cyrene;
+
+    @Before
+    public void setupLeaseCluster() throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peers) ->
+                new MultiPaxos(name, clock, config.withLeaderLease(Duration.ofSeconds(1), Duration.ofMillis(50)),
+                        clientConnectionAddress, peerConnectionAddress, peers));
+        athens = nodes.get("athens");
+        byzantium = nodes.get("byzantium");
+        cyrene = nodes.get("cyrene");
+    }
+
+    @Test
+    public void leaderServesReadsLocallyWhileLeaseIsValid() throws Exception {
+        electAthensWithLease();
+        assertEquals("Microservices", executeCommand("title", "Microservices"));
+
+        int logSize = athens.paxosLog.size();
+        assertEquals("Microservices", queryValue("title").getResult().value.get());
+        assertEquals("Reads should not append to the log", logSize, athens.paxosLog.size());
+    }
+
+    @Test
+    public void leaderCanNotServeReadsWhenItCanNotConfirmLeadership() throws Exception {
+        electAthensWithLease();
+        executeCommand("title", "Microservices");
+
+        athens.dropMessagesTo(byzantium);
+        athens.dropMessagesTo(cyrene);
+        TestUtils.waitUntilTrue(() -> !athens.hasValidLease(), "Waiting for the lease to expire", Duration.ofSeconds(5));
+
+        assertTrue("Read should fail without a quorum to confirm the leadership", queryValue("title").isError());
+
+        athens.reconnectTo(byzantium);
+        athens.reconnectTo(cyrene);
+        assertEquals("Microservices", queryValue("title").getResult().value.get());
+    }
+
+    @Test
+    public void followersDoNotAcceptAnotherLeaderWhileLeaseIsValid() throws Exception {
+        electAthensWithLease();
+
+        var election = byzantium.runElection();
+
+        assertThrows(ExecutionException.class, () -> election.get(5, TimeUnit.SECONDS));
+        assertTrue(athens.isLeader());
+    }
+
+    @Test
+    public void newLeaderServesReadsOnlyAfterApplyingEntriesFromEarlierLeaders() throws Exception {
+        //byzantium accepted an entry from an earlier leader, but did not learn that it was committed.
+        byte[] command = new SetValueCommand("title", "Microservices").serialize();
+        byzantium.paxosLog.put(0, new PaxosState().accept(new MonotonicId(1, athens.getServerId()), Optional.of(command)));
+        //As the new leader, byzantium commits it again, but applies it only when the delayed Commit reaches itself.
+        byzantium.addDelayForMessagesOfType(byzantium, MessageId.Commit);
+
+        byzantium.leaderElection();
+        TestUtils.waitUntilTrue(() -> byzantium.isLeader(), "Waiting for leader election", Duration.ofSeconds(2));
+        assertEquals(-1, byzantium.highWatermark);
+
+        assertEquals("Microservices", queryValue(byzantium, "title").getResult().value.get());
+    }
+
+    private void electAthensWithLease() {
+        athens.leaderElection();
+        TestUtils.waitUntilTrue(() -> athens.isLeader(), "Waiting for leader election", Duration.ofSeconds(2));
+        TestUtils.waitUntilTrue(() -> athens.hasValidLease(), "Waiting for the lease", Duration.ofSeconds(2));
+    }
+
+    private String executeCommand(String key, String value) throws IOException {
+        byte[] command = new SetValueCommand(key, value).serialize();
+        return new NetworkClient().sendAndReceive(new ExecuteCommandRequest(command), athens.getClientConnectionAddress(), ExecuteCommandResponse.class)
+                .getResult().getResponse().get();
+    }
+
+    private NetworkClient.Response<GetValueResponse> queryValue(String key) throws IOException {
+        return queryValue(athens, key);
+    }
+
+    private NetworkClient.Response<GetValueResponse> queryValue(MultiPaxos node, String key) throws IOException {
+        return new NetworkClient().sendAndReceive(new GetValueRequest(key), node.getClientConnectionAddress(), GetValueResponse.class);
+    }
+}
@@ -0,0 +1,80 @@
+package replicate.multipaxos;
+
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.TestUtils;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * With pipelined replication, the leader has multiple log entries in flight,
+ * and followers learn about the commits from the commitIndex sent with the next Propose.
+ */
+public class MultiPaxosPipelinedReplicationTest extends ClusterTest<MultiPaxos> {
+    private MultiPaxos athens;
+    private MultiPaxos byzantium;
+    private MultiPaxos cyrene;
+
+    @Before
+    public void setupPipelinedCluster() throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peers) ->
+                new MultiPaxos(name, clock, config.withPipelinedReplication(8),
+                        clientConnectionAddress, peerConnectionAddress, peers));
+        athens = nodes.get("athens");
+        byzantium = nodes.get("byzantium");
+        cyrene = nodes.get("cyrene");
+    }
+
+    @Test
+    public void appliesConcurrentCommandsInLogOrderOnAllNodes() throws Exception {
+        athens.leaderElection();
+        TestUtils.waitUntilTrue(() -> athens.isLeader(), "Waiting for leader election", Duration.ofSeconds(2));
+
+        assertAllSucceeded(sendCommands(athens, 0, 100, i -> new SetValueCommand("key", "value" + i)));
+
+        assertEquals(99, athens.highWatermark);
+        TestUtils.waitUntilTrue(() -> byzantium.highWatermark == 99 && cyrene.highWatermark == 99,
+                "Waiting for followers to commit all the entries", Duration.ofSeconds(5));
+        //all the nodes applied the commands in the same order.
+        assertEquals(athens.getValue("key"), byzantium.getValue("key"));
+        assertEquals(athens.getValue("key"), cyrene.getValue("key"));
+    }
+
+    @Test
+    public void followersCommitTheLastEntryWithoutAnotherPropose() throws Exception {
+        athens.leaderElection();
+        TestUtils.waitUntilTrue(() -> athens.isLeader(), "Waiting for leader election", Duration.ofSeconds(2));
+
+        byte[] command = new SetValueCommand("title", "Microservices").serialize();
+        var response = client().sendAsync(new ExecuteCommandRequest(command), athens.getClientConnectionAddress(), ExecuteCommandResponse.class).get();
+
+        assertEquals("Microservices", response.getResult().getResponse().get());
+        TestUtils.waitUntilTrue(() -> "Microservices".equals(byzantium.getValue("title"))
+                && "Microservices".equals(cyrene.getValue("title")), "Waiting for followers to apply", Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void followerWhichMissedAProposeGetsTheValueWithTheCommit() throws Exception {
+        athens.leaderElection();
+        TestUtils.waitUntilTrue(() -> athens.isLeader(), "Waiting for leader election", Duration.ofSeconds(2));
+
+        //cyrene misses the Propose and the Commit for the first entry.
+        athens.dropMessagesTo(cyrene);
+        assertAllSucceeded(sendCommands(athens, 0, 1, i -> new SetValueCommand("title", "Microservices")));
+        athens.reconnectTo(cyrene);
+
+        assertAllSucceeded(sendSetValueCommands(athens, "key", 0, 5));
+
+        TestUtils.waitUntilTrue(() -> cyrene.highWatermark == athens.highWatermark,
+                "Waiting for cyrene to commit the entry it did not accept", Duration.ofSeconds(5));
+        assertEquals("Microservices", cyrene.getValue("title"));
+        assertEquals("value4", cyrene.getValue("key4"));
+    }
+}
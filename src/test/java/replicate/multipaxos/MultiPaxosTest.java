@@ -249,12 +249,12 @@ public class MultiPaxosTest extends ClusterTest<MultiPaxos> {
     }
     
     private void verifyAllNodesHaveCommittedEntry(int index, String context) {
-        assertTrue(context + " - Athens entry " + index + " should be committed",
-                  athens.paxosLog.get(index).committedValue().isPresent());
-        assertTrue(context + " - Byzantium entry " + index + " should be committed",
-                  byzantium.paxosLog.get(index).committedValue().isPresent());
-        assertTrue(context + " - Cyrene entry " + index + " should be committed",
-                  cyrene.paxosLog.get(index).committedValue().isPresent());
+        //The client is answered once a quorum commits, so the commit to the remaining node may still be in flight.
+        for (MultiPaxos node : Arrays.asList(athens, byzantium, cyrene)) {
+            TestUtils.waitUntilTrue(() -> node.paxosLog.get(index) != null
+                            && node.paxosLog.get(index).committedValue().isPresent(),
+                    context + " - " + node.getName() + " entry " + index + " should be committed", Duration.ofSeconds(2));
+        }
     }
 
     // ============================================================================
@@ -0,0 +1,60 @@
+package replicate.net;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DispatchStageTest {
+    private final DispatchStage stage = new DispatchStage("test-dispatch", 1, 2, false);
+
+    @After
+    public void shutdown() {
+        stage.shutdown();
+    }
+
+    @Test
+    public void rejectsRequestsWhenTheQueueIsFull() throws InterruptedException {
+        var blocked = new CountDownLatch(1);
+        assertTrue(stage.submit(() -> await(blocked)));
+        assertTrue(stage.submit(() -> {}));
+
+        assertFalse(stage.submit(() -> {}));
+        assertEquals(2, stage.getQueueDepth());
+        assertEquals(1, stage.getRejectedRequests());
+
+        blocked.countDown();
+        var done = new CountDownLatch(1);
+        waitForEmptyQueue();
+        assertTrue(stage.submit(done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, stage.getDispatchedRequests());
+    }
+
+    @Test
+    public void rejectsRequestsAfterShutdown() {
+        stage.shutdown();
+
+        assertFalse(stage.submit(() -> {}));
+        assertEquals(0, stage.getQueueDepth());
+    }
+
+    private void waitForEmptyQueue() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stage.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, stage.getQueueDepth());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
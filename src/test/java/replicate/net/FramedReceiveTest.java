@@ -0,0 +1,132 @@
+package replicate.net;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FramedReceiveTest {
+    private final ByteBufferPool pool = new ByteBufferPool(1024, 4);
+    private final List<byte[]> frames = new ArrayList<>();
+
+    @Test
+    public void readsMultipleFramesInASingleRead() throws IOException {
+        var channel = new ChunkedChannel(framed(bytes(10, 'a'), bytes(20, 'b'), bytes(30, 'c')), Integer.MAX_VALUE);
+
+        new FramedReceive(pool).readFrom(channel, this::collect);
+
+        assertEquals(3, frames.size());
+        assertArrayEquals(bytes(20, 'b'), frames.get(1));
+    }
+
+    @Test
+    public void readsFramesSplitAcrossReads() throws IOException {
+        var channel = new ChunkedChannel(framed(bytes(100, 'a'), bytes(200, 'b')), 7);
+
+        var receive = new FramedReceive(pool);
+        while (channel.hasRemaining()) {
+            receive.readFrom(channel, this::collect);
+        }
+
+        assertEquals(2, frames.size());
+        assertArrayEquals(bytes(100, 'a'), frames.get(0));
+        assertArrayEquals(bytes(200, 'b'), frames.get(1));
+    }
+
+    @Test
+    public void readsFramesLargerThanTheReadBuffer() throws IOException {
+        var channel = new ChunkedChannel(framed(bytes(10, 'a'), bytes(5000, 'b'), bytes(10, 'c')), 512);
+
+        var receive = new FramedReceive(pool);
+        while (channel.hasRemaining()) {
+            receive.readFrom(channel, this::collect);
+        }
+
+        assertEquals(3, frames.size());
+        assertArrayEquals(bytes(5000, 'b'), frames.get(1));
+        assertArrayEquals(bytes(10, 'c'), frames.get(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeFrameSize() throws IOException {
+        var channel = new ChunkedChannel(ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip(), 10);
+
+        new FramedReceive(pool).readFrom(channel, this::collect);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFrameSizeAboveTheLimit() throws IOException {
+        var channel = new ChunkedChannel(ByteBuffer.allocate(Integer.BYTES).putInt(FramedReceive.maxFrameBytes + 1).flip(), 10);
+
+        new FramedReceive(pool).readFrom(channel, this::collect);
+    }
+
+    @Test
+    public void returnsEndOfStream() throws IOException {
+        var channel = new ChunkedChannel(ByteBuffer.allocate(0), 10);
+
+        assertEquals(-1, new FramedReceive(pool).readFrom(channel, this::collect));
+    }
+
+    private void collect(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        frames.add(bytes);
+    }
+
+    private static byte[] bytes(int size, char c) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+
+    private static ByteBuffer framed(byte[]... frames) {
+        int size = Arrays.stream(frames).mapToInt(f -> Integer.BYTES + f.length).sum();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] frame : frames) {
+            buffer.putInt(frame.length).put(frame);
+        }
+        return buffer.flip();
+    }
+
+    //returns at most chunkSize bytes per read, like a socket receiving the data in parts.
+    static class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+        private final int chunkSize;
+
+        ChunkedChannel(ByteBuffer data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        boolean hasRemaining() {
+            return data.hasRemaining();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(chunkSize, dst.remaining()), data.remaining());
+            dst.put(data.slice(data.position(), n));
+            data.position(data.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package replicate.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.BinaryWireCodec;
+import replicate.common.MessageId;
+import replicate.common.RequestOrResponse;
+import replicate.common.TestUtils;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NIOConnectionTest {
+    private final BinaryWireCodec codec = new BinaryWireCodec();
+    private InetAddressAndPort listenAddress;
+    private NIOSocketListener listener;
+    private final AtomicReference<NIOConnection> serverConnection = new AtomicReference<>();
+
+    @Before
+    public void startEchoListener() throws IOException {
+        listenAddress = TestUtils.randomLocalAddress();
+        listener = new NIOSocketListener(message -> message.getClientConnection()
+                .write(new RequestOrResponse(message.getMessageId().getId(), new byte[1024], message.getCorrelationId())),
+                listenAddress, codec) {
+            @Override
+            protected NIOConnection createConnection(SocketChannel sock, SelectionKey sk, NIOReactor reactor) throws IOException {
+                NIOConnection connection = super.createConnection(sock, sk, reactor);
+                serverConnection.set(connection);
+                return connection;
+            }
+        };
+        listener.start();
+    }
+
+    @After
+    public void shutdown() {
+        listener.shudown();
+    }
+
+    @Test
+    public void slowClientGetsAllTheResponses() throws Exception {
+        //enough responses to go past the high watermark while the client is not reading,
+        //even after the socket buffers are filled.
+        int noOfRequests = 4 * NIOConnection.highWatermarkBytes / 1024;
+        try (var socket = new Socket()) {
+            socket.setReceiveBufferSize(64 * 1024);
+            socket.connect(new InetSocketAddress(listenAddress.getAddress(), listenAddress.getPort()));
+            var os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (int i = 0; i < noOfRequests; i++) {
+                byte[] request = codec.encode(new RequestOrResponse(MessageId.Commit.getId(), new byte[0], i));
+                os.writeInt(request.length);
+                os.write(request);
+            }
+            os.flush();
+            TestUtils.waitUntilTrue(() -> serverConnection.get() != null
+                    && serverConnection.get().isReadPaused(), "Waiting for reads to be paused", Duration.ofSeconds(5));
+            NIOConnection connection = serverConnection.get();
+            assertEquals(1, connection.getReadPauses());
+            assertTrue(connection.getPendingBytesAtLastPause() > NIOConnection.highWatermarkBytes);
+
+            var is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Set<Integer> correlationIds = new HashSet<>();
+            for (int i = 0; i < noOfRequests; i++) {
+                byte[] response = new byte[is.readInt()];
+                is.readFully(response);
+                correlationIds.add(codec.decode(ByteBuffer.wrap(response)).getCorrelationId());
+            }
+            assertEquals(noOfRequests, correlationIds.size());
+
+            TestUtils.waitUntilTrue(() -> !connection.isReadPaused(), "Waiting for reads to be resumed", Duration.ofSeconds(5));
+            assertTrue(connection.getPendingBytesAtLastResume() <= NIOConnection.lowWatermarkBytes);
+        }
+    }
+}
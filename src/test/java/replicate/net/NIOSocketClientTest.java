@@ -0,0 +1,65 @@
+package replicate.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.BinaryWireCodec;
+import replicate.common.Message;
+import replicate.common.MessageId;
+import replicate.common.RequestOrResponse;
+import replicate.common.TestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class NIOSocketClientTest {
+    private InetAddressAndPort listenAddress;
+    private NIOSocketListener listener;
+    private NIOSocketClient client;
+    private final List<RequestOrResponse> received = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void startListener() throws IOException {
+        listenAddress = TestUtils.randomLocalAddress();
+        listener = new NIOSocketListener(message -> received.add(message.messagePayload()), listenAddress, new BinaryWireCodec());
+        listener.start();
+        client = new NIOSocketClient("test-client", new BinaryWireCodec());
+        client.start();
+    }
+
+    @After
+    public void shutdown() {
+        client.shutdown();
+        listener.shudown();
+    }
+
+    @Test
+    public void sendsAllMessagesOnASingleConnection() throws IOException {
+        var connection = client.connect(listenAddress);
+        int noOfMessages = 1000;
+        for (int i = 0; i < noOfMessages; i++) {
+            connection.send(new RequestOrResponse(MessageId.Commit.getId(), new byte[i % 100], i));
+        }
+
+        TestUtils.waitUntilTrue(() -> received.size() == noOfMessages, "Waiting for all the messages", Duration.ofSeconds(5));
+        assertEquals(1, listener.connectionCount());
+    }
+
+    @Test
+    public void failsToSendOnClosedConnection() throws IOException {
+        var connection = client.connect(listenAddress);
+        connection.close();
+
+        assertTrue(connection.isClosed());
+        assertThrows(IOException.class, () -> connection.send(new RequestOrResponse(MessageId.Commit.getId(), new byte[0], 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToConnectToUnreachablePeer() throws IOException {
+        client.connect(TestUtils.randomLocalAddress());
+    }
+}
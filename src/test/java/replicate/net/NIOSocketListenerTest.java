@@ -0,0 +1,68 @@
+package replicate.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.BinaryWireCodec;
+import replicate.common.MessageId;
+import replicate.common.RequestOrResponse;
+import replicate.common.TestUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class NIOSocketListenerTest {
+    private final BinaryWireCodec codec = new BinaryWireCodec();
+    private InetAddressAndPort listenAddress;
+    private NIOSocketListener listener;
+
+    @Before
+    public void startListenerWithMultipleReactors() throws IOException {
+        listenAddress = TestUtils.randomLocalAddress();
+        listener = new NIOSocketListener(message -> message.getClientConnection()
+                .write(new RequestOrResponse(message.getMessageId().getId(), new byte[0], message.getCorrelationId())),
+                listenAddress, codec, 4);
+        listener.start();
+    }
+
+    @After
+    public void shutdown() {
+        listener.shudown();
+    }
+
+    @Test
+    public void servesConnectionsSpreadAcrossReactors() throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sockets.add(new Socket(listenAddress.getAddress(), listenAddress.getPort()));
+        }
+        TestUtils.waitUntilTrue(() -> listener.connectionCount() == 8, "Waiting for all the connections", Duration.ofSeconds(5));
+
+        for (int i = 0; i < sockets.size(); i++) {
+            var socket = sockets.get(i);
+            byte[] request = codec.encode(new RequestOrResponse(MessageId.Commit.getId(), new byte[0], i));
+            var os = new DataOutputStream(socket.getOutputStream());
+            os.writeInt(request.length);
+            os.write(request);
+            os.flush();
+
+            var is = new DataInputStream(socket.getInputStream());
+            byte[] response = new byte[is.readInt()];
+            is.readFully(response);
+            assertEquals(i, codec.decode(ByteBuffer.wrap(response)).getCorrelationId().intValue());
+        }
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        TestUtils.waitUntilTrue(() -> listener.connectionCount() == 0, "Waiting for connections to close", Duration.ofSeconds(5));
+    }
+}
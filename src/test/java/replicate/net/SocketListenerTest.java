@@ -0,0 +1,75 @@
+package replicate.net;
+
+import org.junit.After;
+import org.junit.Test;
+import replicate.common.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SocketListenerTest {
+    private SocketListener listener;
+
+    @After
+    public void shutdown() {
+        listener.shudown();
+    }
+
+    @Test
+    public void servesConcurrentConnectionsWithPlatformThreads() throws Exception {
+        servesConcurrentConnections(new Config());
+    }
+
+    //falls back to platform threads when not running on JDK 21+.
+    @Test
+    public void servesConcurrentConnectionsWithVirtualThreads() throws Exception {
+        servesConcurrentConnections(new Config().withVirtualThreads());
+    }
+
+    private void servesConcurrentConnections(Config config) throws Exception {
+        var listenAddress = TestUtils.randomLocalAddress();
+        listener = new SocketListener(message -> message.getClientConnection()
+                .write(new RequestOrResponse(message.getMessageId().getId(), new byte[0], message.getCorrelationId())),
+                listenAddress, config);
+        listener.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sockets.add(new Socket(listenAddress.getAddress(), listenAddress.getPort()));
+        }
+        TestUtils.waitUntilTrue(() -> listener.connectionCount() == 100, "Waiting for all the connections", Duration.ofSeconds(5));
+
+        for (int i = 0; i < sockets.size(); i++) {
+            send(sockets.get(i), new RequestOrResponse(MessageId.Commit.getId(), new byte[0], i));
+        }
+        for (int i = 0; i < sockets.size(); i++) {
+            assertEquals(i, receive(sockets.get(i)).getCorrelationId().intValue());
+        }
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private static void send(Socket socket, RequestOrResponse request) throws IOException {
+        byte[] bytes = JsonSerDes.serialize(request);
+        var os = new DataOutputStream(socket.getOutputStream());
+        os.writeInt(bytes.length);
+        os.write(bytes);
+        os.flush();
+    }
+
+    private static RequestOrResponse receive(Socket socket) throws IOException {
+        var is = new DataInputStream(socket.getInputStream());
+        byte[] response = new byte[is.readInt()];
+        is.readFully(response);
+        return JsonSerDes.deserialize(response, RequestOrResponse.class);
+    }
+}
@@ -0,0 +1,52 @@
+package replicate.raft;
+
+import org.junit.Test;
+import replicate.common.Config;
+import replicate.common.SystemClock;
+import replicate.common.TestUtils;
+import replicate.net.InetAddressAndPort;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PersistentStateTest {
+
+    @Test
+    public void loadsSavedTermAndVote() {
+        var dir = TestUtils.tempDir("raftstate");
+        var candidate = InetAddressAndPort.create("127.0.0.1", 9000);
+
+        PersistentState.load(dir).save(3, candidate);
+
+        var state = PersistentState.load(dir);
+        assertEquals(3, state.getCurrentTerm());
+        assertEquals(candidate, state.getVotedFor());
+    }
+
+    @Test
+    public void startsWithoutVoteInTermZero() {
+        var state = PersistentState.load(TestUtils.tempDir("raftstate"));
+
+        assertEquals(0, state.getCurrentTerm());
+        assertNull(state.getVotedFor());
+    }
+
+    @Test
+    public void restartedServerKeepsItsVoteForTheTerm() throws IOException {
+        var config = new Config(TestUtils.tempDir("raft").getAbsolutePath());
+        var addresses = TestUtils.createNAddresses(3);
+        var peerAddress = addresses.get(0);
+        var raft = new Raft("athens", config, new SystemClock(), TestUtils.randomLocalAddress(), peerAddress, addresses);
+        raft.startElection();
+        raft.shutdown();
+
+        var restarted = new Raft("athens", config, new SystemClock(), TestUtils.randomLocalAddress(), TestUtils.randomLocalAddress(), addresses);
+        try {
+            assertEquals(1, restarted.currentTerm);
+            assertEquals(peerAddress, restarted.votedFor);
+        } finally {
+            restarted.shutdown();
+        }
+    }
+}
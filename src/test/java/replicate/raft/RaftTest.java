@@ -0,0 +1,166 @@
+package replicate.raft;
+
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.Config;
+import replicate.common.NetworkClient;
+import replicate.common.TestUtils;
+import replicate.paxos.messages.GetValueResponse;
+import replicate.quorum.messages.GetValueRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class RaftTest extends ClusterTest<Raft> {
+    Raft leader;
+    List<Raft> followers;
+
+    @Before
+    public void setUp() throws IOException {
+        startRaftCluster(config -> config);
+    }
+
+    private void startRaftCluster(UnaryOperator<Config> configure) throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peers) ->
+                new Raft(name, configure.apply(config.withAppendEntriesPipelining(10, 4)), clock, clientConnectionAddress, peerConnectionAddress, peers));
+
+        TestUtils.waitUntilTrue(() -> nodes.values().stream().anyMatch(Raft::isLeader)
+                        && nodes.values().stream().filter(Raft::isFollower).count() == nodes.size() - 1,
+                "Waiting for leader election", Duration.ofSeconds(10));
+
+        leader = getLeaderFrom(nodes.values());
+        followers = nodes.values().stream().filter(Raft::isFollower).collect(Collectors.toList());
+    }
+
+    private Raft getLeaderFrom(Collection<Raft> nodes) {
+        return nodes.stream().filter(Raft::isLeader).findFirst().get();
+    }
+
+    @Test
+    public void setsAndGetsValue() throws Exception {
+        var networkClient = new NetworkClient();
+        byte[] command = new SetValueCommand("title", "Microservices").serialize();
+        var setValueResponse = networkClient.sendAndReceive(new ExecuteCommandRequest(command), leader.getClientConnectionAddress(), ExecuteCommandResponse.class).getResult();
+        assertEquals(Optional.of("Microservices"), setValueResponse.getResponse());
+
+        var getValueResponse = networkClient.sendAndReceive(new GetValueRequest("title"), leader.getClientConnectionAddress(), GetValueResponse.class).getResult();
+        assertEquals(Optional.of("Microservices"), getValueResponse.value);
+    }
+
+    @Test
+    public void followersRejectClientRequests() throws Exception {
+        var networkClient = new NetworkClient();
+        byte[] command = new SetValueCommand("title", "Microservices").serialize();
+        var response = networkClient.sendAndReceive(new ExecuteCommandRequest(command), followers.get(0).getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertTrue(response.isError());
+    }
+
+    @Test
+    public void replicatesPipelinedCommandsToAllFollowers() throws Exception {
+        var responses = sendSetValueCommands(leader, "key", 0, 500);
+
+        for (int i = 0; i < responses.size(); i++) {
+            var response = responses.get(i).get();
+            assertTrue(response.isSuccess());
+            assertEquals("value" + i, response.getResult().getResponse().get());
+        }
+        //the commands are not in the order of the keys, as the client sends them over multiple connections.
+        TestUtils.waitUntilTrue(() -> followers.stream().allMatch(f -> f.wal.getLastLogIndex() == leader.wal.getLastLogIndex()
+                        && "value499".equals(f.getValue("key499"))),
+                "Waiting for followers to apply all the entries", Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void catchesUpFollowerWhichMissedEntries() throws Exception {
+        var laggingFollower = followers.get(0);
+        leader.dropMessagesTo(laggingFollower);
+
+        assertAllSucceeded(sendSetValueCommands(leader, "key", 0, 100)); //committed with the other follower.
+        assertNull(laggingFollower.getValue("key99"));
+
+        leader.reconnectTo(laggingFollower);
+        TestUtils.waitUntilTrue(() -> laggingFollower.wal.getLastLogIndex() == leader.wal.getLastLogIndex()
+                        && "value99".equals(laggingFollower.getValue("key99")),
+                "Waiting for the lagging follower to catch up", Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void newLeaderOverwritesUncommittedEntriesOfOldLeader() throws Exception {
+        var networkClient = new NetworkClient();
+        byte[] command = new SetValueCommand("title", "Microservices").serialize();
+        assertTrue(networkClient.sendAndReceive(new ExecuteCommandRequest(command), leader.getClientConnectionAddress(), ExecuteCommandResponse.class).isSuccess());
+
+        var oldLeader = leader;
+        for (Raft follower : followers) {
+            oldLeader.dropMessagesTo(follower); //both way failure.
+            follower.dropMessagesTo(oldLeader);
+        }
+        var uncommitted = sendSetValueCommands(oldLeader, "uncommitted", 0, 1).get(0);
+
+        TestUtils.waitUntilTrue(() -> followers.stream().anyMatch(Raft::isLeader),
+                "Waiting for new leader election", Duration.ofSeconds(5));
+        var newLeader = getLeaderFrom(followers);
+        assertTrue(newLeader.currentTerm > oldLeader.currentTerm);
+        assertTrue(oldLeader.isLeader());
+
+        command = new SetValueCommand("author", "Martin").serialize();
+        var response = networkClient.sendAndReceive(new ExecuteCommandRequest(command), newLeader.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertEquals(Optional.of("Martin"), response.getResult().getResponse());
+
+        for (Raft follower : followers) {
+            oldLeader.reconnectTo(follower);
+            follower.reconnectTo(oldLeader);
+        }
+        TestUtils.waitUntilTrue(() -> oldLeader.isFollower() && "Martin".equals(oldLeader.getValue("author")),
+                "Waiting for the old leader to step down and catch up", Duration.ofSeconds(5));
+        assertTrue(uncommitted.isCompletedExceptionally() || uncommitted.get().isError());
+        assertNull(oldLeader.getValue("uncommitted0"));
+        assertEquals("Microservices", oldLeader.getValue("title"));
+    }
+
+    @Test
+    public void truncatesConflictingEntriesSpanningRolledOverSegments() throws Exception {
+        nodes.values().forEach(Raft::shutdown);
+        startRaftCluster(config -> config.withMaxLogSize(200l)); //a few entries per segment.
+        assertAllSucceeded(sendSetValueCommands(leader, "key", 0, 5));
+
+        var oldLeader = leader;
+        for (Raft follower : followers) {
+            oldLeader.dropMessagesTo(follower); //both way failure.
+            follower.dropMessagesTo(oldLeader);
+        }
+        //Sent one at a time, so that each entry is a separate write and the segments are rolled over in between.
+        for (int i = 0; i < 10; i++) {
+            long lastLogIndex = oldLeader.wal.getLastLogIndex();
+            sendSetValueCommands(oldLeader, "uncommitted", i, i + 1);
+            TestUtils.waitUntilTrue(() -> oldLeader.wal.getLastLogIndex() > lastLogIndex,
+                    "Waiting for the old leader to write the uncommitted entry", Duration.ofSeconds(2));
+        }
+
+        TestUtils.waitUntilTrue(() -> followers.stream().anyMatch(Raft::isLeader),
+                "Waiting for new leader election", Duration.ofSeconds(5));
+        var newLeader = getLeaderFrom(followers);
+        assertAllSucceeded(sendSetValueCommands(newLeader, "author", 0, 1));
+
+        for (Raft follower : followers) {
+            oldLeader.reconnectTo(follower);
+            follower.reconnectTo(oldLeader);
+        }
+        TestUtils.waitUntilTrue(() -> oldLeader.isFollower()
+                        && oldLeader.wal.getLastLogIndex() == newLeader.wal.getLastLogIndex()
+                        && "value0".equals(oldLeader.getValue("author0")),
+                "Waiting for the old leader to truncate its log and catch up", Duration.ofSeconds(5));
+        assertNull(oldLeader.getValue("uncommitted0"));
+        assertEquals("value4", oldLeader.getValue("key4"));
+        assertEquals(newLeader.wal.getLastLogEntryGeneration(), oldLeader.wal.getLastLogEntryGeneration());
+    }
+}
@@ -0,0 +1,58 @@
+package replicate.vsr;
+
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.NetworkClient;
+import replicate.common.TestUtils;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * With batching, the primary prepares concurrent client requests with a single Prepare,
+ * and the backups acknowledge all the ops prepared so far with a single PrepareOK.
+ */
+public class ViewStampedReplicationBatchingTest extends ClusterTest<ViewStampedReplication> {
+    private ViewStampedReplication primary;
+    private List<ViewStampedReplication> backups;
+
+    @Before
+    public void setupBatchingCluster() throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) ->
+                new ViewStampedReplication(name, config.withCommandBatching(50, Duration.ofMillis(5)), clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
+        primary = ViewStampedReplicationTestUtils.waitForStableView(nodes.values());
+        backups = nodes.values().stream().filter(n -> n != primary).collect(Collectors.toList());
+    }
+
+    @Test
+    public void preparesConcurrentRequestsInBatches() throws Exception {
+        var responses = sendSetValueCommands(primary, "key", 0, 200);
+
+        for (int i = 0; i < responses.size(); i++) {
+            var response = responses.get(i).get();
+            assertTrue(response.isSuccess());
+            assertEquals("value" + i, response.getResult().getResponse().get());
+        }
+        //the commitNumber for the last batch reaches the backups with the heartbeat.
+        TestUtils.waitUntilTrue(() -> backups.stream().allMatch(b -> "value199".equals(b.kv.get("key199"))),
+                "Waiting for backups to apply all the ops", Duration.ofSeconds(5));
+        assertEquals("value0", backups.get(0).kv.get("key0"));
+    }
+
+    @Test
+    public void commitsSingleRequestAfterBatchDelay() throws Exception {
+        byte[] command = new SetValueCommand("title", "Microservices").serialize();
+        var response = new NetworkClient().sendAndReceive(new ExecuteCommandRequest(command), primary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertEquals("Microservices", response.getResult().getResponse().get());
+        TestUtils.waitUntilTrue(() -> backups.stream().allMatch(b -> "Microservices".equals(b.kv.get("title"))),
+                "Waiting for backups to apply the op", Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,81 @@
+package replicate.vsr;
+
+import org.junit.Before;
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.NetworkClient;
+import replicate.paxos.messages.GetValueResponse;
+import replicate.quorum.messages.GetValueRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads are served from the primary's kv after a quorum confirms the view, without appending to the log.
+ */
+public class ViewStampedReplicationReadTest extends ClusterTest<ViewStampedReplication> {
+    private ViewStampedReplication primary;
+    private List<ViewStampedReplication> backups;
+
+    @Before
+    public void setupCluster() throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) ->
+                new ViewStampedReplication(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
+        primary = ViewStampedReplicationTestUtils.waitForStableView(nodes.values());
+        backups = nodes.values().stream().filter(n -> n != primary).collect(Collectors.toList());
+    }
+
+    @Test
+    public void primaryServesConcurrentReadsWithoutAppendingToLog() throws Exception {
+        assertEquals("Microservices", executeCommand("title", "Microservices"));
+        int opNumber = primary.getOpNumber();
+        int viewConfirmationRounds = primary.getViewConfirmationRounds();
+
+        List<CompletableFuture<NetworkClient.Response<GetValueResponse>>> responses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            responses.add(client().sendAsync(new GetValueRequest("title"), primary.getClientConnectionAddress(), GetValueResponse.class));
+        }
+
+        for (var response : responses) {
+            assertEquals(Optional.of("Microservices"), response.get().getResult().value);
+        }
+        assertEquals("Reads should not append to the log", opNumber, primary.getOpNumber());
+        int roundsForReads = primary.getViewConfirmationRounds() - viewConfirmationRounds;
+        assertTrue("Concurrent reads should share view confirmation rounds, but took " + roundsForReads,
+                roundsForReads > 0 && roundsForReads <= 20);
+    }
+
+    @Test
+    public void readsAreRejectedByBackups() throws Exception {
+        executeCommand("title", "Microservices");
+
+        var response = client().sendAsync(new GetValueRequest("title"), backups.get(0).getClientConnectionAddress(), GetValueResponse.class).get();
+
+        assertTrue(response.isError());
+    }
+
+    @Test
+    public void primaryCanNotServeReadsWithoutQuorumInItsView() throws Exception {
+        executeCommand("title", "Microservices");
+
+        backups.forEach(backup -> primary.dropMessagesTo(backup));
+
+        var response = client().sendAsync(new GetValueRequest("title"), primary.getClientConnectionAddress(), GetValueResponse.class).get();
+        assertTrue("Read should fail without a quorum to confirm the view", response.isError());
+    }
+
+    private String executeCommand(String key, String value) throws IOException {
+        byte[] command = new SetValueCommand(key, value).serialize();
+        return new NetworkClient().sendAndReceive(new ExecuteCommandRequest(command), primary.getClientConnectionAddress(), ExecuteCommandResponse.class)
+                .getResult().getResponse().get();
+    }
+}
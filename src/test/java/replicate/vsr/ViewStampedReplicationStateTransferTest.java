@@ -0,0 +1,93 @@
+package replicate.vsr;
+
+import org.junit.Test;
+import replicate.common.ClusterTest;
+import replicate.common.Config;
+import replicate.common.NetworkClient;
+import replicate.common.TestUtils;
+import replicate.twophaseexecution.messages.ExecuteCommandRequest;
+import replicate.twophaseexecution.messages.ExecuteCommandResponse;
+import replicate.wal.SetValueCommand;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.*;
+
+/**
+ * A backup which missed ops while it was partitioned fetches them from the primary
+ * with GetState/NewState, in chunks, and rejoins without a view change.
+ */
+public class ViewStampedReplicationStateTransferTest extends ClusterTest<ViewStampedReplication> {
+    private ViewStampedReplication primary;
+    private ViewStampedReplication laggingBackup;
+    private int viewNumber;
+
+    private void startCluster(UnaryOperator<Config> configure) throws IOException {
+        startCluster((name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) ->
+                new ViewStampedReplication(name, configure.apply(config.withCommandBatching(50, Duration.ofMillis(5))), clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
+        primary = ViewStampedReplicationTestUtils.waitForStableView(nodes.values());
+        laggingBackup = nodes.values().stream().filter(n -> n != primary).findFirst().get();
+        viewNumber = primary.getViewNumber();
+    }
+
+    @Test
+    public void laggingBackupFetchesMissingOpsInChunks() throws Exception {
+        startCluster(config -> config.withStateTransfer(20, 50));
+
+        executeSetValues(0, 200);
+        partitionLaggingBackupWhile(() -> executeSetValues(200, 300));
+
+        waitUntilLaggingBackupCatchesUp(300);
+        assertEquals(viewNumber, laggingBackup.getViewNumber());
+        assertEquals(viewNumber, primary.getViewNumber());
+    }
+
+    @Test
+    public void laggingBackupInstallsCheckpointWhenPrimaryHasTruncatedLog() throws Exception {
+        startCluster(config -> config.withStateTransfer(20, 50).withLogCheckpoints(50));
+
+        executeSetValues(0, 200);
+        partitionLaggingBackupWhile(() -> executeSetValues(200, 300));
+
+        //the primary has only the ops after its last checkpoint, so most of the keys reach the backup with the checkpoint.
+        waitUntilLaggingBackupCatchesUp(300);
+        assertEquals(viewNumber, laggingBackup.getViewNumber());
+
+        var response = new NetworkClient().sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("title", "Microservices").serialize()), primary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertTrue(response.isSuccess());
+        TestUtils.waitUntilTrue(() -> "Microservices".equals(laggingBackup.kv.get("title")),
+                "Waiting for the backup to apply new ops after the catch-up", Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void rejectsStateTransferConfigWithoutAnyTransfers() {
+        assertThrows(IllegalArgumentException.class, () -> new Config().withStateTransfer(20, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Config().withStateTransfer(0, 50));
+    }
+
+    //the ops are not in the order of the keys, as the client sends them over multiple connections.
+    private void waitUntilLaggingBackupCatchesUp(int noOfKeys) {
+        TestUtils.waitUntilTrue(() -> laggingBackup.getOpNumber() == primary.getOpNumber() && laggingBackup.kv.size() == noOfKeys,
+                "Waiting for the lagging backup to catch up", Duration.ofSeconds(10));
+        for (int i = 0; i < noOfKeys; i++) {
+            assertEquals("value" + i, laggingBackup.kv.get("key" + i));
+        }
+    }
+
+    //The partition is shorter than the heartbeat timeout, so the backup does not start a view change.
+    private void partitionLaggingBackupWhile(ThrowingRunnable operations) throws Exception {
+        primary.dropMessagesTo(laggingBackup);
+        operations.run();
+        primary.reconnectTo(laggingBackup);
+    }
+
+    private void executeSetValues(int fromKey, int toKey) throws Exception {
+        assertAllSucceeded(sendSetValueCommands(primary, "key", fromKey, toKey)); //committed with the other backup.
+    }
+
+    interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
@@ -12,11 +12,15 @@ import replicate.wal.SetValueCommand;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ViewStampedReplicationTest extends ClusterTest<ViewStampedReplication> {
 
@@ -39,11 +43,7 @@ public class ViewStampedReplicationTest extends ClusterTest<ViewStampedReplicati
         super.nodes = TestUtils.startCluster(Arrays.asList("athens", "byzantium", "cyrene"),
                         (name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) -> new ViewStampedReplication(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
 
-        var athens = nodes.get("athens");
-        var byzantium = nodes.get("byzantium");
-        var cyrene = nodes.get("cyrene");
-
-        var primaryAddress = getPrimaryNode(athens.getPrimaryAddress()).getClientConnectionAddress();
+        var primaryAddress = ViewStampedReplicationTestUtils.waitForStableView(nodes.values()).getClientConnectionAddress();
 
         var client = new NetworkClient();
         var casCommand = new SetValueCommand("title", "Microservices");
@@ -58,9 +58,8 @@ public class ViewStampedReplicationTest extends ClusterTest<ViewStampedReplicati
         super.nodes = TestUtils.startCluster(Arrays.asList("athens", "byzantium", "cyrene"),
                         (name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) -> new ViewStampedReplication(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
 
-        var athens = nodes.get("athens");
-
-        var primary = getPrimaryNode(athens.getPrimaryAddress());
+        var primary = ViewStampedReplicationTestUtils.waitForStableView(nodes.values());
+        int viewNumber = primary.getViewNumber();
         var primaryAddressClientConnectionAddress = primary.getClientConnectionAddress();
         var primaryPeerAddress = primary.getPeerConnectionAddress();
 
@@ -79,10 +78,114 @@ public class ViewStampedReplicationTest extends ClusterTest<ViewStampedReplicati
 
         TestUtils.waitUntilTrue(()->{
             return !backUpNodes.get(0).getPrimaryAddress().equals(primaryPeerAddress) && !backUpNodes.get(1).getPrimaryAddress().equals(primaryPeerAddress)
-                    && backUpNodes.get(0).getViewNumber() == 1 && backUpNodes.get(1).getViewNumber() == 1;
+                    && backUpNodes.get(0).getViewNumber() > viewNumber && backUpNodes.get(0).getViewNumber() == backUpNodes.get(1).getViewNumber();
         }, "Waiting for new primary to be elected", Duration.ofSeconds(5));
     }
 
+    @Test
+    public void newPrimarySendsMissingOpsToLaggingBackup() throws Exception {
+        super.nodes = TestUtils.startCluster(Arrays.asList("athens", "byzantium", "cyrene"),
+                        (name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) -> new ViewStampedReplication(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
+
+        //primary for the current view, the new primary for the next view and the lagging backup.
+        var replicas = replicasInPrimaryOrder();
+        var primary = replicas.get(0);
+        var newPrimary = replicas.get(1);
+        var laggingBackup = replicas.get(2);
+        int nextViewNumber = primary.getViewNumber() + 1;
+
+        var client = new NetworkClient();
+        var response = client.sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("title", "Microservices").serialize()), primary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertTrue(response.isSuccess());
+        TestUtils.waitUntilTrue(() -> "Microservices".equals(laggingBackup.kv.get("title")), "Waiting for backups to apply the op", Duration.ofSeconds(5));
+
+        primary.dropMessagesTo(laggingBackup);
+        for (int i = 0; i < 5; i++) {
+            response = client.sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("key" + i, "value" + i).serialize()), primary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+            assertTrue(response.isSuccess()); //committed with the other backup.
+        }
+        primary.shutdown();
+
+        TestUtils.waitUntilTrue(() -> laggingBackup.getViewNumber() == nextViewNumber && "value4".equals(laggingBackup.kv.get("key4")),
+                "Waiting for the lagging backup to get the missing ops in the new view", Duration.ofSeconds(10));
+        assertEquals(newPrimary.getPeerConnectionAddress(), laggingBackup.getPrimaryAddress());
+        assertEquals(newPrimary.getOpNumber(), laggingBackup.getOpNumber());
+
+        response = client.sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("author", "Martin").serialize()), newPrimary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertEquals(Optional.of("Martin"), response.getResult().getResponse());
+        TestUtils.waitUntilTrue(() -> "Martin".equals(laggingBackup.kv.get("author")), "Waiting for the backup to apply the op in the new view", Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void laggingNewPrimaryFetchesCommittedOpsBeforeStartingView() throws Exception {
+        super.nodes = TestUtils.startCluster(Arrays.asList("athens", "byzantium", "cyrene"),
+                        (name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) -> new ViewStampedReplication(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
+
+        //primary for the current view, the lagging primary for the next view and the backup which has all the committed ops.
+        var replicas = replicasInPrimaryOrder();
+        var primary = replicas.get(0);
+        var newPrimary = replicas.get(1);
+        var backup = replicas.get(2);
+        int nextViewNumber = primary.getViewNumber() + 1;
+
+        var client = new NetworkClient();
+        var response = client.sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("title", "Microservices").serialize()), primary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertTrue(response.isSuccess());
+        TestUtils.waitUntilTrue(() -> "Microservices".equals(newPrimary.kv.get("title")), "Waiting for backups to apply the op", Duration.ofSeconds(5));
+
+        primary.dropMessagesTo(newPrimary);
+        for (int i = 0; i < 5; i++) {
+            response = client.sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("key" + i, "value" + i).serialize()), primary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+            assertTrue(response.isSuccess()); //committed with the other backup.
+        }
+        TestUtils.waitUntilTrue(() -> "value4".equals(backup.kv.get("key4")), "Waiting for the backup to commit the ops", Duration.ofSeconds(5));
+        primary.shutdown();
+
+        //the new primary has none of the ops committed after the first one, and gets them from the backup.
+        TestUtils.waitUntilTrue(() -> newPrimary.getViewNumber() == nextViewNumber && newPrimary.getStatus() == ViewStampedReplication.Status.Normal,
+                "Waiting for the new primary to start the view", Duration.ofSeconds(10));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("value" + i, newPrimary.kv.get("key" + i));
+        }
+
+        response = client.sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("author", "Martin").serialize()), newPrimary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+        assertEquals(Optional.of("Martin"), response.getResult().getResponse());
+    }
+
+    @Test
+    public void nextPrimaryRejectsClientRequestsBeforeStartingTheView() throws Exception {
+        super.nodes = TestUtils.startCluster(Arrays.asList("athens", "byzantium", "cyrene"),
+                        (name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses) -> new ViewStampedReplication(name, config, clock, clientConnectionAddress, peerConnectionAddress, peerAddresses));
+
+        var replicas = replicasInPrimaryOrder();
+        var nextPrimary = replicas.get(1);
+        int nextViewNumber = replicas.get(0).getViewNumber() + 1;
+        //the next primary can not get a quorum for the view change.
+        for (ViewStampedReplication replica : replicas) {
+            if (replica != nextPrimary) {
+                replica.dropMessagesTo(nextPrimary);
+                nextPrimary.dropMessagesTo(replica);
+            }
+        }
+        TestUtils.waitUntilTrue(() -> nextPrimary.getViewNumber() == nextViewNumber && nextPrimary.getStatus() == ViewStampedReplication.Status.ViewChange,
+                "Waiting for the view change to start", Duration.ofSeconds(5));
+        int opNumber = nextPrimary.getOpNumber();
+
+        var response = new NetworkClient().sendAndReceive(new ExecuteCommandRequest(new SetValueCommand("title", "Microservices").serialize()), nextPrimary.getClientConnectionAddress(), ExecuteCommandResponse.class);
+
+        assertEquals(Optional.of("Not processing as the request is sent to backup."), response.getResult().getResponse());
+        assertFalse(response.getResult().isCommitted());
+        assertEquals(opNumber, nextPrimary.getOpNumber());
+    }
+
+    //The primary of the current view first, followed by the primaries of the next views.
+    private List<ViewStampedReplication> replicasInPrimaryOrder() {
+        var primary = ViewStampedReplicationTestUtils.waitForStableView(nodes.values());
+        var replicas = nodes.values().stream().sorted(Comparator.comparing(ViewStampedReplication::getPeerConnectionAddress)).collect(Collectors.toList());
+        Collections.rotate(replicas, -replicas.indexOf(primary));
+        return replicas;
+    }
+
     private List<ViewStampedReplication> getBackUpNodes(InetAddressAndPort primaryAddress) {
         return this.nodes.values().stream().filter(n -> !n.getPeerConnectionAddress().equals(primaryAddress)).collect(Collectors.toList());
     }
@@ -0,0 +1,21 @@
+package replicate.vsr;
+
+import replicate.common.TestUtils;
+
+import java.time.Duration;
+import java.util.Collection;
+
+class ViewStampedReplicationTestUtils {
+
+    //A slow start can delay the first heartbeats enough to start a view change,
+    //so the primary is known only once the backups get heartbeats in the same view.
+    static ViewStampedReplication waitForStableView(Collection<ViewStampedReplication> replicas) {
+        var first = replicas.iterator().next();
+        TestUtils.waitUntilTrue(() -> replicas.stream().allMatch(r -> r.getStatus() == ViewStampedReplication.Status.Normal
+                        && r.getViewNumber() == first.getViewNumber()
+                        && (r.getPeerConnectionAddress().equals(r.getPrimaryAddress())
+                            || r.elapsedTimeSinceLastHeartbeat().toMillis() < 200)),
+                "Waiting for the replicas to be in the same view", Duration.ofSeconds(10));
+        return replicas.stream().filter(r -> r.getPeerConnectionAddress().equals(first.getPrimaryAddress())).findFirst().get();
+    }
+}
@@ -5,16 +5,26 @@ import replicate.common.Config;
 import replicate.common.TestUtils;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DurableKVStoreTest {
 
+    //Subclasses run the same tests with other storage engines.
+    protected Config newConfig(File walDir) {
+        return new Config(walDir.getAbsolutePath());
+    }
+
     @Test
     public void shouldRecoverKVStoreStateFromWAL() {
         //public static void main(String args[]) {
         File walDir = TestUtils.tempDir("distrib/patterns/wal");
-        DurableKVStore kv = new DurableKVStore(new Config(walDir.getAbsolutePath()));
+        DurableKVStore kv = new DurableKVStore(newConfig(walDir));
         kv.put("title", "Microservices");
 
 
@@ -38,12 +48,120 @@ public class DurableKVStoreTest {
 
 
         //simulates process restart. A new instance is created at startup.
-        DurableKVStore recoveredKvStore = new DurableKVStore(new Config(walDir.getAbsolutePath()));
+        DurableKVStore recoveredKvStore = new DurableKVStore(newConfig(walDir));
 
         assertEquals(recoveredKvStore.get("title"), "Microservices");
         assertEquals(recoveredKvStore.get("author"), "Martin");
         assertEquals(recoveredKvStore.get("newTitle"), "Distributed Systems");
     }
 
+    @Test
+    public void shouldRecoverFromSnapshotAndLogEntriesAfterIt() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = newConfig(walDir)
+                .withMaxLogSize(200l)
+                .withSnapshots(); //snapshots are taken explicitly.
+        DurableKVStore kv = new DurableKVStore(config);
+        for (int i = 1; i <= 30; i++) {
+            kv.put("key" + i, "value" + i);
+        }
+        assertEquals(Long.valueOf(30), kv.takeSnapshot());
+        kv.put("key31", "value31");
+        kv.put("key1", "updatedValue1");
+
+        int noOfSegments = kv.wal.sortedSavedSegments.size();
+        kv.logCleaner.cleanLogs();
+        assertTrue(kv.wal.sortedSavedSegments.size() < noOfSegments);
+        assertTrue(kv.wal.sortedSavedSegments.get(0).getFirstLogEntryIndex() > 1);
+        kv.close();
+
+        DurableKVStore recoveredKvStore = new DurableKVStore(config);
+        assertEquals(32, recoveredKvStore.getLastAppliedEntryId());
+        assertEquals(31, recoveredKvStore.values().size());
+        assertEquals("updatedValue1", recoveredKvStore.get("key1"));
+        assertEquals("value15", recoveredKvStore.get("key15"));
+        assertEquals("value31", recoveredKvStore.get("key31"));
+        recoveredKvStore.close();
+    }
+
+    @Test
+    public void pipelinedPutsAreAppliedInOrderAndRecovered() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = newConfig(walDir).withGroupCommit();
+        DurableKVStore kv = new DurableKVStore(config);
+
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            puts.add(kv.putAsync("key" + (i % 10), "value" + i));
+        }
+        CompletableFuture<Void> lastPut = kv.putAsync("title", "Microservices");
+        lastPut.join();
+        //read your own write.
+        assertEquals("Microservices", kv.get("title"));
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture[0])).join();
+        //the last put for each key wins.
+        assertEquals("value1000", kv.get("key0"));
+        assertEquals("value999", kv.get("key9"));
+        assertEquals(1001, kv.getLastAppliedEntryId());
+        kv.close();
+
+        DurableKVStore recoveredKvStore = new DurableKVStore(config);
+        assertEquals("value1000", recoveredKvStore.get("key0"));
+        assertEquals("value991", recoveredKvStore.get("key1"));
+        assertEquals("Microservices", recoveredKvStore.get("title"));
+        recoveredKvStore.close();
+    }
+
+    @Test
+    public void storageEngineReturnsRangeOfBatchWrites() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        StorageEngine engine = DurableKVStore.newStorageEngine(newConfig(walDir));
+        engine.write(new StorageBatch()
+                .put("apple", "1").put("banana", "2").put("cherry", "3").put("date", "4")
+                .delete("banana"));
+
+        SortedMap<String, String> range = engine.range("apple", "date");
+        assertEquals(List.of("apple", "cherry"), new ArrayList<>(range.keySet()));
+        assertEquals("3", range.get("cherry"));
 
-}
\ No newline at end of file
+        engine.put("blueberry", "5");
+        assertEquals("Range should not change with later puts", 2, range.size());
+        assertEquals(3, engine.range("apple", "date").size());
+        engine.close();
+    }
+
+    @Test
+    public void storageEngineRecoversSnapshotAfterReopen() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = newConfig(walDir);
+        StorageEngine engine = DurableKVStore.newStorageEngine(config);
+        engine.put("title", "Microservices");
+        engine.put("author", "Martin");
+        engine.snapshot(2);
+        engine.close();
+
+        StorageEngine reopenedEngine = DurableKVStore.newStorageEngine(config);
+        assertEquals(2, reopenedEngine.recover());
+        assertEquals("Microservices", reopenedEngine.get("title"));
+        assertEquals("Martin", reopenedEngine.get("author"));
+        reopenedEngine.close();
+    }
+
+    @Test
+    public void storageEngineSnapshotsValuesLargerThan64KB() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = newConfig(walDir);
+        StorageEngine engine = DurableKVStore.newStorageEngine(config);
+        String largeValue = "é".repeat(40_000); //80000 bytes in UTF-8.
+        engine.put("title", "Microservices");
+        engine.put("content", largeValue);
+        engine.snapshot(2);
+        engine.close();
+
+        StorageEngine reopenedEngine = DurableKVStore.newStorageEngine(config);
+        assertEquals(2, reopenedEngine.recover());
+        assertEquals("Microservices", reopenedEngine.get("title"));
+        assertEquals(largeValue, reopenedEngine.get("content"));
+        reopenedEngine.close();
+    }
+}
@@ -0,0 +1,16 @@
+package replicate.wal;
+
+import replicate.common.Config;
+
+import java.io.File;
+
+/**
+ * Runs the DurableKVStore tests with the RocksDB storage engine.
+ */
+public class RocksDBDurableKVStoreTest extends DurableKVStoreTest {
+
+    @Override
+    protected Config newConfig(File walDir) {
+        return super.newConfig(walDir).withRocksDBStorage();
+    }
+}
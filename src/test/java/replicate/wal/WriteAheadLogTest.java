@@ -0,0 +1,258 @@
+package replicate.wal;
+
+import org.junit.Test;
+import replicate.common.Config;
+import replicate.common.TestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    @Test
+    public void groupCommitWritesConcurrentEntriesWithContiguousIndexes() throws Exception {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath())
+                .withGroupCommit()
+                .withMaxBatchEntries(50)
+                .withMaxBatchWaitTime(Duration.ofMillis(2));
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+
+        int noOfWriters = 8;
+        int writesPerWriter = 100;
+        ExecutorService writers = Executors.newFixedThreadPool(noOfWriters);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < noOfWriters; i++) {
+            int writerId = i;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                CompletableFuture<Long> last = null;
+                for (int j = 0; j < writesPerWriter; j++) {
+                    last = wal.writeEntryAsync(("writer" + writerId + "_" + j).getBytes(), 0);
+                }
+                return last.join();
+            }, writers));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        writers.shutdown();
+
+        int totalWrites = noOfWriters * writesPerWriter;
+        assertEquals(totalWrites, wal.getLastLogIndex());
+        wal.close();
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(new Config(walDir.getAbsolutePath()));
+        List<WALEntry> entries = reopenedWal.readAll();
+        assertEquals(totalWrites, entries.size());
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), entries.get(i).getEntryIndex());
+            values.add(new String(entries.get(i).getData()));
+        }
+        assertEquals(totalWrites, values.size());
+        assertTrue(values.contains("writer0_0"));
+        reopenedWal.close();
+    }
+
+    @Test
+    public void entriesAreAppendedAfterReopeningTheLog() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        WriteAheadLog wal = WriteAheadLog.openWAL(new Config(walDir.getAbsolutePath()));
+        wal.writeEntry("first".getBytes());
+        wal.close();
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(new Config(walDir.getAbsolutePath()).withGroupCommit());
+        assertEquals(Long.valueOf(2), reopenedWal.writeEntryAsync("second".getBytes(), 0).join());
+        reopenedWal.close();
+
+        List<WALEntry> entries = WriteAheadLog.openWAL(new Config(walDir.getAbsolutePath())).readAll();
+        assertEquals(2, entries.size());
+        assertEquals("first", new String(entries.get(0).getData()));
+        assertEquals("second", new String(entries.get(1).getData()));
+    }
+
+    @Test
+    public void readsEntriesFromRolledOverSegments() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath()).withMaxLogSize(200l);
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+        for (int i = 1; i <= 50; i++) {
+            wal.writeEntry(("value" + i).getBytes());
+        }
+        assertTrue(wal.sortedSavedSegments.size() > 1);
+        assertTrue(wal.sortedSavedSegments.get(0).isSealed());
+        assertEquals("value1", new String(wal.readAt(1l).getData()));
+        assertEquals("value25", new String(wal.readAt(25l).getData()));
+        assertEquals("value50", new String(wal.readAt(50l).getData()));
+        wal.close();
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(config);
+        assertEquals(50, reopenedWal.getLastLogIndex());
+        assertEquals("value7", new String(reopenedWal.readAt(7l).getData()));
+        assertEquals(Long.valueOf(7), reopenedWal.readAt(7l).getEntryIndex());
+        assertEquals(50, reopenedWal.readAll().size());
+        reopenedWal.close();
+    }
+
+    @Test
+    public void truncatesEntriesInRolledOverSegments() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath()).withMaxLogSize(200l);
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+        for (int i = 1; i <= 50; i++) {
+            wal.writeEntry(("value" + i).getBytes());
+        }
+        long secondSegmentStart = wal.sortedSavedSegments.get(1).getFirstLogEntryIndex();
+        wal.truncate(secondSegmentStart + 1);
+        assertEquals(secondSegmentStart, wal.getLastLogIndex());
+        assertEquals(1, wal.sortedSavedSegments.size());
+        assertEquals(Long.valueOf(secondSegmentStart + 1), wal.writeEntry("overwritten".getBytes()));
+        wal.writeEntries(new ArrayList<>()); //does not roll over the segment.
+        assertEquals(secondSegmentStart + 1, wal.getLastLogIndex());
+
+        //No entries are left in the segment, so the segment before it is written to.
+        wal.truncate(secondSegmentStart);
+        assertEquals(secondSegmentStart - 1, wal.getLastLogIndex());
+        assertTrue(wal.sortedSavedSegments.isEmpty());
+        wal.writeEntry("overwritten".getBytes());
+        wal.close();
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(config);
+        assertEquals(secondSegmentStart, reopenedWal.getLastLogIndex());
+        assertEquals("overwritten", new String(reopenedWal.readAt(secondSegmentStart).getData()));
+        assertEquals("value1", new String(reopenedWal.readAt(1l).getData()));
+        reopenedWal.close();
+    }
+
+    @Test
+    public void rolledOverSegmentsAreOpenedFromIndexFiles() throws IOException {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath()).withMaxLogSize(200l);
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+        for (int i = 1; i <= 50; i++) {
+            wal.writeEntry(("value" + i).getBytes());
+        }
+        long lastTimestamp = wal.sortedSavedSegments.get(0).getLastLogEntryTimestamp();
+        wal.close();
+
+        File[] indexFiles = walDir.listFiles((dir, name) -> name.endsWith(".index"));
+        assertEquals(wal.sortedSavedSegments.size(), indexFiles.length);
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(config);
+        assertEquals(Long.valueOf(lastTimestamp), reopenedWal.sortedSavedSegments.get(0).getLastLogEntryTimestamp());
+        assertEquals("value3", new String(reopenedWal.readAt(3l).getData()));
+        reopenedWal.close();
+
+        //A corrupt index file is ignored and the segment is scanned instead.
+        Files.write(indexFiles[0].toPath(), "corrupt".getBytes());
+        WriteAheadLog recoveredWal = WriteAheadLog.openWAL(config);
+        assertEquals(50, recoveredWal.readAll().size());
+        assertEquals("value3", new String(recoveredWal.readAt(3l).getData()));
+        recoveredWal.close();
+    }
+
+    @Test
+    public void partiallyWrittenTailIsTruncatedOnOpen() throws IOException {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath());
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+        wal.writeEntry("first".getBytes());
+        wal.writeEntry("second".getBytes());
+        wal.close();
+
+        //simulate a crash in the middle of writing the third entry.
+        File segmentFile = new File(wal.openSegment.getFileName());
+        ByteBuffer thirdEntry = new WALEntry(3l, "third".getBytes(), EntryType.DATA, 0).serialize();
+        Files.write(segmentFile.toPath(), Arrays.copyOf(thirdEntry.array(), 20), StandardOpenOption.APPEND);
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(config);
+        assertEquals(2, reopenedWal.getLastLogIndex());
+        assertEquals(Long.valueOf(3), reopenedWal.writeEntry("third".getBytes()));
+        reopenedWal.close();
+
+        List<WALEntry> entries = WriteAheadLog.openWAL(config).readAll();
+        assertEquals(3, entries.size());
+        assertEquals("third", new String(entries.get(2).getData()));
+    }
+
+    @Test
+    public void entryFailingCrcCheckIsTruncatedOnOpen() throws IOException {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath());
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+        wal.writeEntry("first".getBytes());
+        wal.writeEntry("second".getBytes());
+        wal.close();
+
+        //flip the last byte of the data of the second entry.
+        Path segmentFile = Path.of(wal.openSegment.getFileName());
+        byte[] bytes = Files.readAllBytes(segmentFile);
+        bytes[bytes.length - 1] = (byte) ~bytes[bytes.length - 1];
+        Files.write(segmentFile, bytes);
+
+        WriteAheadLog reopenedWal = WriteAheadLog.openWAL(config);
+        List<WALEntry> entries = reopenedWal.readAll();
+        assertEquals(1, entries.size());
+        assertEquals("first", new String(entries.get(0).getData()));
+        reopenedWal.close();
+    }
+
+    @Test
+    public void corruptEntryInRolledOverSegmentIsNotTruncated() throws IOException {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        Config config = new Config(walDir.getAbsolutePath()).withMaxLogSize(200l);
+        WriteAheadLog wal = WriteAheadLog.openWAL(config);
+        for (int i = 1; i <= 50; i++) {
+            wal.writeEntry(("value" + i).getBytes());
+        }
+        Path sealedSegment = Path.of(wal.sortedSavedSegments.get(0).getFileName());
+        wal.close();
+
+        //without the index file, the segment is scanned. Flip the last data byte of its first entry.
+        Files.delete(OffsetIndexFile.indexFileFor(sealedSegment.toFile()).toPath());
+        byte[] bytes = Files.readAllBytes(sealedSegment);
+        int firstEntrySize = new WALEntry(1l, "value1".getBytes(), EntryType.DATA, 0).serialize().limit();
+        bytes[firstEntrySize - 1] = (byte) ~bytes[firstEntrySize - 1];
+        Files.write(sealedSegment, bytes);
+
+        assertThrows(CorruptLogEntryException.class, () -> WriteAheadLog.openWAL(config));
+        assertEquals(bytes.length, Files.size(sealedSegment));
+    }
+
+    @Test
+    public void iteratesOverEntriesAcrossSegmentsFromStartIndex() {
+        File walDir = TestUtils.tempDir("distrib/patterns/wal");
+        WriteAheadLog wal = WriteAheadLog.openWAL(new Config(walDir.getAbsolutePath()).withMaxLogSize(200l));
+        for (int i = 1; i <= 50; i++) {
+            wal.writeEntry(("value" + i).getBytes());
+        }
+
+        WALIterator iterator = wal.iterator(10);
+        long expectedIndex = 10;
+        while (iterator.hasNext()) {
+            WALEntry entry = iterator.next();
+            assertEquals(Long.valueOf(expectedIndex), entry.getEntryIndex());
+            assertEquals("value" + expectedIndex, new String(entry.getData()));
+            expectedIndex++;
+        }
+        assertEquals(51, expectedIndex);
+        assertEquals(41, wal.readFrom(10l).size());
+        assertEquals(5, wal.stream(46).count());
+        wal.close();
+    }
+}